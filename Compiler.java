@@ -1,19 +1,226 @@
+import driver.BatchCompiler;
+import driver.CompileCache;
+import driver.CompileDaemon;
+import driver.CompileSession;
+import driver.IncrementalCompiler;
+import driver.ScalingHarness;
+import driver.StartupBenchmark;
+import driver.TrainingRun;
+import driver.WorkloadGenerator;
 import lexical.Lexer;
 import llvm.IRGenerator;
+import llvm.pass.PassManager;
+import program.CompileAbortedException;
+import program.PhaseProfiler;
+import program.PhaseProfiler.Phase;
 import program.ProgramException;
 import program.SourceProgram;
 import semantics.Visitor;
 import symbol.SymbolTable;
 import syntax.Parser;
+import syntax.nodes.ASTnode;
 import syntax.nodes.CompUnit;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Scanner;
 
 public class Compiler {
-    public static void main(String[] args) throws IOException {
+    // 编译器版本，与优化流程的标识（各遍的名字和修订号，见 PassManager.getKey）一起作为编译结果缓存和增量编译状态的键；
+    // 优化遍的修改只需要更新这个遍的修订号，其他改变输出内容的修改（前端、代码生成、输出格式）需要更新这里
+    private static final String VERSION = "sysy-compiler 4";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean streaming = false; // 流式编译：逐个处理顶层成分，函数的代码生成完毕后立即释放其语法树和符号表
+        boolean fused = false; // 一遍式编译：语义检查和代码生成在同一次遍历中完成
+        boolean optimize = true; // 打印每个函数之前运行优化遍，-O0 关闭
+        boolean profileTable = false; // 在标准错误输出上打印各阶段耗时统计表
+        String profileJsonPath = null; // 把各阶段耗时统计以 JSON 形式写到指定文件
+        boolean abortOnError = false;
+        boolean daemon = false; // 常驻编译服务：通过标准输入输出接收编译请求并返回结果
+        int workerNum = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = 64;
+        int maxSourceBytes = 16 << 20;
+        int maxStoredExceptions = 1 << 16;
+        boolean batch = false; // 批量编译：并行编译参数中给出的目录和文件
+        ArrayList<String> batchPaths = new ArrayList<>();
+        String batchOutputDir = null;
+        String cacheDir = null; // 编译结果缓存目录，指定后相同的源程序直接使用缓存的结果
+        long cacheMaxBytes = 256L << 20;
+        boolean cacheStats = false;
+        String incrementalDir = null; // 增量编译的状态目录，只重新编译发生变化或受到影响的函数
+        int codegenThreadNum = 1; // 大于 1 时各个函数的代码在线程池上并行生成，只用于默认的两遍编译
+        boolean generate = false; // 把按规模参数生成的测试程序输出到标准输出
+        boolean scaling = false; // 规模测试：逐步放大生成的测试程序，报告各阶段的耗时和堆内存峰值
+        WorkloadGenerator.Config workload = new WorkloadGenerator.Config();
+        String scaleKnob = "functions";
+        int scaleSteps = 5;
+        int scaleRepeat = 3;
+        boolean train = false; // 训练负载：把各种编译路径各走一遍，用于生成 CDS 归档（见 sysyc）
+        boolean startupBenchmark = false; // 比较各种启动方式编译 hello world 的耗时
+        String cdsArchive = "build/sysy.jsa";
+        String nativeImage = "build/sysyc";
+        for (String arg : args) {
+            if (arg.equals("--stream")) {
+                streaming = true;
+            }
+            else if (arg.equals("--fused")) {
+                fused = true;
+            }
+            else if (arg.equals("--abort-on-error")) { // 出现第一个语义错误后立即结束编译，不再进行后续的分析和代码生成
+                abortOnError = true;
+                ProgramException.setAbortOnSemanticsException(true);
+            }
+            else if (arg.startsWith("--max-errors=")) { // 最多保存并输出的错误条数
+                maxStoredExceptions = Integer.parseInt(arg.substring("--max-errors=".length()));
+                ProgramException.setMaxStoredExceptions(maxStoredExceptions);
+            }
+            else if (arg.equals("--profile")) {
+                profileTable = true;
+            }
+            else if (arg.startsWith("--profile-json=")) {
+                profileJsonPath = arg.substring("--profile-json=".length());
+            }
+            else if (arg.equals("--daemon")) {
+                daemon = true;
+            }
+            else if (arg.startsWith("--workers=")) { // 编译服务的工作线程数
+                workerNum = Integer.parseInt(arg.substring("--workers=".length()));
+            }
+            else if (arg.startsWith("--queue=")) { // 编译服务最多排队等待的请求数
+                queueCapacity = Integer.parseInt(arg.substring("--queue=".length()));
+            }
+            else if (arg.startsWith("--max-source-bytes=")) { // 编译服务接受的源程序大小上限
+                maxSourceBytes = Integer.parseInt(arg.substring("--max-source-bytes=".length()));
+            }
+            else if (arg.equals("--batch")) {
+                batch = true;
+            }
+            else if (arg.startsWith("--out=")) { // 批量编译的输出目录
+                batchOutputDir = arg.substring("--out=".length());
+            }
+            else if (arg.startsWith("--jobs=")) { // 批量编译的并行线程数
+                workerNum = Integer.parseInt(arg.substring("--jobs=".length()));
+            }
+            else if (arg.startsWith("--cache=")) {
+                cacheDir = arg.substring("--cache=".length());
+            }
+            else if (arg.startsWith("--cache-size=")) { // 缓存总大小上限（字节）
+                cacheMaxBytes = Long.parseLong(arg.substring("--cache-size=".length()));
+            }
+            else if (arg.equals("--cache-stats")) { // 输出缓存的命中统计后退出
+                cacheStats = true;
+            }
+            else if (arg.startsWith("--incremental=")) {
+                incrementalDir = arg.substring("--incremental=".length());
+            }
+            else if (arg.startsWith("--codegen-threads=")) {
+                codegenThreadNum = Integer.parseInt(arg.substring("--codegen-threads=".length()));
+            }
+            else if (arg.equals("--generate")) {
+                generate = true;
+            }
+            else if (arg.equals("--scaling")) {
+                scaling = true;
+            }
+            else if (arg.startsWith("--scale=")) { // 规模测试中逐步加倍的规模参数
+                scaleKnob = arg.substring("--scale=".length());
+            }
+            else if (arg.startsWith("--scale-steps=")) {
+                scaleSteps = Integer.parseInt(arg.substring("--scale-steps=".length()));
+            }
+            else if (arg.startsWith("--repeat=")) { // 规模测试中每一步的编译次数，启动时间测试中每种方式的运行次数
+                scaleRepeat = Integer.parseInt(arg.substring("--repeat=".length()));
+            }
+            else if (arg.equals("--train")) {
+                train = true;
+            }
+            else if (arg.equals("--startup-benchmark")) {
+                startupBenchmark = true;
+            }
+            else if (arg.startsWith("--cds-archive=")) {
+                cdsArchive = arg.substring("--cds-archive=".length());
+            }
+            else if (arg.startsWith("--native-image=")) {
+                nativeImage = arg.substring("--native-image=".length());
+            }
+            else if (arg.equals("-O0")) { // 不运行优化遍，输出与 IRGenerator 直接生成的代码相同
+                optimize = false;
+            }
+            else if (arg.equals("-O1")) {
+                optimize = true;
+            }
+            else if (workload.parseOption(arg)) { // --seed、--functions、--statements、--depth、--expr-length、--array-size、--comment-density
+            }
+            else if (!arg.startsWith("--")) {
+                batchPaths.add(arg);
+            }
+        }
+
+        if (generate) {
+            System.out.print(WorkloadGenerator.generate(workload));
+            return;
+        }
+        if (scaling) {
+            CompileSession session = new CompileSession(fused, false, maxStoredExceptions, optimize);
+            try {
+                new ScalingHarness(session, workload, scaleKnob, scaleSteps, scaleRepeat).run(System.out);
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (train) {
+            try {
+                TrainingRun.run(System.out);
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (startupBenchmark) {
+            new StartupBenchmark(cdsArchive, nativeImage, scaleRepeat).run(System.out);
+            return;
+        }
+        if (daemon) {
+            CompileSession session = new CompileSession(fused, false, maxStoredExceptions, optimize);
+            new CompileDaemon(session, workerNum, queueCapacity, maxSourceBytes).serve(System.in, System.out);
+            return;
+        }
+        if (batch) {
+            CompileSession session = new CompileSession(fused, false, maxStoredExceptions, optimize);
+            new BatchCompiler(session, batchOutputDir == null ? null : Path.of(batchOutputDir)).run(batchPaths, workerNum);
+            return;
+        }
+
+        CompileCache cache = null;
+        String cacheKey = null;
+        if (cacheDir != null) {
+            cache = new CompileCache(Path.of(cacheDir), cacheMaxBytes);
+            if (cacheStats) {
+                System.out.println(cache.statsReport());
+                return;
+            }
+            // 会改变输出内容的选项也要作为键的一部分
+            String versionKey = versionKey(optimize) + " max-errors=" + maxStoredExceptions + " abort-on-error=" + abortOnError;
+            cacheKey = CompileCache.key(versionKey, Files.readAllBytes(Path.of("testfile.txt")));
+            if (cache.restore(cacheKey, Path.of("."))) {
+                return;
+            }
+            Files.deleteIfExists(Path.of("llvm_ir.txt")); // 有语义错误时不会生成中间代码，不能把上一次留下的文件存入缓存
+        }
+
+        PhaseProfiler profiler = new PhaseProfiler(profileTable || profileJsonPath != null);
+
+        profiler.begin(Phase.READ_SOURCE);
         File inputFile = new File("testfile.txt");
         Scanner scanner = new Scanner(inputFile);
         SourceProgram program = new SourceProgram();
@@ -21,37 +228,127 @@ public class Compiler {
             String line = scanner.nextLine();
             program.addLine(line);
         }
+        profiler.end(Phase.READ_SOURCE);
+        profiler.count("sourceLines", program.getLineNum());
 
         FileWriter parseWriter = new FileWriter("parser.txt");
         FileWriter visitorWriter = new FileWriter("symbol.txt");
         FileWriter errorWriter = new FileWriter("error.txt");
 
-        Lexer lexer = new Lexer(program, true, parseWriter);
+        profiler.begin(Phase.LEX);
+        Lexer lexer = new Lexer(program, true, parseWriter, streaming); // 流式编译时按需进行词法分析，词法分析的耗时计入语法分析
+        profiler.end(Phase.LEX);
         Parser parser = new Parser(lexer, true, parseWriter);
         Visitor visitor = new Visitor(false, visitorWriter);
 
         CompUnit compUnit = null;
+        File irSpoolFile = new File("llvm_ir.txt.tmp"); // 流式编译和一遍式编译时中间代码先写到临时文件，确认没有语义错误后才作为结果
+        boolean spooled = streaming || fused || incrementalDir != null;
+        boolean aborted = false;
+        boolean crashed = false; // 编译器内部出错，此时的结果不能放入缓存
+        IRGenerator irGenerator = null;
+        IncrementalCompiler incrementalCompiler = null;
 
-        try {
-            compUnit = parser.parseCompUnit();
-            visitor.visitCompUnit(compUnit);
-            SymbolTable.printSymbolTable(visitorWriter);
+        if (incrementalDir != null) {
+            FileWriter irSpoolWriter = new FileWriter(irSpoolFile);
+            try {
+                incrementalCompiler = new IncrementalCompiler(Path.of(incrementalDir), versionKey(optimize));
+                irGenerator = new IRGenerator(irSpoolWriter, visitor);
+                irGenerator.setOptimize(optimize);
+                profiler.begin(Phase.CODEGEN); // 语法分析、语义检查和代码生成交替进行，全部计入代码生成
+                incrementalCompiler.compile(lexer, parser, visitor, irGenerator);
+                profiler.end(Phase.CODEGEN);
+                printSymbolTable(visitorWriter, profiler);
+            }
+            catch (CompileAbortedException e) {
+                aborted = true;
+            }
+            catch (Exception e) {
+                crashed = true;
+                e.printStackTrace();
+            }
+            irSpoolWriter.close();
         }
-        catch (Exception e) {
-            e.printStackTrace();
+        else if (fused) {
+            FileWriter irSpoolWriter = new FileWriter(irSpoolFile);
+            try {
+                irGenerator = new IRGenerator(irSpoolWriter, visitor);
+                irGenerator.setOptimize(optimize);
+                compileFused(lexer, parser, irGenerator, streaming, profiler);
+                printSymbolTable(visitorWriter, profiler);
+            }
+            catch (CompileAbortedException e) {
+                aborted = true;
+            }
+            catch (Exception e) {
+                crashed = true;
+                e.printStackTrace();
+            }
+            irSpoolWriter.close();
+        }
+        else if (streaming) {
+            FileWriter irSpoolWriter = new FileWriter(irSpoolFile);
+            try {
+                irGenerator = new IRGenerator(irSpoolWriter);
+                irGenerator.setOptimize(optimize);
+                compileStreaming(lexer, parser, visitor, irGenerator, profiler);
+                printSymbolTable(visitorWriter, profiler);
+            }
+            catch (CompileAbortedException e) {
+                aborted = true;
+            }
+            catch (Exception e) {
+                crashed = true;
+                e.printStackTrace();
+            }
+            irSpoolWriter.close();
+        }
+        else {
+            try {
+                profiler.begin(Phase.PARSE);
+                compUnit = parser.parseCompUnit();
+                profiler.end(Phase.PARSE);
+                profiler.begin(Phase.CHECK);
+                visitor.visitCompUnit(compUnit);
+                profiler.end(Phase.CHECK);
+                printSymbolTable(visitorWriter, profiler);
+            }
+            catch (CompileAbortedException e) {
+                aborted = true;
+            }
+            catch (Exception e) {
+                crashed = true;
+                e.printStackTrace();
+            }
         }
 
         // 输出错误
-        ProgramException.sortExceptions();
-        for (ProgramException exception : ProgramException.exceptions) {
-            errorWriter.write(exception.toString() + "\n");
+        ProgramException.printExceptions(errorWriter);
+        if (ProgramException.getDroppedCount() > 0) {
+            System.err.println("另有 " + ProgramException.getDroppedCount() + " 个错误超出保存上限，未输出");
         }
 
-        if (!ProgramException.containsSemanticsException()) { // 保证没有语义分析的错误再进行代码生成
-            FileWriter irWriter = new FileWriter("llvm_ir.txt");
-            IRGenerator irGenerator = new IRGenerator(irWriter);
-            irGenerator.codeGen(compUnit);
-            irWriter.close();
+        if (!aborted && !ProgramException.containsSemanticsException()) { // 保证没有语义分析的错误再进行代码生成
+            if (spooled) {
+                Files.move(irSpoolFile.toPath(), new File("llvm_ir.txt").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            else {
+                FileWriter irWriter = new FileWriter("llvm_ir.txt");
+                irGenerator = new IRGenerator(irWriter);
+                irGenerator.setOptimize(optimize);
+                profiler.begin(Phase.CODEGEN);
+                if (codegenThreadNum > 1) {
+                    irGenerator.codeGen(compUnit, codegenThreadNum);
+                }
+                else {
+                    irGenerator.codeGen(compUnit);
+                }
+                irWriter.close();
+                profiler.end(Phase.CODEGEN);
+            }
+        }
+        else if (spooled) {
+            irSpoolFile.delete();
         }
 
         // 关闭文件输出流
@@ -59,5 +356,94 @@ public class Compiler {
         errorWriter.close();
         visitorWriter.close();
 
+        if (cache != null && !crashed) {
+            cache.store(cacheKey, Path.of("."));
+        }
+        if (incrementalCompiler != null && !crashed && !aborted) {
+            incrementalCompiler.saveState(versionKey(optimize));
+            profiler.count("reusedFunctions", incrementalCompiler.getReusedNum());
+            profiler.count("recompiledFunctions", incrementalCompiler.getRecompiledNum());
+        }
+
+        if (profiler.isEnabled()) {
+            profiler.count("tokens", lexer.getTokenCount());
+            profiler.count("astNodes", ASTnode.getCreatedCount());
+            profiler.count("scopes", SymbolTable.getSymbolTableCount());
+            profiler.count("symbols", SymbolTable.getSymbolCount());
+            profiler.count("errors", ProgramException.getTotalCount());
+            if (irGenerator != null) {
+                profiler.count("irFunctions", irGenerator.getFunctionCount());
+                profiler.count("irBasicBlocks", irGenerator.getBasicBlockCount());
+                profiler.count("irInstructions", irGenerator.getInstructionCount());
+                irGenerator.getPassStatistics().forEach(profiler::count);
+            }
+            if (profileTable) {
+                profiler.printTable(new OutputStreamWriter(System.err));
+            }
+            if (profileJsonPath != null) {
+                try (FileWriter profileWriter = new FileWriter(profileJsonPath)) {
+                    profiler.printJson(profileWriter);
+                }
+            }
+        }
+    }
+
+    private static String versionKey(boolean optimize) { // -O0 时不运行任何优化遍
+        return VERSION + " passes=" + (optimize ? PassManager.createDefault().getKey() : "none");
+    }
+
+    private static void printSymbolTable(FileWriter visitorWriter, PhaseProfiler profiler) throws IOException {
+        profiler.begin(Phase.PRINT_SYMBOLS);
+        SymbolTable.printSymbolTable(visitorWriter);
+        profiler.end(Phase.PRINT_SYMBOLS);
+    }
+
+    private static void compileStreaming(Lexer lexer, Parser parser, Visitor visitor, IRGenerator irGenerator,
+                                         PhaseProfiler profiler) throws Exception {
+        SymbolTable.enableStreaming();
+        irGenerator.codeGenHeader();
+        ASTnode item;
+        while ((item = parseCompUnitItem(parser, profiler)) != null) {
+            profiler.begin(Phase.CHECK);
+            visitor.visitCompUnitItem(item);
+            profiler.end(Phase.CHECK);
+            if (!ProgramException.containsSemanticsException()) { // 一旦出现语义错误，后面的代码就不再生成
+                profiler.begin(Phase.CODEGEN);
+                irGenerator.codeGenCompUnitItem(item);
+                profiler.end(Phase.CODEGEN);
+            }
+            SymbolTable.releaseFunctionScopes(); // 此后 item 及其作用域都不再可达
+            lexer.releaseConsumedTokens();
+        }
+        parser.endCompUnit();
+    }
+
+    // 一遍式编译：IRGenerator 在生成每个成分之前调用 Visitor 检查，不再单独遍历一次语法树；
+    // 同时指定 --stream 时每个顶层成分处理完毕后释放其作用域和 token
+    // 此时语义检查的耗时计入代码生成
+    private static void compileFused(Lexer lexer, Parser parser, IRGenerator irGenerator, boolean streaming,
+                                     PhaseProfiler profiler) throws Exception {
+        if (streaming) {
+            SymbolTable.enableStreaming();
+        }
+        irGenerator.codeGenHeader();
+        ASTnode item;
+        while ((item = parseCompUnitItem(parser, profiler)) != null) {
+            profiler.begin(Phase.CODEGEN);
+            irGenerator.codeGenCompUnitItem(item);
+            profiler.end(Phase.CODEGEN);
+            if (streaming) {
+                SymbolTable.releaseFunctionScopes();
+                lexer.releaseConsumedTokens();
+            }
+        }
+        parser.endCompUnit();
+    }
+
+    private static ASTnode parseCompUnitItem(Parser parser, PhaseProfiler profiler) throws Exception {
+        profiler.begin(Phase.PARSE);
+        ASTnode item = parser.parseCompUnitItem();
+        profiler.end(Phase.PARSE);
+        return item;
     }
 }
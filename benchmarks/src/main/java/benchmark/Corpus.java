@@ -0,0 +1,34 @@
+package benchmark;
+
+import program.SourceProgram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+// 基准测试使用的固定源程序，位于 resources/corpus 下：
+//   small  只有几个函数的小程序
+//   large  数百个函数、数千行的大程序
+//   deep   深层嵌套的语句块、条件、循环和括号表达式
+//   expr   以复杂的算术和逻辑表达式为主
+//   array  以数组的声明、初始化和下标访问为主
+public class Corpus {
+
+    public static String load(String name) {
+        try (InputStream input = Corpus.class.getResourceAsStream("/corpus/" + name + ".sy")) {
+            if (input == null) {
+                throw new IllegalArgumentException("没有这个基准测试程序: " + name);
+            }
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static SourceProgram loadProgram(String name) {
+        return SourceProgram.fromText(load(name));
+    }
+
+}
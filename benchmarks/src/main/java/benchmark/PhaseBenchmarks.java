@@ -0,0 +1,129 @@
+package benchmark;
+
+import driver.CompileResult;
+import driver.CompileSession;
+import lexical.Lexer;
+import llvm.IRGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import program.ProgramException;
+import program.SourceProgram;
+import semantics.Visitor;
+import symbol.SymbolTable;
+import syntax.Parser;
+import syntax.nodes.CompUnit;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+// 分别测量词法分析、语法分析、语义分析、代码生成以及完整编译的吞吐量
+// 语法分析、语义分析和代码生成都会消耗或修改前一阶段的结果（token 流、符号表），
+// 因此前一阶段在每次调用之前重新准备（Level.Invocation），只有被测的阶段计入时间
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xss64m"}) // 与编译大程序时一样，为递归下降分析留出足够的栈
+public class PhaseBenchmarks {
+
+    @Param({"small", "large", "deep", "expr", "array"})
+    public String program;
+
+    private String sourceText;
+    private SourceProgram sourceProgram;
+
+    @Setup(Level.Trial)
+    public void loadProgram() {
+        sourceText = Corpus.load(program);
+        sourceProgram = SourceProgram.fromText(sourceText);
+    }
+
+    private static void resetSessions() { // 每次编译之前丢弃当前线程上一次编译的符号表和错误
+        SymbolTable.resetSession();
+        ProgramException.resetSession();
+    }
+
+    @State(Scope.Thread)
+    public static class Lexed {
+        private Lexer lexer;
+
+        @Setup(Level.Invocation)
+        public void lex(PhaseBenchmarks benchmarks) {
+            resetSessions();
+            lexer = new Lexer(benchmarks.sourceProgram, false, Writer.nullWriter());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Parsed {
+        private CompUnit compUnit;
+
+        @Setup(Level.Invocation)
+        public void parse(PhaseBenchmarks benchmarks) throws Exception {
+            resetSessions();
+            Lexer lexer = new Lexer(benchmarks.sourceProgram, false, Writer.nullWriter());
+            compUnit = new Parser(lexer, false, Writer.nullWriter()).parseCompUnit();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Checked {
+        private CompUnit compUnit;
+
+        @Setup(Level.Invocation)
+        public void check(PhaseBenchmarks benchmarks) throws Exception {
+            resetSessions();
+            Lexer lexer = new Lexer(benchmarks.sourceProgram, false, Writer.nullWriter());
+            compUnit = new Parser(lexer, false, Writer.nullWriter()).parseCompUnit();
+            new Visitor(false, Writer.nullWriter()).visitCompUnit(compUnit);
+        }
+    }
+
+    @Benchmark
+    public Lexer lex() {
+        ProgramException.resetSession();
+        return new Lexer(sourceProgram, false, Writer.nullWriter());
+    }
+
+    @Benchmark
+    public CompUnit parse(Lexed lexed) throws Exception {
+        return new Parser(lexed.lexer, false, Writer.nullWriter()).parseCompUnit();
+    }
+
+    @Benchmark
+    public int check(Parsed parsed) throws Exception {
+        new Visitor(false, Writer.nullWriter()).visitCompUnit(parsed.compUnit);
+        return SymbolTable.getSymbolCount();
+    }
+
+    @Benchmark
+    public StringWriter codegen(Checked checked) throws Exception {
+        StringWriter irWriter = new StringWriter();
+        new IRGenerator(irWriter).codeGen(checked.compUnit);
+        return irWriter;
+    }
+
+    // 完整编译，输出与命令行编译器的四个输出文件相同（包括 parser.txt 的内容）
+    @Benchmark
+    public CompileResult pipeline() throws Exception {
+        return new CompileSession(false, true, 1 << 16).compile(sourceText);
+    }
+
+    @Benchmark
+    public CompileResult pipelineFused() throws Exception {
+        return new CompileSession(true, true, 1 << 16).compile(sourceText);
+    }
+
+}
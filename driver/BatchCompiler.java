@@ -0,0 +1,147 @@
+package driver;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// 批量编译：在 ForkJoinPool 上并行编译多个源程序，每个源程序在各自的线程会话中独立编译
+// 每个源程序 xxx.sy 的结果写到 xxx.ll、xxx.error.txt、xxx.symbol.txt，
+// 指定输出目录时按照相对于输入目录的路径写到输出目录下，否则写在源程序旁边。
+// 与编译单个文件时（Scanner 和 FileWriter）一样按平台默认字符集读写，输出与逐个编译完全相同
+public class BatchCompiler {
+
+    private final CompileSession session;
+    private final Path outputRoot; // 为 null 时结果写在源程序旁边
+
+    // 统计信息
+    private final AtomicInteger succeededNum = new AtomicInteger();
+    private final AtomicInteger semanticsErrorNum = new AtomicInteger();
+    private final AtomicInteger failedNum = new AtomicInteger();
+    private final AtomicLong lineNum = new AtomicLong();
+
+    public BatchCompiler(CompileSession session, Path outputRoot) {
+        this.session = session;
+        this.outputRoot = outputRoot;
+    }
+
+    private static class Input {
+        private final Path source;
+        private final Path relative; // 相对于输入目录的路径，决定输出的位置
+
+        private Input(Path source, Path relative) {
+            this.source = source;
+            this.relative = relative;
+        }
+    }
+
+    // 把每个源程序平分成两半递归地提交，空闲的工作线程可以窃取尚未开始的一半
+    private class CompileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Input> inputs;
+        private final int from;
+        private final int to;
+
+        private CompileTask(List<Input> inputs, int from, int to) {
+            this.inputs = inputs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                compileOne(inputs.get(from));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CompileTask(inputs, from, middle), new CompileTask(inputs, middle, to));
+        }
+    }
+
+    public void run(List<String> paths, int parallelism) throws IOException {
+        List<Input> inputs = collectInputs(paths);
+        long startTime = System.nanoTime();
+        if (!inputs.isEmpty()) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new CompileTask(inputs, 0, inputs.size()));
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("files: %d  succeeded: %d  semantic errors: %d  failed: %d%n",
+            inputs.size(), succeededNum.get(), semanticsErrorNum.get(), failedNum.get());
+        System.out.printf("lines: %d  threads: %d  time: %.3f s  throughput: %.1f files/s, %.0f lines/s%n",
+            lineNum.get(), parallelism, seconds, inputs.size() / seconds, lineNum.get() / seconds);
+    }
+
+    private static List<Input> collectInputs(List<String> paths) throws IOException { // 目录中递归地查找 .sy 文件，文件直接加入
+        List<Input> inputs = new ArrayList<>();
+        for (String pathName : paths) {
+            Path path = Path.of(pathName);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(".sy"))
+                        .sorted()
+                        .forEach(file -> inputs.add(new Input(file, path.relativize(file))));
+                }
+            }
+            else {
+                inputs.add(new Input(path, path.getFileName()));
+            }
+        }
+        return inputs;
+    }
+
+    private void compileOne(Input input) {
+        try {
+            String source = new String(Files.readAllBytes(input.source), Charset.defaultCharset()); // 无法解码的字节与 Scanner 一样替换掉
+            CompileResult result = session.compile(source);
+            lineNum.addAndGet(result.lineNum);
+
+            Path outputDir = outputRoot == null ? input.source.toAbsolutePath().getParent()
+                : outputRoot.resolve(input.relative).getParent();
+            if (outputDir != null) {
+                Files.createDirectories(outputDir);
+            }
+            String baseName = baseName(input.source);
+            Path irFile = outputDir == null ? Path.of(baseName + ".ll") : outputDir.resolve(baseName + ".ll");
+            if (result.succeeded()) {
+                writeText(irFile, result.llvmIR);
+                succeededNum.incrementAndGet();
+            }
+            else {
+                Files.deleteIfExists(irFile); // 不保留上一次编译留下的中间代码
+                semanticsErrorNum.incrementAndGet();
+            }
+            writeText(irFile.resolveSibling(baseName + ".error.txt"), result.errors);
+            writeText(irFile.resolveSibling(baseName + ".symbol.txt"), result.symbols);
+        }
+        catch (Exception | StackOverflowError e) {
+            failedNum.incrementAndGet();
+            System.err.println(input.source + ": " + e);
+        }
+    }
+
+    private static void writeText(Path file, String text) throws IOException { // 无法编码的字符与 FileWriter 一样替换为 '?'
+        Files.write(file, text.getBytes(Charset.defaultCharset()));
+    }
+
+    private static String baseName(Path source) {
+        String fileName = source.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+}
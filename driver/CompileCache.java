@@ -0,0 +1,285 @@
+package driver;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// 按内容寻址的编译结果缓存：以源程序字节和编译器版本（以及影响输出的选项）的 SHA-256 为键，
+// 命中时直接写出缓存的 llvm_ir.txt、error.txt、symbol.txt、parser.txt，不再进行任何分析
+//
+// 每个条目是 <缓存目录>/<键的前两位>/<键> 一个文件，先写临时文件再原子地重命名，多个进程同时读写也不会读到写了一半的条目；
+// 命中时更新条目的修改时间，缓存总大小超出上限时按修改时间从旧到新淘汰（近似 LRU）；
+// 命中和未命中次数以及条目的总大小记录在 <缓存目录>/stats 中，通过文件锁在多个进程之间同步。
+// 每次写入只在 stats 中累加大小，超出上限时才扫描整个缓存目录，淘汰的同时用实际大小校正记录的总大小
+public class CompileCache {
+
+    public static final String[] OUTPUT_FILES = {"llvm_ir.txt", "error.txt", "symbol.txt", "parser.txt"};
+
+    private static final String ENTRY_MAGIC = "sysy-cache 1\n";
+
+    private final Path cacheDir;
+    private final long maxBytes;
+
+    public CompileCache(Path cacheDir, long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static String key(String versionKey, byte[] source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(versionKey.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) { // 每个 Java 平台都必须支持 SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path entryPath(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    // 查找缓存，命中时把各个输出文件写到 outputDir 并返回 true；条目不存在或已损坏时返回 false
+    public boolean restore(String key, Path outputDir) throws IOException {
+        Path entry = entryPath(key);
+        byte[] data;
+        try {
+            data = Files.readAllBytes(entry);
+        }
+        catch (NoSuchFileException e) {
+            recordLookup(false);
+            return false;
+        }
+        byte[][] sections = decode(data);
+        if (sections == null) {
+            updateStats(0, 1, Files.deleteIfExists(entry) ? -data.length : 0);
+            return false;
+        }
+        for (int i = 0; i < OUTPUT_FILES.length; i++) {
+            Path outputFile = outputDir.resolve(OUTPUT_FILES[i]);
+            if (sections[i] == null) { // 该文件在编译时没有生成
+                Files.deleteIfExists(outputFile);
+            }
+            else {
+                Files.write(outputFile, sections[i]);
+            }
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (NoSuchFileException e) { // 恰好被其他进程淘汰，不影响本次结果
+        }
+        recordLookup(true);
+        return true;
+    }
+
+    // 把 outputDir 中本次编译生成的各个输出文件存入缓存
+    public void store(String key, Path outputDir) throws IOException {
+        byte[][] sections = new byte[OUTPUT_FILES.length][];
+        for (int i = 0; i < OUTPUT_FILES.length; i++) {
+            Path outputFile = outputDir.resolve(OUTPUT_FILES[i]);
+            sections[i] = Files.exists(outputFile) ? Files.readAllBytes(outputFile) : null;
+        }
+        Path entry = entryPath(key);
+        Files.createDirectories(entry.getParent());
+        Path tempFile = Files.createTempFile(entry.getParent(), key, ".tmp");
+        byte[] data = encode(sections);
+        long replacedSize = sizeOf(entry); // 相同的键已经有条目时（例如另一个进程同时写入）只增加两者的差
+        try {
+            Files.write(tempFile, data);
+            try {
+                Files.move(tempFile, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+        updateStats(0, 0, data.length - replacedSize);
+    }
+
+    // 条目格式：魔数行，各部分长度一行（-1 表示没有该文件），之后依次是各部分的内容
+    private static byte[] encode(byte[][] sections) {
+        StringBuilder header = new StringBuilder(ENTRY_MAGIC);
+        int length = 0;
+        for (int i = 0; i < sections.length; i++) {
+            header.append(i == 0 ? "" : " ").append(sections[i] == null ? -1 : sections[i].length);
+            length += sections[i] == null ? 0 : sections[i].length;
+        }
+        header.append("\n");
+        byte[] headerBytes = header.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(headerBytes.length + length);
+        buffer.put(headerBytes);
+        for (byte[] section : sections) {
+            if (section != null) {
+                buffer.put(section);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static byte[][] decode(byte[] data) {
+        byte[] magic = ENTRY_MAGIC.getBytes(StandardCharsets.UTF_8);
+        int lineEnd = magic.length;
+        while (lineEnd < data.length && data[lineEnd] != '\n') {
+            lineEnd++;
+        }
+        if (lineEnd >= data.length || !new String(data, 0, magic.length, StandardCharsets.UTF_8).equals(ENTRY_MAGIC)) {
+            return null;
+        }
+        String[] lengths = new String(data, magic.length, lineEnd - magic.length, StandardCharsets.UTF_8).split(" ");
+        if (lengths.length != OUTPUT_FILES.length) {
+            return null;
+        }
+        byte[][] sections = new byte[OUTPUT_FILES.length][];
+        int offset = lineEnd + 1;
+        try {
+            for (int i = 0; i < OUTPUT_FILES.length; i++) {
+                int length = Integer.parseInt(lengths[i]);
+                if (length < 0) {
+                    continue;
+                }
+                if (offset + length > data.length) {
+                    return null;
+                }
+                sections[i] = new byte[length];
+                System.arraycopy(data, offset, sections[i], 0, length);
+                offset += length;
+            }
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        return offset == data.length ? sections : null;
+    }
+
+    // 扫描缓存目录，总大小超出上限时从最久没有使用的条目开始淘汰，直到总大小降到上限的九成以下，
+    // 避免每次写入都要淘汰。返回 {淘汰之后的总大小, 淘汰的条目数}，调用者持有 stats 的文件锁，同一时刻只有一个进程在淘汰
+    private long[] evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long totalBytes = 0;
+        try (DirectoryStream<Path> buckets = Files.newDirectoryStream(cacheDir, Files::isDirectory)) {
+            for (Path bucket : buckets) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(bucket)) {
+                    for (Path file : files) {
+                        if (!file.getFileName().toString().endsWith(".tmp")) {
+                            entries.add(file);
+                            totalBytes += sizeOf(file);
+                        }
+                    }
+                }
+            }
+        }
+        if (totalBytes <= maxBytes) {
+            return new long[] {totalBytes, 0};
+        }
+        entries.sort(Comparator.comparingLong(CompileCache::lastModifiedOf));
+        long targetBytes = maxBytes / 10 * 9;
+        int evicted = 0;
+        for (Path entry : entries) {
+            if (totalBytes <= targetBytes) {
+                break;
+            }
+            long size = sizeOf(entry);
+            if (Files.deleteIfExists(entry)) {
+                totalBytes -= size;
+                evicted++;
+            }
+        }
+        return new long[] {totalBytes, evicted};
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        }
+        catch (IOException e) { // 已被其他进程删除
+            return 0;
+        }
+    }
+
+    private static long lastModifiedOf(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        }
+        catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void recordLookup(boolean hit) throws IOException {
+        updateStats(hit ? 1 : 0, hit ? 0 : 1, 0);
+    }
+
+    // stats 文件内容为 "hits misses evictions bytes"，读写期间持有文件锁。addedBytes 累加到条目的总大小上，
+    // 总大小超出上限或者未知（旧格式或文件损坏）时扫描缓存目录并淘汰
+    private long[] updateStats(long hits, long misses, long addedBytes) throws IOException {
+        Files.createDirectories(cacheDir);
+        try (RandomAccessFile file = new RandomAccessFile(cacheDir.resolve("stats").toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            channel.lock(); // 通道关闭时释放
+            long[] stats = {0, 0, 0, -1};
+            byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            String[] fields = new String(content, StandardCharsets.UTF_8).trim().split("\\s+");
+            if (fields.length == 3 || fields.length == 4) {
+                try {
+                    for (int i = 0; i < fields.length; i++) {
+                        stats[i] = Long.parseLong(fields[i]);
+                    }
+                }
+                catch (NumberFormatException e) { // 文件损坏时重新开始计数
+                    stats = new long[] {0, 0, 0, -1};
+                }
+            }
+            stats[0] += hits;
+            stats[1] += misses;
+            boolean changed = hits != 0 || misses != 0 || addedBytes != 0;
+            if (stats[3] >= 0) {
+                stats[3] = Math.max(stats[3] + addedBytes, 0);
+            }
+            if (stats[3] < 0 || stats[3] > maxBytes) {
+                long[] evicted = evict();
+                stats[2] += evicted[1];
+                stats[3] = evicted[0];
+                changed = true;
+            }
+            if (changed) {
+                file.setLength(0);
+                file.write((stats[0] + " " + stats[1] + " " + stats[2] + " " + stats[3] + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            return stats;
+        }
+    }
+
+    public String statsReport() throws IOException {
+        long[] stats = updateStats(0, 0, 0);
+        long lookups = stats[0] + stats[1];
+        return String.format("hits: %d  misses: %d  hit rate: %.1f%%  evictions: %d",
+            stats[0], stats[1], lookups == 0 ? 0.0 : stats[0] * 100.0 / lookups, stats[2]);
+    }
+
+}
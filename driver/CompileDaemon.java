@@ -0,0 +1,196 @@
+package driver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 常驻编译服务：从标准输入读取编译请求，在工作线程池上编译，结果写到标准输出
+// 同一个进程处理所有请求，省去每次编译启动 JVM 和 JIT 预热的开销
+//
+// 请求（每个请求一行头部，数据部分按字节数读取，文本均为 UTF-8）：
+//   compile <id> <源程序字节数>\n<源程序>
+//   stats\n
+//   shutdown\n                      不再接收新请求，等待已接收的请求完成后退出
+// 回复（多个请求的回复顺序不一定与请求顺序相同，通过 id 对应）：
+//   result <id> <状态> <中间代码字节数> <错误字节数> <符号表字节数> <耗时微秒>\n<中间代码><错误><符号表>
+//     状态为 ok（编译成功）、error（存在语义错误，没有中间代码）、failed（编译器内部错误，错误部分为异常信息）、
+//     busy（等待队列已满，请求被拒绝）、too-large（源程序超过大小限制，请求被拒绝）
+//   stats accepted=<n> rejected=<n> completed=<n> failed=<n> avgMicros=<n>\n
+//   bad-request <头部>\n           头部无法识别；compile 头部格式错误时无法确定数据部分的长度，
+//                                  回复之后不再接收新请求，等待已接收的请求完成后退出（与 shutdown 相同）
+public class CompileDaemon {
+
+    private final CompileSession session;
+    private final ThreadPoolExecutor workers;
+    private final int maxSourceBytes;
+    private OutputStream output;
+
+    // 统计信息
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    public CompileDaemon(CompileSession session, int workerNum, int queueCapacity, int maxSourceBytes) {
+        this.session = session;
+        // 等待队列有界，队列满时直接拒绝新的请求而不是无限堆积
+        this.workers = new ThreadPoolExecutor(workerNum, workerNum, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+        this.maxSourceBytes = maxSourceBytes;
+    }
+
+    public void serve(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        InputStream input = new BufferedInputStream(in);
+        this.output = new BufferedOutputStream(out);
+        try {
+            receive(input);
+        }
+        finally { // 输入出错时也要结束工作线程，否则进程无法退出
+            workers.shutdown();
+        }
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            output.flush();
+        }
+    }
+
+    private void receive(InputStream input) throws IOException {
+        String header;
+        while ((header = readLine(input)) != null) {
+            String[] fields = header.trim().split(" +");
+            if (fields[0].equals("compile")) {
+                int length = fields.length == 3 ? parseLength(fields[2]) : -1;
+                if (length == -1) { // 不知道数据部分有多长，无法与客户端保持同步，只能结束会话
+                    writeFrame("bad-request " + header + "\n");
+                    break;
+                }
+                String id = fields[1];
+                if (length > maxSourceBytes) { // 跳过数据部分，保持与客户端同步
+                    discard(input, length);
+                    rejected.incrementAndGet();
+                    writeResult(id, "too-large", "", "", "", 0);
+                    continue;
+                }
+                byte[] source = input.readNBytes(length);
+                submit(id, new String(source, StandardCharsets.UTF_8));
+            }
+            else if (fields[0].equals("stats")) {
+                long completedNum = completed.get();
+                writeFrame("stats accepted=" + accepted.get() + " rejected=" + rejected.get()
+                    + " completed=" + completedNum + " failed=" + failed.get()
+                    + " avgMicros=" + (completedNum == 0 ? 0 : totalLatencyNanos.get() / completedNum / 1000) + "\n");
+            }
+            else if (fields[0].equals("shutdown")) {
+                break;
+            }
+            else if (!header.isBlank()) {
+                writeFrame("bad-request " + header + "\n");
+            }
+        }
+    }
+
+    private void submit(String id, String source) throws IOException {
+        long admitTime = System.nanoTime();
+        try {
+            workers.execute(() -> compile(id, source, admitTime));
+            accepted.incrementAndGet();
+        }
+        catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            writeResult(id, "busy", "", "", "", 0);
+        }
+    }
+
+    private void compile(String id, String source, long admitTime) { // 在工作线程上进行，耗时包括排队等待的时间
+        String status;
+        String llvmIR = "";
+        String errors;
+        String symbols = "";
+        try {
+            CompileResult result = session.compile(source);
+            status = result.succeeded() ? "ok" : "error";
+            llvmIR = result.succeeded() ? result.llvmIR : "";
+            errors = result.errors;
+            symbols = result.symbols;
+        }
+        catch (Throwable e) { // 包括 OutOfMemoryError 等错误，每个被接受的请求都必须有回复，否则客户端会一直等待
+            failed.incrementAndGet();
+            status = "failed";
+            errors = e.toString() + "\n";
+        }
+        long latency = System.nanoTime() - admitTime;
+        totalLatencyNanos.addAndGet(latency);
+        completed.incrementAndGet();
+        try {
+            writeResult(id, status, llvmIR, errors, symbols, latency / 1000);
+        }
+        catch (IOException e) { // 客户端已经关闭了输出，回复无法送达
+            e.printStackTrace();
+        }
+    }
+
+    private void writeResult(String id, String status, String llvmIR, String errors, String symbols, long micros) throws IOException {
+        byte[] irBytes = llvmIR.getBytes(StandardCharsets.UTF_8);
+        byte[] errorBytes = errors.getBytes(StandardCharsets.UTF_8);
+        byte[] symbolBytes = symbols.getBytes(StandardCharsets.UTF_8);
+        String header = "result " + id + " " + status + " " + irBytes.length + " " + errorBytes.length + " "
+            + symbolBytes.length + " " + micros + "\n";
+        synchronized (this) { // 一个回复的各部分必须连续写出
+            output.write(header.getBytes(StandardCharsets.UTF_8));
+            output.write(irBytes);
+            output.write(errorBytes);
+            output.write(symbolBytes);
+            output.flush();
+        }
+    }
+
+    private synchronized void writeFrame(String frame) throws IOException {
+        output.write(frame.getBytes(StandardCharsets.UTF_8));
+        output.flush();
+    }
+
+    private static int parseLength(String field) { // 不是非负整数时返回 -1
+        try {
+            int length = Integer.parseInt(field);
+            return length < 0 ? -1 : length;
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void discard(InputStream input, int length) throws IOException { // 管道不支持 skip，只能读出后丢弃
+        byte[] buffer = new byte[8192];
+        int remaining = length;
+        while (remaining > 0) {
+            int read = input.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (read < 0) {
+                return;
+            }
+            remaining -= read;
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException { // 读取一行头部，输入结束时返回 null
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int ch;
+        while ((ch = input.read()) != -1) {
+            if (ch == '\n') {
+                return line.toString(StandardCharsets.UTF_8);
+            }
+            line.write(ch);
+        }
+        return line.size() > 0 ? line.toString(StandardCharsets.UTF_8) : null;
+    }
+
+}
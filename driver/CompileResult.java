@@ -0,0 +1,24 @@
+package driver;
+
+// 一次编译的结果，各部分与 llvm_ir.txt、error.txt、symbol.txt、parser.txt 的内容相同
+public class CompileResult {
+
+    public final String llvmIR; // 存在语义错误时为 null
+    public final String errors;
+    public final String symbols;
+    public final String parseTree; // 没有要求输出时为 null
+    public final int lineNum; // 源程序行数
+
+    public CompileResult(String llvmIR, String errors, String symbols, String parseTree, int lineNum) {
+        this.llvmIR = llvmIR;
+        this.errors = errors;
+        this.symbols = symbols;
+        this.parseTree = parseTree;
+        this.lineNum = lineNum;
+    }
+
+    public boolean succeeded() {
+        return llvmIR != null;
+    }
+
+}
@@ -0,0 +1,109 @@
+package driver;
+
+import lexical.Lexer;
+import llvm.IRGenerator;
+import program.PhaseProfiler;
+import program.PhaseProfiler.Phase;
+import program.ProgramException;
+import program.SourceProgram;
+import semantics.Visitor;
+import symbol.SymbolTable;
+import syntax.Parser;
+import syntax.nodes.ASTnode;
+import syntax.nodes.CompUnit;
+
+import java.io.StringWriter;
+
+// 在内存中完成一次编译，输入源程序文本，输出中间代码、错误和符号表
+// 符号表和错误信息是按线程保存的，因此不同线程上的 CompileSession 可以同时进行编译
+public class CompileSession {
+
+    private final boolean fused; // 是否使用一遍式编译
+    private final boolean dumpParseTree; // 是否输出词法和语法分析结果（parser.txt 的内容）
+    private final int maxStoredExceptions;
+    private final boolean optimize; // 是否对中间代码运行优化遍（-O0 时不运行）
+
+    public CompileSession(boolean fused, boolean dumpParseTree, int maxStoredExceptions) {
+        this(fused, dumpParseTree, maxStoredExceptions, true);
+    }
+
+    public CompileSession(boolean fused, boolean dumpParseTree, int maxStoredExceptions, boolean optimize) {
+        this.fused = fused;
+        this.dumpParseTree = dumpParseTree;
+        this.maxStoredExceptions = maxStoredExceptions;
+        this.optimize = optimize;
+    }
+
+    public CompileResult compile(String source) throws Exception {
+        return compile(SourceProgram.fromText(source));
+    }
+
+    public CompileResult compile(SourceProgram program) throws Exception {
+        return compile(program, new PhaseProfiler(false));
+    }
+
+    // 各阶段的划分与命令行编译器相同，一遍式编译时语义检查计入代码生成
+    public CompileResult compile(SourceProgram program, PhaseProfiler profiler) throws Exception {
+        SymbolTable.resetSession(); // 丢弃当前线程上一次编译留下的状态
+        ProgramException.resetSession();
+        ASTnode.resetCreatedCount();
+        ProgramException.setMaxStoredExceptions(maxStoredExceptions);
+
+        StringWriter parseWriter = new StringWriter();
+        StringWriter symbolWriter = new StringWriter();
+        StringWriter errorWriter = new StringWriter();
+        StringWriter irWriter = new StringWriter();
+
+        profiler.begin(Phase.LEX);
+        Lexer lexer = new Lexer(program, dumpParseTree, parseWriter);
+        profiler.end(Phase.LEX);
+        Parser parser = new Parser(lexer, dumpParseTree, parseWriter);
+        Visitor visitor = new Visitor(false, symbolWriter);
+
+        CompUnit compUnit = null;
+        if (fused) {
+            IRGenerator irGenerator = new IRGenerator(irWriter, visitor);
+            irGenerator.setOptimize(optimize);
+            irGenerator.codeGenHeader();
+            while (true) {
+                profiler.begin(Phase.PARSE);
+                ASTnode item = parser.parseCompUnitItem();
+                profiler.end(Phase.PARSE);
+                if (item == null) {
+                    break;
+                }
+                profiler.begin(Phase.CODEGEN);
+                irGenerator.codeGenCompUnitItem(item);
+                profiler.end(Phase.CODEGEN);
+            }
+            parser.endCompUnit();
+        }
+        else {
+            profiler.begin(Phase.PARSE);
+            compUnit = parser.parseCompUnit();
+            profiler.end(Phase.PARSE);
+            profiler.begin(Phase.CHECK);
+            visitor.visitCompUnit(compUnit);
+            profiler.end(Phase.CHECK);
+        }
+        profiler.begin(Phase.PRINT_SYMBOLS);
+        SymbolTable.printSymbolTable(symbolWriter);
+        profiler.end(Phase.PRINT_SYMBOLS);
+        ProgramException.printExceptions(errorWriter);
+
+        String llvmIR = null;
+        if (!ProgramException.containsSemanticsException()) { // 保证没有语义分析的错误再进行代码生成
+            if (!fused) {
+                profiler.begin(Phase.CODEGEN);
+                IRGenerator irGenerator = new IRGenerator(irWriter);
+                irGenerator.setOptimize(optimize);
+                irGenerator.codeGen(compUnit);
+                profiler.end(Phase.CODEGEN);
+            }
+            llvmIR = irWriter.toString();
+        }
+        return new CompileResult(llvmIR, errorWriter.toString(), symbolWriter.toString(),
+            dumpParseTree ? parseWriter.toString() : null, program.getLineNum());
+    }
+
+}
@@ -0,0 +1,403 @@
+package driver;
+
+import lexical.Lexer;
+import lexical.Token;
+import program.ProgramException;
+import program.SourceProgram;
+import semantics.Visitor;
+import symbol.Symbol;
+import symbol.SymbolTable;
+import syntax.Parser;
+import syntax.nodes.ASTnode;
+import syntax.nodes.FuncDef;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+// 编辑器使用的增量前端：保存一份源程序及其 token、顶层成分的语法树和各自的错误，每次编辑之后只重新分析受影响的部分
+//   词法分析：从编辑位置所在的段（见 Lexer.lexSegment）开始重新分析，直到越过编辑范围后与上一次的分段衔接为止，
+//            之后的 token 原样保留，只平移行号
+//   语法分析：从受影响的第一个顶层成分开始重新分析，越过编辑范围后一旦停在上一次某个成分的起点，其后的成分全部复用
+//   语义分析：顶层成分按顺序重建全局作用域，语法树被复用、其中出现的标识符在全局作用域中对应的符号（见 IncrementalCompiler）
+//            也没有变化的成分不再经过 Visitor，只把上一次登记的全局符号重新登记并沿用上一次的错误
+// 错误的格式和顺序与 error.txt 相同。语法树中记录的是语法分析时的行号，复用的成分按其第一个 token 的行号变化平移错误的行号
+// 编译器无法继续分析的情况（无法识别的字符、无法解析的语法成分）报告为 fatalError，此后的错误不再报告
+// 分析使用调用线程的符号表和错误会话，同一线程上不能同时进行其他编译
+public class EditorSession {
+
+    // 一次刷新得到的诊断信息
+    public static class Diagnostics {
+        public final String errors; // 与 error.txt 的内容相同
+        public final int errorCount;
+        public final String fatalError; // 没有时为 null
+        public final int fatalLine; // 从 1 开始，没有时为 0
+        public final int checkedItems; // 本次重新进行语义检查的顶层成分数量
+        public final int reusedItems;
+
+        private Diagnostics(String errors, int errorCount, String fatalError, int fatalLine, int checkedItems, int reusedItems) {
+            this.errors = errors;
+            this.errorCount = errorCount;
+            this.fatalError = fatalError;
+            this.fatalLine = fatalLine;
+            this.checkedItems = checkedItems;
+            this.reusedItems = reusedItems;
+        }
+    }
+
+    // 一个顶层成分（全局声明、函数定义或主函数定义）及其分析结果
+    private static class Item {
+        private int startToken;
+        private int endToken; // 不含
+        private final ASTnode node; // 语法分析失败时为 null
+        private final String failure; // 语法分析失败的原因
+        private final int parsedLine; // 语法分析时第一个 token 所在的行，语法树和错误中的行号都以此为准
+        private final int[] parseErrors; // 每个元素为 行号 << 8 | 错误类别
+        private final String[] identifiers; // 成分中出现的全部标识符，不重复
+
+        private boolean checked;
+        private Symbol[] resolved; // 上一次语义检查时各个标识符在全局作用域中对应的符号
+        private List<Symbol> definedSymbols; // 上一次语义检查时登记到全局作用域中的符号
+        private int[] checkErrors;
+        private String checkFailure;
+
+        private Item(int startToken, int endToken, ASTnode node, String failure, int parsedLine, int[] parseErrors,
+                     String[] identifiers) {
+            this.startToken = startToken;
+            this.endToken = endToken;
+            this.node = node;
+            this.failure = failure;
+            this.parsedLine = parsedLine;
+            this.parseErrors = parseErrors;
+            this.identifiers = identifiers;
+        }
+    }
+
+    // 每一行的词法分析状态：最低位表示一段从这一行开始，次低位表示这一段无法识别，其余位为这一行的 a 类错误数
+    private static final int SEGMENT_START = 1;
+    private static final int LEX_FAILED = 2;
+    private static final int LEX_ERROR_SHIFT = 2;
+
+    private final SourceProgram program = new SourceProgram();
+    private int[] lineStates = new int[16];
+    private final ArrayList<Token> tokens = new ArrayList<>(); // 以 EOF 结尾
+    private final ArrayList<Item> items = new ArrayList<>();
+    private Diagnostics diagnostics; // 编辑之后为 null，下一次刷新时重新计算
+
+    public EditorSession(String text) {
+        List<String> lines = splitLines(text);
+        program.replaceLines(0, 0, lines);
+        lineStates = new int[Math.max(lines.size(), 16)];
+        tokens.add(new Token(Token.TokenType.EOF, "", lines.size()));
+        relex(0, 0, 0);
+    }
+
+    public int getLineNum() {
+        return program.getLineNum();
+    }
+
+    public String getText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < program.getLineNum(); i++) {
+            text.append(i == 0 ? "" : "\n").append(program.getLine(i));
+        }
+        return text.toString();
+    }
+
+    // 把 (startLine, startColumn) 到 (endLine, endColumn) 之间的文本替换为 newText，行号和列号都从 0 开始
+    public void applyEdit(int startLine, int startColumn, int endLine, int endColumn, String newText) {
+        if (startLine > endLine || (startLine == endLine && startColumn > endColumn) || endLine >= program.getLineNum()) {
+            throw new IllegalArgumentException("编辑范围无效: " + startLine + ":" + startColumn + "-" + endLine + ":" + endColumn);
+        }
+        String prefix = program.getLine(startLine).substring(0, startColumn);
+        String suffix = program.getLine(endLine).substring(endColumn);
+        List<String> newLines = splitLines(prefix + newText + suffix);
+        int oldLineNum = endLine + 1 - startLine;
+        int lineDelta = newLines.size() - oldLineNum;
+        program.replaceLines(startLine, endLine + 1, newLines);
+        int[] states = lineStates;
+        if (program.getLineNum() > lineStates.length) {
+            states = new int[Math.max(program.getLineNum(), lineStates.length * 2)];
+            System.arraycopy(lineStates, 0, states, 0, startLine);
+        }
+        System.arraycopy(lineStates, endLine + 1, states, startLine + newLines.size(), program.getLineNum() - startLine - newLines.size());
+        Arrays.fill(states, startLine, startLine + newLines.size(), 0);
+        lineStates = states;
+        relex(startLine, startLine + newLines.size(), lineDelta);
+        diagnostics = null;
+    }
+
+    public Diagnostics getDiagnostics() {
+        if (diagnostics == null) {
+            diagnostics = check();
+        }
+        return diagnostics;
+    }
+
+    private static List<String> splitLines(String text) { // 与 SourceProgram.fromText 的分行规则相同，但保留最后的空行，使每个位置都在某一行中
+        return Arrays.asList(text.split("\\r\\n|[\\n\\r\\u2028\\u2029\\u0085]", -1));
+    }
+
+    // 重新分析 [editStart, editEnd) 行（已经替换为新的内容）所在的段，直到与编辑之前的分段衔接，
+    // 然后把新的 token 替换进 token 序列，再从受影响的顶层成分开始重新进行语法分析
+    private void relex(int editStart, int editEnd, int lineDelta) {
+        int startLine = editStart;
+        while (startLine > 0 && (lineStates[startLine] & SEGMENT_START) == 0) {
+            startLine--;
+        }
+        int startToken = firstTokenAtLine(startLine);
+        ArrayList<Token> newTokens = new ArrayList<>();
+        int line = startLine;
+        while (line < program.getLineNum() && (line < editEnd || line == startLine || (lineStates[line] & SEGMENT_START) == 0)) {
+            ProgramException.resetSession();
+            int tokenNum = newTokens.size();
+            int nextLine;
+            int state = SEGMENT_START;
+            try {
+                nextLine = Lexer.lexSegment(program, line, newTokens);
+            }
+            catch (RuntimeException | UnknownError e) { // 输入到一半的字符常量、字符串或者无法识别的字符，忽略这一行
+                newTokens.subList(tokenNum, newTokens.size()).clear();
+                nextLine = line + 1;
+                state |= LEX_FAILED;
+            }
+            Arrays.fill(lineStates, line, nextLine, 0);
+            lineStates[line] = state;
+            for (int i = 0; i < ProgramException.getStoredCount(); i++) { // 跨行注释之后的错误属于注释结束的那一行
+                lineStates[ProgramException.getStoredLine(i) - 1] += 1 << LEX_ERROR_SHIFT;
+            }
+            line = nextLine;
+        }
+        // 停在某一段的起点时与编辑之前的分段衔接，此后的 token 全部保留，否则一直分析到了文件末尾
+        int endToken = line < program.getLineNum() ? firstTokenAtLine(line - lineDelta) : tokens.size() - 1;
+        if (lineDelta != 0) {
+            for (int i = endToken; i < tokens.size(); i++) {
+                tokens.get(i).shiftLine(lineDelta);
+            }
+        }
+        if (newTokens.size() == endToken - startToken) { // 只修改了一行中的内容时 token 数量通常不变，原地替换
+            for (int i = 0; i < newTokens.size(); i++) {
+                tokens.set(startToken + i, newTokens.get(i));
+            }
+        }
+        else {
+            List<Token> replaced = tokens.subList(startToken, endToken);
+            replaced.clear();
+            replaced.addAll(newTokens);
+        }
+        reparse(startToken, endToken, newTokens.size() - (endToken - startToken));
+    }
+
+    private int firstTokenAtLine(int line) { // 二分查找行号不小于 line 的第一个 token
+        int low = 0;
+        int high = tokens.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.get(mid).getLine() < line) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // 原来的 [startToken, endToken) 被替换成了长度变化 tokenDelta 的新 token
+    private void reparse(int startToken, int endToken, int tokenDelta) {
+        int first = 0; // 受影响的第一个成分：结束位置不早于 startToken（紧挨着的前一个成分也可能把新的 token 接到末尾）
+        while (first < items.size() && items.get(first).endToken < startToken) {
+            first++;
+        }
+        for (int i = 0; i < first; i++) {
+            if (items.get(i).node instanceof FuncDef && ((FuncDef) items.get(i).node).isMain) { // 主函数之后的内容不再分析
+                return;
+            }
+        }
+        ArrayList<Item> oldTail = new ArrayList<>(); // 完全位于编辑范围之后的成分
+        for (int i = first; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (item.startToken >= endToken) {
+                item.startToken += tokenDelta;
+                item.endToken += tokenDelta;
+                oldTail.add(item);
+            }
+        }
+        int position = first < items.size() ? items.get(first).startToken
+            : items.isEmpty() ? 0 : items.get(items.size() - 1).endToken;
+        items.subList(first, items.size()).clear();
+
+        int damageEnd = endToken + tokenDelta;
+        Lexer lexer = new Lexer(tokens, position);
+        Parser parser = new Parser(lexer, false, Writer.nullWriter());
+        int next = 0; // oldTail 中第一个起点不早于 position 的成分
+        while (true) {
+            while (next < oldTail.size() && oldTail.get(next).startToken < position) {
+                next++;
+            }
+            if (position >= damageEnd && next < oldTail.size() && oldTail.get(next).startToken == position
+                && oldTail.get(next).node != null) {
+                items.addAll(oldTail.subList(next, oldTail.size()));
+                return;
+            }
+            ProgramException.resetSession();
+            ASTnode node;
+            try {
+                node = parser.parseCompUnitItem();
+            }
+            catch (Exception | StackOverflowError e) { // 跳过无法解析的部分，直到可以与编辑之前的某个成分衔接为止
+                int stop = Math.max(lexer.getCurrentTokenIndex(), damageEnd);
+                while (next < oldTail.size() && (oldTail.get(next).startToken < stop
+                    || oldTail.get(next).startToken <= position || oldTail.get(next).node == null)) {
+                    next++;
+                }
+                int failureEnd = next < oldTail.size() ? oldTail.get(next).startToken : tokens.size() - 1;
+                items.add(new Item(position, failureEnd, null, String.valueOf(e.getMessage()),
+                    tokens.get(position).getLine(), new int[0], new String[0]));
+                items.addAll(oldTail.subList(next, oldTail.size()));
+                return;
+            }
+            if (node == null) {
+                return;
+            }
+            int end = lexer.getCurrentTokenIndex();
+            LinkedHashSet<String> identifiers = new LinkedHashSet<>();
+            for (int i = position; i < end; i++) {
+                if (tokens.get(i).getType() == Token.TokenType.IDENFR) {
+                    identifiers.add(tokens.get(i).getToken());
+                }
+            }
+            items.add(new Item(position, end, node, null, tokens.get(position).getLine(), captureErrors(),
+                identifiers.toArray(new String[0])));
+            position = end;
+        }
+    }
+
+    private static int[] captureErrors() { // 取出当前错误会话中的全部错误
+        int[] errors = new int[ProgramException.getStoredCount()];
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = ProgramException.getStoredLine(i) << 8 | ProgramException.getStoredCode(i);
+        }
+        return errors;
+    }
+
+    // 按顺序重建全局作用域，只对语法树或者依赖的全局符号发生了变化的成分重新进行语义检查
+    private Diagnostics check() {
+        SymbolTable.resetSession();
+        Visitor visitor = new Visitor(false, Writer.nullWriter());
+        SymbolTable globalSymbolTable = SymbolTable.getCurrentSymbolTable();
+        int checkedItems = 0;
+        int reusedItems = 0;
+        String fatalError = null;
+        int fatalLine = Integer.MAX_VALUE;
+        for (int line = 0; line < program.getLineNum(); line++) {
+            if ((lineStates[line] & LEX_FAILED) != 0) {
+                fatalError = "无法识别的字符";
+                fatalLine = line + 1;
+                break;
+            }
+        }
+        for (Item item : items) {
+            int lineDelta = tokens.get(item.startToken).getLine() - item.parsedLine;
+            if (item.parsedLine + lineDelta + 1 >= fatalLine) {
+                break;
+            }
+            if (item.node == null) {
+                fatalError = item.failure;
+                fatalLine = item.parsedLine + lineDelta + 1;
+                break;
+            }
+            if (item.checked && dependenciesUnchanged(item, globalSymbolTable)) {
+                for (Symbol symbol : item.definedSymbols) {
+                    globalSymbolTable.insertSymbol(symbol);
+                }
+                reusedItems++;
+            }
+            else {
+                recheck(item, visitor, globalSymbolTable);
+                checkedItems++;
+            }
+            if (item.checkFailure != null) {
+                fatalError = item.checkFailure;
+                fatalLine = item.parsedLine + lineDelta + 1;
+                break;
+            }
+        }
+
+        // 用一个新的错误会话按 error.txt 的顺序排列：按行号排序，同一行中依次是词法、语法、语义错误，各自按报告顺序
+        ProgramException.resetSession();
+        for (int line = 0; line < program.getLineNum() && line + 1 < fatalLine; line++) {
+            for (int i = lineStates[line] >>> LEX_ERROR_SHIFT; i > 0; i--) {
+                ProgramException.newException(line + 1, 'a');
+            }
+        }
+        for (Item item : items) {
+            reportErrors(item, item.parseErrors, fatalLine);
+        }
+        for (Item item : items) {
+            if (item.checked) {
+                reportErrors(item, item.checkErrors, fatalLine);
+            }
+        }
+        StringWriter errors = new StringWriter();
+        try {
+            ProgramException.printExceptions(errors);
+        }
+        catch (IOException e) { // StringWriter 不会抛出
+            throw new IllegalStateException(e);
+        }
+        return new Diagnostics(errors.toString(), ProgramException.getTotalCount(), fatalError,
+            fatalError == null ? 0 : fatalLine, checkedItems, reusedItems);
+    }
+
+    private boolean dependenciesUnchanged(Item item, SymbolTable globalSymbolTable) {
+        for (int i = 0; i < item.identifiers.length; i++) {
+            Symbol symbol = globalSymbolTable.searchSymbol(item.identifiers[i]);
+            Symbol previous = item.resolved[i];
+            if (symbol == previous) {
+                continue;
+            }
+            if (symbol == null || previous == null
+                || !IncrementalCompiler.signature(symbol).equals(IncrementalCompiler.signature(previous))) {
+                return false;
+            }
+            item.resolved[i] = symbol; // 重新检查过的全局声明会登记新的符号对象，内容相同时不影响其他成分
+        }
+        return true;
+    }
+
+    private void recheck(Item item, Visitor visitor, SymbolTable globalSymbolTable) {
+        item.resolved = new Symbol[item.identifiers.length];
+        for (int i = 0; i < item.identifiers.length; i++) {
+            item.resolved[i] = globalSymbolTable.searchSymbol(item.identifiers[i]);
+        }
+        int symbolNum = globalSymbolTable.getSymbols().size();
+        ProgramException.resetSession();
+        item.checkFailure = null;
+        try {
+            visitor.visitCompUnitItem(item.node);
+        }
+        catch (Exception e) {
+            item.checkFailure = String.valueOf(e.getMessage());
+        }
+        SymbolTable.releaseFunctionScopes();
+        item.definedSymbols = new ArrayList<>(globalSymbolTable.getSymbols().subList(symbolNum, globalSymbolTable.getSymbols().size()));
+        item.checkErrors = captureErrors();
+        item.checked = true;
+    }
+
+    private void reportErrors(Item item, int[] errors, int fatalLine) {
+        int lineDelta = tokens.get(item.startToken).getLine() - item.parsedLine;
+        for (int error : errors) {
+            int line = (error >> 8) + lineDelta;
+            if (line < fatalLine) {
+                ProgramException.newException(line, (char) (error & 0xff));
+            }
+        }
+    }
+
+}
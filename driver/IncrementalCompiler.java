@@ -0,0 +1,276 @@
+package driver;
+
+import lexical.Lexer;
+import lexical.Token;
+import llvm.IRGenerator;
+import llvm.ir.Function;
+import program.ProgramException;
+import semantics.Visitor;
+import symbol.FunctionType;
+import symbol.Symbol;
+import symbol.SymbolTable;
+import symbol.ValueType;
+import syntax.Parser;
+import syntax.nodes.ASTnode;
+import syntax.nodes.FuncDef;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+// 以函数为单位的增量编译：在一遍式编译的基础上，为每个函数定义计算两个指纹
+//   代码指纹：函数定义范围内全部 token 的类型和内容（不含行号，因此其他函数的增删不影响它）
+//   依赖指纹：函数中出现的每个标识符在全局作用域中对应的符号（全局变量、常量及其值、函数签名），
+//   调用的函数可以被内联时还包括它的两个指纹，被调用函数的函数体变化之后调用者也要重新编译
+// 两个指纹都与上一次编译相同时，函数体不再经过 Visitor 和 IRGenerator，直接拼接上一次保存的中间代码和符号，
+// 全局声明和变化了的函数照常编译。词法和语法分析仍然对整个文件进行，parser.txt 与完整编译相同。
+// 可以被内联的函数总是重新编译，之后的调用者内联时需要它的函数体，这些函数都很小
+public class IncrementalCompiler {
+
+    private static final int STATE_VERSION = 3;
+
+    private static class FunctionState {
+        private final String codeHash;
+        private final String dependencyHash;
+        private final int scopeCount;
+        private final ArrayList<String> symbolLines;
+        private final String llvmIR;
+        private final boolean inlinable;
+
+        private FunctionState(String codeHash, String dependencyHash, int scopeCount, ArrayList<String> symbolLines, String llvmIR,
+                              boolean inlinable) {
+            this.codeHash = codeHash;
+            this.dependencyHash = dependencyHash;
+            this.scopeCount = scopeCount;
+            this.symbolLines = symbolLines;
+            this.llvmIR = llvmIR;
+            this.inlinable = inlinable;
+        }
+    }
+
+    private final Path stateFile;
+    private final HashMap<String, FunctionState> previousStates = new HashMap<>(); // 以代码指纹为键
+    private final ArrayList<FunctionState> currentStates = new ArrayList<>();
+    private final HashMap<String, String> inlinableFingerprints = new HashMap<>(); // 本次编译中可以被内联的函数名到它的指纹
+    private int reusedNum;
+    private int recompiledNum;
+
+    public IncrementalCompiler(Path stateDir, String versionKey) throws IOException {
+        this.stateFile = stateDir.resolve("functions.state");
+        loadState(versionKey);
+    }
+
+    public int getReusedNum() {
+        return reusedNum;
+    }
+
+    public int getRecompiledNum() {
+        return recompiledNum;
+    }
+
+    public void compile(Lexer lexer, Parser parser, Visitor visitor, IRGenerator irGenerator) throws Exception {
+        SymbolTable.enableStreaming();
+        SymbolTable.enableFunctionCapture();
+        irGenerator.codeGenHeader();
+        while (true) {
+            int startToken = lexer.getCurrentTokenIndex();
+            ASTnode item = parser.parseCompUnitItem();
+            if (item == null) {
+                break;
+            }
+            if (item instanceof FuncDef) {
+                compileFunction((FuncDef) item, lexer, startToken, lexer.getCurrentTokenIndex(), visitor, irGenerator);
+            }
+            else {
+                irGenerator.codeGenCompUnitItem(item);
+            }
+            SymbolTable.releaseFunctionScopes();
+        }
+        parser.endCompUnit();
+    }
+
+    private void compileFunction(FuncDef funcDef, Lexer lexer, int startToken, int endToken,
+                                 Visitor visitor, IRGenerator irGenerator) throws Exception {
+        String codeHash = hashTokens(lexer, startToken, endToken);
+        String dependencyHash = hashDependencies(lexer, startToken, endToken); // 必须在函数符号登记之前计算
+        FunctionState previous = previousStates.get(codeHash);
+        if (previous != null && previous.dependencyHash.equals(dependencyHash) && !previous.inlinable) {
+            if (funcDef.isMain) {
+                visitor.enterMainFuncDef(funcDef);
+            }
+            else {
+                visitor.enterFuncDef(funcDef);
+            }
+            SymbolTable.closeReplayedFunctionScope(previous.scopeCount, previous.symbolLines);
+            irGenerator.codeGenCachedFunction(funcDef, previous.llvmIR);
+            currentStates.add(previous);
+            reusedNum++;
+            return;
+        }
+        String llvmIR = irGenerator.codeGenCompUnitItem(funcDef);
+        recompiledNum++;
+        if (llvmIR != null) {
+            Function function = irGenerator.getModule().getFunction(funcDef.isMain ? "main" : funcDef.ident.name);
+            boolean inlinable = function != null && function.hasInlineBody();
+            if (inlinable) {
+                inlinableFingerprints.put(function.name, codeHash + dependencyHash);
+            }
+            currentStates.add(new FunctionState(codeHash, dependencyHash,
+                SymbolTable.getCapturedScopeCount(), SymbolTable.getCapturedSymbols(), llvmIR, inlinable));
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) { // 每个 Java 平台都必须支持 SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static String hashTokens(Lexer lexer, int startToken, int endToken) {
+        MessageDigest digest = newDigest();
+        for (int i = startToken; i < endToken; i++) {
+            Token token = lexer.getTokenAt(i);
+            digest.update(token.getType().name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ' ');
+            digest.update(token.getToken().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return hex(digest.digest());
+    }
+
+    // 函数中出现的标识符可能是局部变量，也可能引用全局符号，这里一律按全局作用域查找，
+    // 找不到的记为未定义，这样之后新增同名的全局符号时也能发现依赖发生了变化
+    private String hashDependencies(Lexer lexer, int startToken, int endToken) {
+        LinkedHashSet<String> identifiers = new LinkedHashSet<>();
+        for (int i = startToken; i < endToken; i++) {
+            Token token = lexer.getTokenAt(i);
+            if (token.getType() == Token.TokenType.IDENFR) {
+                identifiers.add(token.getToken());
+            }
+        }
+        MessageDigest digest = newDigest();
+        SymbolTable globalSymbolTable = SymbolTable.getCurrentSymbolTable();
+        for (String identifier : identifiers) {
+            Symbol symbol = globalSymbolTable.searchSymbol(identifier);
+            String fingerprint = symbol != null && symbol.symbolType instanceof FunctionType ? inlinableFingerprints.get(identifier) : null;
+            digest.update((identifier + "=" + (symbol == null ? "-" : signature(symbol)) + (fingerprint == null ? "" : "@" + fingerprint) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        }
+        return hex(digest.digest());
+    }
+
+    static String signature(Symbol symbol) { // 符号中会影响其他成分的语义检查和代码生成的部分
+        if (symbol.symbolType instanceof FunctionType) {
+            FunctionType functionType = (FunctionType) symbol.symbolType;
+            StringBuilder signature = new StringBuilder(functionType.toString()).append("(");
+            for (ValueType paramType : functionType.paramTypes) {
+                signature.append(paramType).append(paramType.arrayLength == null ? "" : "[]").append(",");
+            }
+            return signature.append(")").toString();
+        }
+        ValueType valueType = (ValueType) symbol.symbolType;
+        String signature = valueType + (valueType.arrayLength == null ? "" : "[" + valueType.arrayLength + "]");
+        return valueType.isConst ? signature + symbol.constValues : signature; // 常量的值会直接写进使用它的函数的代码里
+    }
+
+    // 状态文件：版本号、编译器版本键，之后是每个函数的指纹、作用域数量、符号和中间代码
+    private void loadState(String versionKey) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+            if (input.readInt() != STATE_VERSION || !readString(input).equals(versionKey)) {
+                return;
+            }
+            int functionNum = input.readInt();
+            for (int i = 0; i < functionNum; i++) {
+                String codeHash = readString(input);
+                String dependencyHash = readString(input);
+                int scopeCount = input.readInt();
+                int symbolNum = input.readInt();
+                ArrayList<String> symbolLines = new ArrayList<>(symbolNum);
+                for (int j = 0; j < symbolNum; j++) {
+                    symbolLines.add(readString(input));
+                }
+                String llvmIR = readString(input);
+                boolean inlinable = input.readBoolean();
+                previousStates.put(codeHash, new FunctionState(codeHash, dependencyHash, scopeCount, symbolLines, llvmIR, inlinable));
+            }
+        }
+        catch (NoSuchFileException e) { // 第一次编译
+        }
+        catch (IOException | RuntimeException e) { // 状态文件损坏时当作没有状态，进行完整的编译
+            previousStates.clear();
+        }
+    }
+
+    // 只有整个程序没有任何错误时才保存，保证被复用的函数一定是没有错误的
+    public void saveState(String versionKey) throws IOException {
+        if (ProgramException.getTotalCount() > 0) {
+            return;
+        }
+        Files.createDirectories(stateFile.getParent());
+        Path tempFile = Files.createTempFile(stateFile.getParent(), "functions", ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                output.writeInt(STATE_VERSION);
+                writeString(output, versionKey);
+                output.writeInt(currentStates.size());
+                for (FunctionState state : currentStates) {
+                    writeString(output, state.codeHash);
+                    writeString(output, state.dependencyHash);
+                    output.writeInt(state.scopeCount);
+                    output.writeInt(state.symbolLines.size());
+                    for (String line : state.symbolLines) {
+                        writeString(output, line);
+                    }
+                    writeString(output, state.llvmIR);
+                    output.writeBoolean(state.inlinable);
+                }
+            }
+            try {
+                Files.move(tempFile, stateFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException { // writeUTF 有 64KB 的限制，这里自己记录长度
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+}
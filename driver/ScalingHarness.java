@@ -0,0 +1,110 @@
+package driver;
+
+import program.PhaseProfiler;
+import program.PhaseProfiler.Phase;
+import program.SourceProgram;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// 规模测试：把某一个规模参数逐步加倍生成测试程序，在同一个进程中编译，报告每个阶段的耗时和堆内存峰值
+// 每一步编译 repeat 次取最小值；按源程序大小折算的耗时（us/KB）如果随规模明显增长，说明该阶段的复杂度超过线性
+// 按字节而不是按行折算，是因为放大表达式长度和数组长度时行数基本不变
+public class ScalingHarness {
+
+    private static final Phase[] PHASES = {Phase.LEX, Phase.PARSE, Phase.CHECK, Phase.PRINT_SYMBOLS, Phase.CODEGEN};
+    private static final double SUPER_LINEAR_RATIO = 2.0; // 最后一步与第一步单位耗时之比超过该值时给出提示
+
+    private final CompileSession session;
+    private final WorkloadGenerator.Config baseConfig;
+    private final String knob;
+    private final int steps;
+    private final int repeat;
+
+    public ScalingHarness(CompileSession session, WorkloadGenerator.Config baseConfig, String knob, int steps, int repeat) {
+        this.session = session;
+        this.baseConfig = baseConfig;
+        this.knob = knob;
+        this.steps = steps;
+        this.repeat = repeat;
+    }
+
+    public void run(PrintStream out) throws Exception {
+        baseConfig.get(knob); // 提前检查规模参数的名字
+        out.printf("scaling %s x2 per step, %d steps, best of %d runs%n", knob, steps, repeat);
+        StringBuilder header = new StringBuilder(String.format("%-12s %9s %9s", knob, "lines", "KB"));
+        for (Phase phase : PHASES) {
+            header.append(String.format(" %13s", phase.name + "(ms)"));
+        }
+        for (Phase phase : PHASES) {
+            header.append(String.format(" %13s", phase.name + "(us/KB)"));
+        }
+        for (Phase phase : PHASES) {
+            header.append(String.format(" %13s", phase.name + "(MB)"));
+        }
+        out.println(header);
+
+        double[] firstMicrosPerKB = null;
+        double[] microsPerKB = new double[PHASES.length];
+        for (int step = 0; step < steps; step++) {
+            WorkloadGenerator.Config config = baseConfig.copy();
+            config.scale(knob, 1 << step);
+            String source = WorkloadGenerator.generate(config);
+            SourceProgram program = SourceProgram.fromText(source);
+            if (step == 0) { // 用最小的程序预热，避免第一步的结果包含 JIT 编译的时间
+                for (int i = 0; i < repeat; i++) {
+                    compile(program);
+                }
+            }
+            long[] wallNanos = new long[PHASES.length];
+            long[] peakBytes = new long[PHASES.length];
+            Arrays.fill(wallNanos, Long.MAX_VALUE);
+            Arrays.fill(peakBytes, Long.MAX_VALUE);
+            for (int i = 0; i < repeat; i++) {
+                PhaseProfiler profiler = compile(program);
+                for (int p = 0; p < PHASES.length; p++) {
+                    wallNanos[p] = Math.min(wallNanos[p], profiler.getWallNanos(PHASES[p]));
+                    peakBytes[p] = Math.min(peakBytes[p], profiler.getPeakHeapBytes(PHASES[p]));
+                }
+            }
+            double kilobytes = source.length() / 1024.0;
+            StringBuilder row = new StringBuilder(String.format("%-12d %9d %9.0f", config.get(knob), program.getLineNum(), kilobytes));
+            for (int p = 0; p < PHASES.length; p++) {
+                row.append(String.format(" %13.2f", wallNanos[p] / 1e6));
+            }
+            for (int p = 0; p < PHASES.length; p++) {
+                microsPerKB[p] = wallNanos[p] / 1e3 / kilobytes;
+                row.append(String.format(" %13.1f", microsPerKB[p]));
+            }
+            for (int p = 0; p < PHASES.length; p++) {
+                row.append(String.format(" %13.1f", peakBytes[p] / 1048576.0));
+            }
+            out.println(row);
+            if (firstMicrosPerKB == null) {
+                firstMicrosPerKB = microsPerKB.clone();
+            }
+        }
+        if (firstMicrosPerKB == null) {
+            return;
+        }
+        for (int p = 0; p < PHASES.length; p++) {
+            if (firstMicrosPerKB[p] <= 0) { // 该阶段没有运行，例如一遍式编译时的 check
+                continue;
+            }
+            double ratio = microsPerKB[p] / firstMicrosPerKB[p];
+            out.printf("%-14s us/KB x%.2f%s%n", PHASES[p].name, ratio,
+                ratio > SUPER_LINEAR_RATIO ? "  <- grows faster than the input" : "");
+        }
+    }
+
+    private PhaseProfiler compile(SourceProgram program) throws Exception {
+        System.gc(); // 每次编译都从大致相同的堆占用开始，峰值之间才可以比较
+        PhaseProfiler profiler = new PhaseProfiler(true);
+        CompileResult result = session.compile(program, profiler);
+        if (!result.errors.isEmpty()) {
+            throw new IllegalStateException("生成的程序存在错误:\n" + result.errors);
+        }
+        return profiler;
+    }
+
+}
@@ -0,0 +1,99 @@
+package driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 启动时间测试：在临时目录中放入 hello world 程序，分别用以下方式启动编译器各若干次，报告从创建进程到进程退出的时间
+//   jvm          普通的 java 命令，使用 JDK 自带的 CDS 归档（只包含 JDK 的类）
+//   jvm-noshare  关闭 CDS（-Xshare:off），作为对照
+//   jvm-cds      使用训练得到的归档（--cds-archive，默认 build/sysy.jsa），归档不存在时跳过
+//   native       本地可执行文件（--native-image，默认 build/sysyc），不存在时跳过
+// 每种方式先运行一次预热文件系统缓存，不计入结果；各方式生成的 llvm_ir.txt 必须相同
+public class StartupBenchmark {
+
+    private final String archivePath;
+    private final String nativeImagePath;
+    private final int runs;
+
+    public StartupBenchmark(String archivePath, String nativeImagePath, int runs) {
+        this.archivePath = archivePath;
+        this.nativeImagePath = nativeImagePath;
+        this.runs = runs;
+    }
+
+    public void run(PrintStream out) throws IOException, InterruptedException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String classPath = System.getProperty("java.class.path");
+        List<String> names = new ArrayList<>();
+        List<List<String>> commands = new ArrayList<>();
+        names.add("jvm");
+        commands.add(List.of(java, "-cp", classPath, "Compiler"));
+        names.add("jvm-noshare");
+        commands.add(List.of(java, "-Xshare:off", "-cp", classPath, "Compiler"));
+        if (new File(archivePath).isFile()) {
+            names.add("jvm-cds");
+            commands.add(List.of(java, "-XX:SharedArchiveFile=" + archivePath, "-cp", classPath, "Compiler"));
+        }
+        else {
+            out.println("skipped jvm-cds: no archive at " + archivePath);
+        }
+        if (new File(nativeImagePath).canExecute()) {
+            names.add("native");
+            commands.add(List.of(new File(nativeImagePath).getAbsolutePath()));
+        }
+        else {
+            out.println("skipped native: no executable at " + nativeImagePath);
+        }
+
+        Path directory = Files.createTempDirectory("sysy-startup");
+        try {
+            Files.writeString(directory.resolve("testfile.txt"), TrainingRun.HELLO_WORLD);
+            String expectedIR = null;
+            out.printf("%-12s %10s %10s %10s%n", "path", "min(ms)", "median(ms)", "max(ms)");
+            for (int i = 0; i < names.size(); i++) {
+                launch(commands.get(i), directory);
+                String llvmIR = Files.readString(directory.resolve("llvm_ir.txt"));
+                if (expectedIR == null) {
+                    expectedIR = llvmIR;
+                }
+                else if (!expectedIR.equals(llvmIR)) {
+                    throw new IllegalStateException(names.get(i) + " 生成的中间代码与 " + names.get(0) + " 不同");
+                }
+                long[] millis = new long[runs];
+                for (int r = 0; r < runs; r++) {
+                    millis[r] = launch(commands.get(i), directory);
+                }
+                Arrays.sort(millis);
+                out.printf("%-12s %10d %10d %10d%n", names.get(i), millis[0], millis[runs / 2], millis[runs - 1]);
+            }
+        }
+        finally {
+            File[] files = directory.toFile().listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static long launch(List<String> command, Path directory) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).directory(directory.toFile())
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectErrorStream(true).start();
+        int exitCode = process.waitFor();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (exitCode != 0) {
+            throw new IllegalStateException(String.join(" ", command) + " 退出码为 " + exitCode);
+        }
+        return millis;
+    }
+
+}
@@ -0,0 +1,161 @@
+package driver;
+
+import lexical.Lexer;
+import llvm.IRGenerator;
+import program.PhaseProfiler;
+import program.ProgramException;
+import program.SourceProgram;
+import semantics.Visitor;
+import symbol.SymbolTable;
+import syntax.Parser;
+import syntax.nodes.ASTnode;
+import syntax.nodes.CompUnit;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Scanner;
+
+// 类数据共享（CDS）归档的训练负载：在一个进程中把所有编译路径各走一遍，让每个阶段用到的类都被加载，
+// 进程退出时由 -XX:ArchiveClassesAtExit 写入归档，之后的每次冷启动直接从归档映射这些类，省去解析和校验
+// 训练程序包括一个最小的程序、一个包含各类错误的程序和一个按默认规模参数生成的程序，
+// 分别用两遍编译、流式编译、一遍式编译和并行代码生成编译，结果和耗时统计都经过与命令行编译器相同的文件读写
+public class TrainingRun {
+
+    public static final String HELLO_WORLD = String.join("\n",
+        "int main() {",
+        "    printf(\"Hello, world!\\n\");",
+        "    return 0;",
+        "}",
+        "");
+
+    private static final String ERRORS = String.join("\n",
+        "const int a = 1;",
+        "int b[3] = {1, 2, 3};",
+        "int f(int x, int x) {",
+        "    return x;",
+        "}",
+        "void g() {",
+        "    return 1;",
+        "}",
+        "int h(int p[]) {",
+        "    a = 3;",
+        "    printf(\"%d %d&\\n\", p[0]);",
+        "    undefinedVar = 1;",
+        "    break;",
+        "    return f(1);",
+        "}",
+        "int k() {",
+        "    int i = 0",
+        "}",
+        "int main() {",
+        "    int arr[5];",
+        "    printf(\"%d\\n\", f(arr[1]);",
+        "    arr[2 = 3;",
+        "    f(b, 1);",
+        "    return 0",
+        "}",
+        "");
+
+    public static void run(PrintStream log) throws Exception {
+        Path directory = Files.createTempDirectory("sysy-training");
+        try {
+            String[] programs = {HELLO_WORLD, ERRORS, WorkloadGenerator.generate(new WorkloadGenerator.Config())};
+            for (String source : programs) {
+                Path sourceFile = directory.resolve("testfile.txt");
+                Files.writeString(sourceFile, source);
+                // 流式编译会释放已经处理过的源程序行，因此每次编译都重新读入
+                compileTwoPass(readSource(sourceFile.toFile()), directory, 1);
+                compileTwoPass(readSource(sourceFile.toFile()), directory, 2);
+                compileStreaming(readSource(sourceFile.toFile()), directory);
+                new CompileSession(true, true, 1 << 16).compile(readSource(sourceFile.toFile()));
+            }
+            PhaseProfiler profiler = new PhaseProfiler(true); // 耗时统计的输出只在指定 --profile 时用到，也一并加载
+            new CompileSession(false, false, 1 << 16).compile(SourceProgram.fromText(HELLO_WORLD), profiler);
+            profiler.printTable(Writer.nullWriter());
+            profiler.printJson(Writer.nullWriter());
+            log.println("training run finished, " + programs.length + " programs compiled");
+        }
+        finally {
+            File[] files = directory.toFile().listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static SourceProgram readSource(File inputFile) throws IOException { // 与命令行编译器相同，用 Scanner 逐行读入
+        SourceProgram program = new SourceProgram();
+        try (Scanner scanner = new Scanner(inputFile)) {
+            while (scanner.hasNextLine()) {
+                program.addLine(scanner.nextLine());
+            }
+        }
+        return program;
+    }
+
+    private static void compileTwoPass(SourceProgram program, Path directory, int codegenThreadNum) throws Exception {
+        SymbolTable.resetSession();
+        ProgramException.resetSession();
+        ASTnode.resetCreatedCount();
+        try (FileWriter parseWriter = new FileWriter(directory.resolve("parser.txt").toFile());
+             FileWriter symbolWriter = new FileWriter(directory.resolve("symbol.txt").toFile());
+             FileWriter errorWriter = new FileWriter(directory.resolve("error.txt").toFile())) {
+            Lexer lexer = new Lexer(program, true, parseWriter);
+            CompUnit compUnit = new Parser(lexer, true, parseWriter).parseCompUnit();
+            new Visitor(false, symbolWriter).visitCompUnit(compUnit);
+            SymbolTable.printSymbolTable(symbolWriter);
+            ProgramException.printExceptions(errorWriter);
+            if (ProgramException.containsSemanticsException()) {
+                return;
+            }
+            try (FileWriter irWriter = new FileWriter(directory.resolve("llvm_ir.txt").toFile())) {
+                IRGenerator irGenerator = new IRGenerator(irWriter);
+                if (codegenThreadNum > 1) {
+                    irGenerator.codeGen(compUnit, codegenThreadNum);
+                }
+                else {
+                    irGenerator.codeGen(compUnit);
+                }
+            }
+        }
+    }
+
+    private static void compileStreaming(SourceProgram program, Path directory) throws Exception {
+        SymbolTable.resetSession();
+        ProgramException.resetSession();
+        ASTnode.resetCreatedCount();
+        SymbolTable.enableStreaming();
+        StringWriter parseWriter = new StringWriter();
+        Lexer lexer = new Lexer(program, true, parseWriter, true);
+        Parser parser = new Parser(lexer, true, parseWriter);
+        Visitor visitor = new Visitor(false, Writer.nullWriter());
+        File irSpoolFile = directory.resolve("llvm_ir.txt.tmp").toFile();
+        try (FileWriter irWriter = new FileWriter(irSpoolFile)) {
+            IRGenerator irGenerator = new IRGenerator(irWriter);
+            irGenerator.codeGenHeader();
+            ASTnode item;
+            while ((item = parser.parseCompUnitItem()) != null) {
+                visitor.visitCompUnitItem(item);
+                if (!ProgramException.containsSemanticsException()) {
+                    irGenerator.codeGenCompUnitItem(item);
+                }
+                SymbolTable.releaseFunctionScopes();
+                lexer.releaseConsumedTokens();
+            }
+            parser.endCompUnit();
+        }
+        SymbolTable.printSymbolTable(Writer.nullWriter());
+        Files.move(irSpoolFile.toPath(), directory.resolve("llvm_ir.txt"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
@@ -0,0 +1,378 @@
+package driver;
+
+import java.util.Random;
+
+// 合成测试程序生成器：按给定的规模参数和随机种子生成语法和语义都正确的 SysY 程序，相同的参数和种子总是生成相同的程序
+// 用到的成分包括 const、int/char、一维数组、for、if/else、break/continue、printf、getint 和函数调用，
+// 每个函数只调用在它之前定义的函数；生成的程序用于测试编译器本身，运行时可能耗时很长，不保证可以正常运行结束
+public class WorkloadGenerator {
+
+    // 规模参数，可以通过命令行参数 --<名字>=<值> 指定
+    public static class Config {
+        public long seed = 1;
+        public int functions = 50; // 函数数量，不包括 main
+        public int statements = 40; // 每个函数中的语句数量（包括嵌套在内层的语句）
+        public int depth = 4; // 语句的最大嵌套层数，每个函数中至少有一处达到这个层数
+        public int exprLength = 6; // 每个表达式中的操作数个数
+        public int arraySize = 32; // 数组长度，也是全局数组初始值的个数
+        public double commentDensity = 0.1; // 每条语句之前出现注释的概率
+
+        public Config copy() {
+            Config config = new Config();
+            config.seed = seed;
+            config.functions = functions;
+            config.statements = statements;
+            config.depth = depth;
+            config.exprLength = exprLength;
+            config.arraySize = arraySize;
+            config.commentDensity = commentDensity;
+            return config;
+        }
+
+        // 识别一个规模参数，不是规模参数时返回 false
+        public boolean parseOption(String arg) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                return false;
+            }
+            String value = arg.substring(equals + 1);
+            switch (arg.substring(2, equals)) {
+                case "seed": seed = Long.parseLong(value); return true;
+                case "functions": functions = Integer.parseInt(value); return true;
+                case "statements": statements = Integer.parseInt(value); return true;
+                case "depth": depth = Integer.parseInt(value); return true;
+                case "expr-length": exprLength = Integer.parseInt(value); return true;
+                case "array-size": arraySize = Integer.parseInt(value); return true;
+                case "comment-density": commentDensity = Double.parseDouble(value); return true;
+                default: return false;
+            }
+        }
+
+        public void scale(String knob, int factor) { // 把指定的规模参数放大 factor 倍
+            switch (knob) {
+                case "functions": functions *= factor; break;
+                case "statements": statements *= factor; break;
+                case "depth": depth *= factor; break;
+                case "expr-length": exprLength *= factor; break;
+                case "array-size": arraySize *= factor; break;
+                default: throw new IllegalArgumentException("不能放大的规模参数: " + knob);
+            }
+        }
+
+        public int get(String knob) {
+            switch (knob) {
+                case "functions": return functions;
+                case "statements": return statements;
+                case "depth": return depth;
+                case "expr-length": return exprLength;
+                case "array-size": return arraySize;
+                default: throw new IllegalArgumentException("不能放大的规模参数: " + knob);
+            }
+        }
+    }
+
+    private static final int LOCAL_NUM = 4; // 每个函数中的普通局部变量 x0 ~ x3
+    private static final int CONST_NUM = 8; // 全局常量 K0 ~ K7
+    private static final String[] WORDS = {"update", "the", "running", "total", "check", "bounds", "before", "loop",
+        "index", "value", "merge", "result", "into", "buffer", "temporary", "state"};
+
+    private final Config config;
+    private final Random random;
+    private final StringBuilder out = new StringBuilder();
+    private int indent;
+    private int currentFunction; // 正在生成的函数编号，main 为 functions
+    private int remainingStatements; // 当前函数还可以生成的语句数量
+    private int loopDepth; // 当前所处的 for 循环层数，决定可用的循环变量 i0 ~ i(loopDepth-1)
+
+    private WorkloadGenerator(Config config) {
+        this.config = config;
+        this.random = new Random(config.seed);
+    }
+
+    public static String generate(Config config) {
+        return new WorkloadGenerator(config).generateProgram();
+    }
+
+    private String generateProgram() {
+        line("const int SIZE = " + Math.max(config.arraySize, 1) + ";");
+        StringBuilder consts = new StringBuilder("const int ");
+        for (int i = 0; i < CONST_NUM; i++) {
+            consts.append(i == 0 ? "" : ", ").append("K").append(i).append(" = ").append(random.nextInt(100) + 1);
+        }
+        line(consts.append(";").toString());
+        StringBuilder data = new StringBuilder("int gdata[SIZE] = {");
+        for (int i = 0; i < Math.max(config.arraySize, 1); i++) {
+            data.append(i == 0 ? "" : ", ").append(random.nextInt(1000));
+        }
+        line(data.append("};").toString());
+        line("char gtext[16] = \"workload\";");
+        line("int gcount = 0;");
+        for (int i = 0; i < config.functions; i++) {
+            currentFunction = i;
+            line("");
+            line("int f" + i + "(int a, int b, int arr[]) {");
+            indent++;
+            functionBody();
+            line("return " + expression() + ";");
+            indent--;
+            line("}");
+        }
+        currentFunction = config.functions;
+        line("");
+        line("int main() {");
+        indent++;
+        functionBody();
+        if (config.functions > 0) {
+            line("x0 = f" + (config.functions - 1) + "(x0, x1, buf);");
+        }
+        line("printf(\"%d %d\\n\", x0, gcount);");
+        line("return 0;");
+        indent--;
+        line("}");
+        return out.toString();
+    }
+
+    private void functionBody() {
+        StringBuilder locals = new StringBuilder("int ");
+        for (int i = 0; i < LOCAL_NUM; i++) {
+            locals.append(i == 0 ? "" : ", ").append("x").append(i).append(" = ").append(random.nextInt(50));
+        }
+        line(locals.append(";").toString());
+        StringBuilder loopVariables = new StringBuilder("int i0");
+        for (int i = 1; i < Math.max(config.depth, 1); i++) {
+            loopVariables.append(", i").append(i);
+        }
+        line(loopVariables.append(";").toString());
+        line("char c0 = 'a';");
+        line("int buf[SIZE];");
+        if (currentFunction == config.functions) { // main 中没有参数，用局部变量代替
+            line("int a = 1, b = 2;");
+            line("int arr[SIZE];");
+        }
+        remainingStatements = config.statements;
+        nestedChain(config.depth); // 保证每个函数都达到最大嵌套层数
+        while (remainingStatements > 0) {
+            statement(0);
+        }
+    }
+
+    private void nestedChain(int levels) {
+        if (levels <= 0 || remainingStatements <= 0) {
+            return;
+        }
+        remainingStatements--;
+        comment();
+        if (levels % 2 == 0) {
+            forHeader();
+            nestedChain(levels - 1);
+            loopFooter();
+        }
+        else {
+            line("if (" + condition() + ") {");
+            indent++;
+            nestedChain(levels - 1);
+            simpleStatement();
+            indent--;
+            line("}");
+        }
+    }
+
+    private void statement(int level) {
+        remainingStatements--;
+        comment();
+        int kind = random.nextInt(10);
+        if (level < config.depth && kind < 2) {
+            forHeader();
+            body(level + 1);
+            loopFooter();
+        }
+        else if (level < config.depth && kind < 4) {
+            line("if (" + condition() + ") {");
+            indent++;
+            body(level + 1);
+            indent--;
+            if (random.nextBoolean()) {
+                line("}");
+                line("else {");
+                indent++;
+                body(level + 1);
+                indent--;
+            }
+            line("}");
+        }
+        else if (level < config.depth && kind < 5) {
+            line("{");
+            indent++;
+            line("int t" + level + " = " + expression() + ";");
+            body(level + 1);
+            indent--;
+            line("}");
+        }
+        else {
+            simpleStatement();
+        }
+    }
+
+    private void body(int level) { // 复合语句中的若干条语句，至少一条
+        int count = 1 + random.nextInt(3);
+        statement(level);
+        for (int i = 1; i < count && remainingStatements > 0; i++) {
+            statement(level);
+        }
+    }
+
+    private void forHeader() {
+        String i = "i" + loopDepth;
+        line("for (" + i + " = 0; " + i + " < " + (1 + random.nextInt(Math.max(config.arraySize, 1))) + "; " + i + " = " + i + " + 1) {");
+        indent++;
+        loopDepth++;
+    }
+
+    private void loopFooter() {
+        if (random.nextInt(4) == 0) {
+            line("if (" + condition() + ") {");
+            line("    " + (random.nextBoolean() ? "break;" : "continue;"));
+            line("}");
+        }
+        loopDepth--;
+        indent--;
+        line("}");
+    }
+
+    private void simpleStatement() {
+        int kind = random.nextInt(12);
+        if (kind < 5) {
+            line(variable() + " = " + expression() + ";");
+        }
+        else if (kind < 8) {
+            line(arrayName() + "[" + index() + "] = " + expression() + ";");
+        }
+        else if (kind < 9) {
+            line("c0 = " + expression() + ";");
+        }
+        else if (kind < 10) {
+            line("printf(\"%d %c\\n\", " + expression() + ", c0);");
+        }
+        else if (kind < 11 && currentFunction > 0) {
+            line("gcount = gcount + " + call() + ";");
+        }
+        else {
+            line(variable() + " = getint();");
+        }
+    }
+
+    private String expression() { // 由 exprLength 个操作数组成的算术表达式
+        return expression(Math.max(config.exprLength, 1));
+    }
+
+    private String expression(int operands) {
+        if (operands == 1) {
+            return operand();
+        }
+        int left = 1 + random.nextInt(operands - 1);
+        String leftExp = expression(left);
+        int op = random.nextInt(5);
+        if (op >= 3) { // 除数和模数只用正的常量，避免除以零
+            String rightExp = String.valueOf(1 + random.nextInt(97));
+            String exp = leftExp + (op == 3 ? " / " : " % ") + rightExp;
+            return operands - left > 1 ? "(" + exp + ") + " + expression(operands - left) : exp;
+        }
+        String exp = leftExp + (op == 0 ? " + " : op == 1 ? " - " : " * ") + expression(operands - left);
+        return random.nextInt(4) == 0 ? "(" + exp + ")" : exp;
+    }
+
+    private String operand() {
+        int kind = random.nextInt(10);
+        if (kind < 3) {
+            return variable();
+        }
+        else if (kind < 5) {
+            return String.valueOf(random.nextInt(1000));
+        }
+        else if (kind < 6) {
+            return "K" + random.nextInt(CONST_NUM);
+        }
+        else if (kind < 8) {
+            return arrayName() + "[" + index() + "]";
+        }
+        else if (kind < 9) {
+            return "-" + variable();
+        }
+        return "c0";
+    }
+
+    private String condition() { // 若干个比较通过 && 和 || 连接
+        int comparisons = 1 + random.nextInt(Math.max(config.exprLength / 2, 1));
+        StringBuilder cond = new StringBuilder();
+        String[] relations = {" < ", " > ", " <= ", " >= ", " == ", " != "};
+        for (int i = 0; i < comparisons; i++) {
+            if (i > 0) {
+                cond.append(random.nextBoolean() ? " && " : " || ");
+            }
+            if (random.nextInt(5) == 0) {
+                cond.append("!").append(variable());
+            }
+            else {
+                cond.append(expression(1 + random.nextInt(2))).append(relations[random.nextInt(relations.length)])
+                    .append(expression(1 + random.nextInt(2)));
+            }
+        }
+        return cond.toString();
+    }
+
+    private String call() { // 调用之前定义的一个函数
+        int callee = random.nextInt(currentFunction);
+        return "f" + callee + "(" + expression(2) + ", " + variable() + ", " + arrayName() + ")";
+    }
+
+    private String variable() {
+        int kind = random.nextInt(LOCAL_NUM + 2);
+        if (kind < LOCAL_NUM) {
+            return "x" + kind;
+        }
+        return kind == LOCAL_NUM ? "a" : "b";
+    }
+
+    private String arrayName() {
+        int kind = random.nextInt(3);
+        return kind == 0 ? "buf" : kind == 1 ? "arr" : "gdata";
+    }
+
+    private String index() { // 循环中用循环变量作为下标，否则用常量
+        if (loopDepth > 0 && random.nextBoolean()) {
+            return "i" + random.nextInt(loopDepth);
+        }
+        return String.valueOf(random.nextInt(Math.max(config.arraySize, 1)));
+    }
+
+    private void comment() {
+        if (random.nextDouble() >= config.commentDensity) {
+            return;
+        }
+        if (random.nextInt(3) == 0) {
+            line("/* " + words(6));
+            line("   " + words(8) + " */");
+        }
+        else {
+            line("// " + words(5 + random.nextInt(6)));
+        }
+    }
+
+    private String words(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private void line(String text) {
+        if (!text.isEmpty()) {
+            for (int i = 0; i < indent; i++) {
+                out.append("    ");
+            }
+        }
+        out.append(text).append('\n');
+    }
+
+}
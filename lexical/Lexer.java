@@ -4,8 +4,8 @@ import program.ProgramException;
 import program.SourceProgram;
 import util.Utilities;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,217 +20,282 @@ public class Lexer {
     private int currentLine;
 
     private boolean debugFlag;
-    private FileWriter debugWriter;
+    private Writer debugWriter;
 
-    public Lexer(SourceProgram inputProgram, boolean debugFlag, FileWriter debugWriter) {
+    private int tokenBase; // tokens 中第一个 token 的全局下标，释放已经读过的 token 之后不再为 0
+
+    private boolean lazy; // 是否按需进行词法分析
+    private boolean eofReached; // 是否已经分析到了文件末尾
+
+    public Lexer(SourceProgram inputProgram, boolean debugFlag, Writer debugWriter) {
+        this(inputProgram, debugFlag, debugWriter, false);
+    }
+
+    // lazy 为 true 时不在构造时一次性完成词法分析，而是在语法分析读取 token 时逐行进行，
+    // 配合 releaseConsumedTokens 使用，内存中只保留尚未读取的少量 token
+    public Lexer(SourceProgram inputProgram, boolean debugFlag, Writer debugWriter, boolean lazy) {
         this.debugFlag = debugFlag;
         this.debugWriter = debugWriter;
         this.inputProgram = inputProgram;
         this.tokens = new ArrayList<>();
         this.currentLine = 0;
-        while (this.currentLine < this.inputProgram.getLineNum()) {
-            String line = this.inputProgram.getLine(this.currentLine);
-            int index = 0;
-            while (index < line.length()) {
-                char ch = line.charAt(index);
-                if (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n') { // 跳过任何空白字符
-                    index++;
-                    continue;
-                }
-                if (Utilities.isIdentifierNonDigitCharacter(ch)) { // 标识符和保留字
-                    StringBuilder tokenBuilder = new StringBuilder();
-                    tokenBuilder.append(ch);
-                    while (true) {
-                        index += 1;
-                        if (index >= line.length()) {
-                            break;
-                        }
-                        ch = line.charAt(index);
-                        if (Utilities.isIdentifierNonDigitCharacter(ch) || Utilities.isDigit(ch)) {
-                            tokenBuilder.append(ch);
-                        }
-                        else {
-                            break;
-                        }
-                    }
-                    tokens.add(new Token(tokenBuilder.toString(), this.currentLine));
-                }
-                else if (Utilities.isDigit(ch)) { // 整形常量
-                    StringBuilder tokenBuilder = new StringBuilder();
-                    tokenBuilder.append(ch);
-                    while (true) {
-                        index += 1;
-                        if (index >= line.length()) {
-                            break;
-                        }
-                        ch = line.charAt(index);
-                        if (Utilities.isDigit(ch)) {
-                            tokenBuilder.append(ch);
-                        } else {
-                            break;
-                        }
-                    }
-                    tokens.add(new Token(Token.TokenType.INTCON, tokenBuilder.toString(), this.currentLine));
-                }
-                else if (ch == '"') { // 字符串常量
-                    StringBuilder tokenBuilder = new StringBuilder();
-                    tokenBuilder.append(ch);
-                    while (true) {
-                        index += 1;
-                        if (index >= line.length()) {
-                            // 字符串未结束报错
-                        }
-                        ch = line.charAt(index);
-                        if (ch == '"') {
-                            index += 1;
-                            tokenBuilder.append(ch);
-                            break;
-                        }
-                        else if (ch <= 126 && ch >= 32) {
-                            tokenBuilder.append(ch);
-                        }
-                        else {
-                            // 字符串常量中出现非法字符报错
-                        }
-                    }
-                    tokens.add(new Token(Token.TokenType.STRCON, tokenBuilder.toString(), this.currentLine));
-                }
-                else if (ch == '\'') { // 字符常量
+        this.lazy = lazy;
+        if (!lazy) {
+            while (!this.eofReached) {
+                lexNextLine();
+            }
+        }
+    }
+
+    // 在已经分析好的 token 序列（以 EOF 结尾）上从 startToken 开始进行语法分析，编辑器增量分析时使用
+    public Lexer(ArrayList<Token> tokens, int startToken) {
+        this.tokens = tokens;
+        this.currentToken = startToken;
+        this.eofReached = true;
+    }
+
+    private Lexer(SourceProgram inputProgram, int startLine, ArrayList<Token> tokens) {
+        this.inputProgram = inputProgram;
+        this.tokens = tokens;
+        this.currentLine = startLine;
+    }
+
+    // 只分析从 startLine 开始的一段（一行，或者以跨行注释的结尾所在行结束的若干行），token 添加到 out 的末尾，
+    // 返回下一段的起始行。每一段开始时都不处于注释中，编辑器据此判断重新分析到哪里可以与上一次的结果衔接
+    public static int lexSegment(SourceProgram inputProgram, int startLine, ArrayList<Token> out) {
+        Lexer lexer = new Lexer(inputProgram, startLine, out);
+        lexer.lexNextLine();
+        return lexer.currentLine;
+    }
+
+    private void lexNextLine() { // 分析当前行（多行注释可能会跨越多行），所有行都分析完毕后添加 EOF
+        if (this.currentLine >= this.inputProgram.getLineNum()) {
+            tokens.add(new Token(Token.TokenType.EOF, "", this.currentLine));
+            this.eofReached = true;
+            return;
+        }
+        String line = this.inputProgram.getLine(this.currentLine);
+        int index = 0;
+        while (index < line.length()) {
+            char ch = line.charAt(index);
+            if (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n') { // 跳过任何空白字符
+                index++;
+                continue;
+            }
+            if (Utilities.isIdentifierNonDigitCharacter(ch)) { // 标识符和保留字
+                StringBuilder tokenBuilder = new StringBuilder();
+                tokenBuilder.append(ch);
+                while (true) {
                     index += 1;
-                    char ch2 = line.charAt(index); // 查看第二个字符
-                    if (ch2 == '\\') { // 转译字符
-                        index += 1;
-                        ch2 = line.charAt(index); // 要转译的字符，可以是 ' " 或 \
-                        index += 1;
-                        if (line.charAt(index) == '\'') {
-                            tokens.add(new Token(Token.TokenType.CHRCON, "\'\\" + ch2 + "\'", this.currentLine));
-                            index += 1;
-                        }
-                        else {
-                            // 字符常量未正确结束报错
-                        }
-                    }
-                    else {
-                        ch2 = line.charAt(index);
-                        index += 1;
-                        if (line.charAt(index) == '\'') {
-                            tokens.add(new Token(Token.TokenType.CHRCON, "\'" + ch2 + "\'", this.currentLine));
-                            index += 1;
-                        }
-                        else {
-                            // 字符常量未正确结束报错
-                        }
+                    if (index >= line.length()) {
+                        break;
                     }
-                }
-                else if (ch == '!') { // ! 和 != 号
-                    if (line.charAt(index+1) == '=') { // !=
-                        index += 2;
-                        tokens.add(new Token("!=", this.currentLine));
+                    ch = line.charAt(index);
+                    if (Utilities.isIdentifierNonDigitCharacter(ch) || Utilities.isDigit(ch)) {
+                        tokenBuilder.append(ch);
                     }
                     else {
-                        index++;
-                        tokens.add(new Token('!', this.currentLine));
+                        break;
                     }
                 }
-                else if (ch == '&') { // && 符号
-                    if (line.charAt(index+1) == '&') {
-                        index += 2;
-                        tokens.add(new Token("&&", this.currentLine));
+                tokens.add(new Token(tokenBuilder.toString(), this.currentLine));
+            }
+            else if (Utilities.isDigit(ch)) { // 整形常量
+                StringBuilder tokenBuilder = new StringBuilder();
+                tokenBuilder.append(ch);
+                while (true) {
+                    index += 1;
+                    if (index >= line.length()) {
+                        break;
                     }
-                    else {
-                        // 词法分析 a 类型错误
-                        index += 1;
-                        tokens.add(new Token(Token.TokenType.AND, "&", this.currentLine));
-                        ProgramException.newException(this.currentLine + 1, 'a');
+                    ch = line.charAt(index);
+                    if (Utilities.isDigit(ch)) {
+                        tokenBuilder.append(ch);
+                    } else {
+                        break;
                     }
                 }
-                else if (ch == '|') { // || 符号
-                    if (line.charAt(index+1) == '|') {
-                        index += 2;
-                        tokens.add(new Token("||", this.currentLine));
+                tokens.add(new Token(Token.TokenType.INTCON, tokenBuilder.toString(), this.currentLine));
+            }
+            else if (ch == '"') { // 字符串常量
+                StringBuilder tokenBuilder = new StringBuilder();
+                tokenBuilder.append(ch);
+                while (true) {
+                    index += 1;
+                    if (index >= line.length()) {
+                        // 字符串未结束报错
                     }
-                    else {
-                        // 词法分析 a 类型错误
+                    ch = line.charAt(index);
+                    if (ch == '"') {
                         index += 1;
-                        tokens.add(new Token(Token.TokenType.AND, "|", this.currentLine));
-                        ProgramException.newException(this.currentLine + 1, 'a');
+                        tokenBuilder.append(ch);
+                        break;
                     }
-                }
-                else if (ch == '=') { // = 号和 == 号
-                    if (line.charAt(index+1) == '=') { // ==
-                        index += 2;
-                        tokens.add(new Token("==", this.currentLine));
+                    else if (ch <= 126 && ch >= 32) {
+                        tokenBuilder.append(ch);
                     }
                     else {
-                        index += 1;
-                        tokens.add(new Token('=', this.currentLine));
+                        // 字符串常量中出现非法字符报错
                     }
                 }
-                else if (ch == '<') { // < 和 <=
-                    if (line.charAt(index+1) == '=') {
-                        index += 2;
-                        tokens.add(new Token("<=", this.currentLine));
+                tokens.add(new Token(Token.TokenType.STRCON, tokenBuilder.toString(), this.currentLine));
+            }
+            else if (ch == '\'') { // 字符常量
+                index += 1;
+                char ch2 = line.charAt(index); // 查看第二个字符
+                if (ch2 == '\\') { // 转译字符
+                    index += 1;
+                    ch2 = line.charAt(index); // 要转译的字符，可以是 ' " 或 \
+                    index += 1;
+                    if (line.charAt(index) == '\'') {
+                        tokens.add(new Token(Token.TokenType.CHRCON, "\'\\" + ch2 + "\'", this.currentLine));
+                        index += 1;
                     }
                     else {
-                        index += 1;
-                        tokens.add(new Token('<', this.currentLine));
+                        // 字符常量未正确结束报错
                     }
                 }
-                else if (ch == '>') { // > 和 >=
-                    if (line.charAt(index+1) == '=') {
-                        index += 2;
-                        tokens.add(new Token(">=", this.currentLine));
+                else {
+                    ch2 = line.charAt(index);
+                    index += 1;
+                    if (line.charAt(index) == '\'') {
+                        tokens.add(new Token(Token.TokenType.CHRCON, "\'" + ch2 + "\'", this.currentLine));
+                        index += 1;
                     }
                     else {
-                        index += 1;
-                        tokens.add(new Token('>', this.currentLine));
+                        // 字符常量未正确结束报错
                     }
                 }
-                else if (ch == '+' || ch == '-' || ch == '*' || ch == '%' || ch == ';' || ch == ',' || ch == ')' || ch == '(' || ch == '{' || ch == '}' || ch == '[' || ch == ']') {
-                    index+=1;
-                    tokens.add(new Token(ch, this.currentLine));
+            }
+            else if (ch == '!') { // ! 和 != 号
+                if (line.charAt(index+1) == '=') { // !=
+                    index += 2;
+                    tokens.add(new Token("!=", this.currentLine));
                 }
-                else if (ch == '/') {
-                    if (line.charAt(index+1) == '/') { // 单行注释，后面的内容都不重要了，直接跳过本行
-                        break;
-                    }
-                    else if (line.charAt(index+1) == '*') { // 多行注释
-                        index += 2;
-                        while (true) {
-                            if (index >= line.length() - 1) {
-                                index = 0;
-                                this.currentLine++;
-                                line = this.inputProgram.getLine(this.currentLine);
-                                continue;
-                            }
-                            if (line.charAt(index) == '*' && line.charAt(index+1) == '/') {
-                                index += 2;
+                else {
+                    index++;
+                    tokens.add(new Token('!', this.currentLine));
+                }
+            }
+            else if (ch == '&') { // && 符号
+                if (line.charAt(index+1) == '&') {
+                    index += 2;
+                    tokens.add(new Token("&&", this.currentLine));
+                }
+                else {
+                    // 词法分析 a 类型错误
+                    index += 1;
+                    tokens.add(new Token(Token.TokenType.AND, "&", this.currentLine));
+                    ProgramException.newException(this.currentLine + 1, 'a');
+                }
+            }
+            else if (ch == '|') { // || 符号
+                if (line.charAt(index+1) == '|') {
+                    index += 2;
+                    tokens.add(new Token("||", this.currentLine));
+                }
+                else {
+                    // 词法分析 a 类型错误
+                    index += 1;
+                    tokens.add(new Token(Token.TokenType.AND, "|", this.currentLine));
+                    ProgramException.newException(this.currentLine + 1, 'a');
+                }
+            }
+            else if (ch == '=') { // = 号和 == 号
+                if (line.charAt(index+1) == '=') { // ==
+                    index += 2;
+                    tokens.add(new Token("==", this.currentLine));
+                }
+                else {
+                    index += 1;
+                    tokens.add(new Token('=', this.currentLine));
+                }
+            }
+            else if (ch == '<') { // < 和 <=
+                if (line.charAt(index+1) == '=') {
+                    index += 2;
+                    tokens.add(new Token("<=", this.currentLine));
+                }
+                else {
+                    index += 1;
+                    tokens.add(new Token('<', this.currentLine));
+                }
+            }
+            else if (ch == '>') { // > 和 >=
+                if (line.charAt(index+1) == '=') {
+                    index += 2;
+                    tokens.add(new Token(">=", this.currentLine));
+                }
+                else {
+                    index += 1;
+                    tokens.add(new Token('>', this.currentLine));
+                }
+            }
+            else if (ch == '+' || ch == '-' || ch == '*' || ch == '%' || ch == ';' || ch == ',' || ch == ')' || ch == '(' || ch == '{' || ch == '}' || ch == '[' || ch == ']') {
+                index+=1;
+                tokens.add(new Token(ch, this.currentLine));
+            }
+            else if (ch == '/') {
+                if (line.charAt(index+1) == '/') { // 单行注释，后面的内容都不重要了，直接跳过本行
+                    break;
+                }
+                else if (line.charAt(index+1) == '*') { // 多行注释
+                    index += 2;
+                    while (true) {
+                        if (index >= line.length() - 1) {
+                            if (this.currentLine + 1 >= this.inputProgram.getLineNum()) { // 注释直到文件末尾都没有结束
+                                index = line.length();
                                 break;
                             }
-                            else {
-                                index += 1;
-                            }
+                            index = 0;
+                            this.currentLine++;
+                            line = this.inputProgram.getLine(this.currentLine);
+                            continue;
+                        }
+                        if (line.charAt(index) == '*' && line.charAt(index+1) == '/') {
+                            index += 2;
+                            break;
+                        }
+                        else {
+                            index += 1;
                         }
-                    }
-                    else { // 单个 / 号
-                        index += 1;
-                        tokens.add(new Token(ch, this.currentLine));
                     }
                 }
-                else {
-                    // 如果不属于上面任何一个情况，那么就报错
-                    throw new UnknownError();
+                else { // 单个 / 号
+                    index += 1;
+                    tokens.add(new Token(ch, this.currentLine));
                 }
             }
-            this.currentLine++;
+            else {
+                // 如果不属于上面任何一个情况，那么就报错
+                throw new UnknownError();
+            }
+        }
+        if (this.lazy) {
+            this.inputProgram.releaseLinesBefore(this.currentLine + 1); // 已经分析过的行不再需要
+        }
+        this.currentLine++;
+    }
+
+    private void ensureLexed(int tokenIndex) { // 保证下标为 tokenIndex 的 token 已经被分析出来
+        while (tokenIndex >= this.tokenBase + this.tokens.size() && !this.eofReached) {
+            lexNextLine();
+        }
+    }
+
+    public void releaseConsumedTokens() { // 释放当前 token 之前已经读过的 token，只保留前一个 token 用于报错定位
+        int releaseCount = this.currentToken - 1 - this.tokenBase;
+        if (releaseCount > 0) {
+            this.tokens.subList(0, releaseCount).clear();
+            this.tokenBase += releaseCount;
         }
-        tokens.add(new Token(Token.TokenType.EOF, "", this.currentLine));
     }
 
     public boolean nextToken() throws IOException {
-        if (this.currentToken < this.tokens.size() - 1) {
+        ensureLexed(this.currentToken + 1);
+        if (this.currentToken < this.tokenBase + this.tokens.size() - 1) {
             if (debugFlag) {
-                debugWriter.write(this.tokens.get(this.currentToken).getType() + " " + this.tokens.get(this.currentToken).getToken() + "\n");
+                debugWriter.write(getTokenAt(this.currentToken).getType() + " " + getTokenAt(this.currentToken).getToken() + "\n");
             }
             this.currentToken++;
             return true;
@@ -241,7 +306,7 @@ public class Lexer {
     }
 
     public boolean prevToken() {
-        if (this.currentToken > 0) {
+        if (this.currentToken > this.tokenBase) {
             this.currentToken--;
             return true;
         }
@@ -251,10 +316,14 @@ public class Lexer {
     }
 
     public Token getCurrentToken() {
-        return this.tokens.get(this.currentToken);
+        return getTokenAt(this.currentToken);
     }
     public Token tokenPreRead(int bias) {
-        return this.tokens.get(this.currentToken + bias);
+        return getTokenAt(this.currentToken + bias);
+    }
+
+    public int getTokenCount() { // 已经分析出来的 token 总数（包括已经释放的）
+        return this.tokenBase + this.tokens.size();
     }
 
     public int getCurrentTokenIndex() {
@@ -262,7 +331,8 @@ public class Lexer {
     }
 
     public Token getTokenAt(int pos) {
-        return this.tokens.get(pos);
+        ensureLexed(pos);
+        return this.tokens.get(pos - this.tokenBase);
     }
 
 }
@@ -198,4 +198,8 @@ public class Token {
         return line;
     }
 
+    public void shiftLine(int lineDelta) { // 编辑器增量分析时，编辑位置之后的 token 随行的增删整体移动
+        this.line += lineDelta;
+    }
+
 }
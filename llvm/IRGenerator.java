@@ -1,91 +1,177 @@
 package llvm;
 
 import lexical.Token;
+import program.JfrEvents;
+import program.ProgramException;
+import semantics.Visitor;
 import symbol.FunctionType;
 import symbol.Symbol;
 import symbol.SymbolTable;
 import symbol.ValueType;
 import syntax.nodes.*;
 import util.Utilities;
-
-import java.io.FileWriter;
+import jdk.jfr.Event;
+import llvm.ir.BasicBlock;
+import llvm.ir.Constant;
+import llvm.ir.Function;
+import llvm.ir.GlobalVariable;
+import llvm.ir.IRPrinter;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Instruction.Predicate;
+import llvm.ir.Module;
+import llvm.ir.Value;
+import llvm.pass.PassManager;
+
+import java.io.CharArrayWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
-
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 遍历语法树生成中间代码对象（llvm.ir），每个顶层成分生成完毕后由 IRPrinter 打印到 irWriter
 public class IRGenerator {
 
-    private FileWriter irWriter;
+    private Writer irWriter;
+    private final Module module;
     private int nextScope;
-    private int virtualRegIndex; // 用于进行虚拟寄存器分配
+    private SymbolTable currentSymbolTable; // 代码生成时所处的作用域，每个 IRGenerator 各自记录，并行生成时互不影响
+    private int virtualRegIndex; // 当前函数中已经产生的虚拟寄存器数量（参数和有结果的指令）
     private int basicBlockIndex; // 用于进行基本块的分配
-    private String currentBasicBlockTag;
-    private int indentSpaceCount; // 用于控制缩进
+    private Function currentFunction;
+    private BasicBlock currentBasicBlock; // 新生成的指令添加到这个基本块的末尾
+    private BasicBlock returnBasicBlock; // 函数末尾的 bbreturn 基本块
     private Value returnValue;    // 用于存储返回值
     private boolean branchedInCurrentBasicBlock; // 标识当前基本块内是否已经产生了跳转操作
-    private String forLoopUpdateBBTag; // for 语句更新语句所在基本块标签，用于生成 continue 语句
-    private String forLoopEndBBTag; // for 语句结束所在基本块标签，用于生成 break 语句
+    private BasicBlock forLoopUpdateBB; // for 语句更新语句所在基本块，用于生成 continue 语句
+    private BasicBlock forLoopEndBB; // for 语句结束所在基本块，用于生成 break 语句
 
-    private void writeIndent() throws IOException {
-        for (int i = 0; i < indentSpaceCount; i++) {
-            irWriter.write(" ");
-        }
-    }
+    // 一遍式编译：语义检查和代码生成在同一次遍历中完成，此时由 IRGenerator 在生成每个成分之前调用 Visitor 进行检查
+    private Visitor fusedVisitor;
+    private boolean discarding; // 一遍式编译中已经出现了语义错误，之后只做检查，不再生成代码
+    private int forLoopDepth; // 当前所处的 for 循环层数，用于检查 break 和 continue
+
+    // 生成代码的统计信息
+    private int functionCount;
+    private int basicBlockCount; // 包括每个函数的入口基本块
+    private int instructionCount;
+    private int statementCount;
+
+    private PassManager passManager = PassManager.createDefault(); // 每个函数打印之前运行的优化遍，-O0 时为 null
 
-    private String allocBasicBlock() {
+    private BasicBlock allocBasicBlock() { // 分配一个基本块，之后由 enterBasicBlock 放到函数中
         basicBlockIndex++;
-        return "bb" + (basicBlockIndex - 1);
+        return new BasicBlock("bb" + (basicBlockIndex - 1), currentFunction);
     }
 
     private void resetBasicBlock() {
         basicBlockIndex = 0;
     }
 
-    private void nextLevelIndent() {
-        indentSpaceCount+=2;
+    private void resetReg() {
+        virtualRegIndex = 0;
     }
 
-    private void prevLevelIndent() {
-        indentSpaceCount-=2;
+    private <T extends Value> T emit(T value) { // 把指令添加到当前基本块的末尾
+        Instruction instruction = (Instruction) value;
+        currentBasicBlock.add(instruction);
+        instructionCount++;
+        if (instruction.hasResult()) {
+            virtualRegIndex++;
+        }
+        return value;
     }
 
-    private void resetReg() {
-        virtualRegIndex = 0;
+    public IRGenerator(Writer writer) {
+        this.irWriter = writer;
+        this.module = new Module();
+    }
+
+    public IRGenerator(Writer writer, Visitor fusedVisitor) {
+        this(writer);
+        this.fusedVisitor = fusedVisitor;
+    }
+
+    private IRGenerator(Writer writer, Module module, SymbolTable globalSymbolTable, int functionScopeNum, boolean optimize) { // 并行生成时负责一个函数
+        this.irWriter = writer;
+        this.module = module;
+        this.currentSymbolTable = globalSymbolTable;
+        this.nextScope = functionScopeNum;
+        setOptimize(optimize);
     }
 
-    private int allocReg() {
-        virtualRegIndex+=1;
-        return virtualRegIndex - 1;
+    public void setOptimize(boolean optimize) { // 在生成代码之前调用
+        passManager = optimize ? PassManager.createDefault() : null;
     }
 
-    public IRGenerator(FileWriter fileWriter) {
-        this.irWriter = fileWriter;
+    public Module getModule() { // 函数体在打印之后即被释放，模块中只保留全局变量和函数签名
+        return module;
     }
 
-    private void pushScope() { // 进入到子作用域当中，作用域序号+1
-        SymbolTable.jumpToSymbolTableByScopeNum(nextScope);
+    public Map<String, Long> getPassStatistics() { // -O0 时为空
+        return passManager == null ? Collections.emptyMap() : passManager.getStatistics();
+    }
+
+    private void pushScope() throws IOException { // 进入到子作用域当中，作用域序号+1
+        if (fusedVisitor != null) { // 一遍式编译时符号表在遍历过程中新建
+            SymbolTable.newSymbolTable();
+            return;
+        }
+        SymbolTable sonSymbolTable = currentSymbolTable.getSonSymbolTable(nextScope);
+        if (sonSymbolTable != null) {
+            currentSymbolTable = sonSymbolTable;
+        }
         nextScope += 1;
     }
 
-    private void popScope() { // 返回到父作用域当中
-        SymbolTable.backToUpperScope();
+    private void popScope() throws IOException { // 返回到父作用域当中
+        if (fusedVisitor != null) {
+            SymbolTable.closeScope();
+            return;
+        }
+        currentSymbolTable = currentSymbolTable.getParentSymbolTable();
+    }
+
+    private interface SemanticsCheck {
+        void run() throws Exception;
+    }
+
+    private void fusedCheck(SemanticsCheck check) throws IOException { // 一遍式编译中进行一次语义检查，并记录是否出现了语义错误
+        try {
+            check.run();
+        }
+        catch (IOException | RuntimeException e) { // 包括提前终止编译的异常，原样抛出
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (!discarding) {
+            discarding = ProgramException.containsSemanticsException();
+        }
+    }
+
+    private SymbolTable currentSymbolTable() { // 一遍式编译时作用域由 Visitor 维护
+        return fusedVisitor != null ? SymbolTable.getCurrentSymbolTable() : currentSymbolTable;
     }
 
     private int currentScope() { // 查询当前的作用域编号
-        return SymbolTable.getCurrentSymbolTable().getScopeNum();
+        return currentSymbolTable().getScopeNum();
     }
 
     private Symbol getSymbol(String name) {
-        return SymbolTable.getCurrentSymbolTable().searchSymbol(name);
+        return currentSymbolTable().searchSymbol(name);
     }
 
     public void codeGen(CompUnit compUnit) throws IOException {
-        printCode("declare i32 @getint()          ; 读取一个整数\n" +
-                "declare i32 @getchar()     ; 读取一个字符\n" +
-                "declare void @putint(i32)      ; 输出一个整数\n" +
-                "declare void @putch(i32)       ; 输出一个字符\n" +
-                "declare void @putstr(i8*)      ; 输出字符串\n", true);
-        nextScope = 1;
-        pushScope();
+        codeGenHeader();
         for (Decl decl : compUnit.decls) {
             codeGen(decl);
         }
@@ -95,50 +181,162 @@ public class IRGenerator {
         codeGen(compUnit.mainFuncDef);
     }
 
+    public void codeGenHeader() throws IOException { // 生成库函数声明，并进入全局作用域
+        module.addDeclaration(Function.declaration("getint", Type.i32(), new Type[0], "          ; 读取一个整数"));
+        module.addDeclaration(Function.declaration("getchar", Type.i32(), new Type[0], "     ; 读取一个字符"));
+        module.addDeclaration(Function.declaration("putint", Type.vo(), new Type[]{Type.i32()}, "      ; 输出一个整数"));
+        module.addDeclaration(Function.declaration("putch", Type.vo(), new Type[]{Type.i32()}, "       ; 输出一个字符"));
+        module.addDeclaration(Function.declaration("putstr", Type.vo(), new Type[]{Type.i8ptr()}, "      ; 输出字符串"));
+        IRPrinter.printDeclarations(module, irWriter);
+        nextScope = 1;
+        if (fusedVisitor == null) {
+            currentSymbolTable = SymbolTable.getCurrentSymbolTable();
+            pushScope();
+        }
+    }
+
+    // 并行代码生成：全局变量和常量按顺序生成，之后每个函数交给一个单独的 IRGenerator 在线程池上生成到各自的缓冲区，
+    // 虚拟寄存器和基本块在每个函数内重新编号，最后按源程序顺序拼接，与顺序生成的结果完全相同。
+    // 各函数的代码只通过内联互相依赖：内联时等待被调用函数生成完毕（见 Function.awaitInlineBody）
+    public void codeGen(CompUnit compUnit, int threadNum) throws IOException {
+        codeGenHeader();
+        for (Decl decl : compUnit.decls) {
+            codeGen(decl);
+        }
+        ArrayList<FuncDef> funcDefs = new ArrayList<>(compUnit.funcDefs);
+        funcDefs.add(compUnit.mainFuncDef);
+        // 每个函数的作用域都是全局作用域的子作用域，按编号顺序与函数定义一一对应
+        ArrayList<SymbolTable> functionSymbolTables = new ArrayList<>(currentSymbolTable.getSonSymbolTables());
+        // 函数只能调用在它之前定义的函数，提交任务之前先登记全部函数（包括 main），任务中对全局符号和模块只读不写
+        for (FuncDef funcDef : funcDefs) {
+            registerFunction(funcDef);
+        }
+        SymbolTable globalSymbolTable = currentSymbolTable;
+        ForkJoinPool pool = new ForkJoinPool(threadNum);
+        try {
+            ArrayList<CompletableFuture<IRGenerator>> results = new ArrayList<>(funcDefs.size());
+            for (int i = 0; i < funcDefs.size(); i++) {
+                results.add(new CompletableFuture<>());
+            }
+            // 任务开始运行时才按源程序顺序领取函数：被调用函数一定已经被正在运行或者已经完成的任务领取，
+            // 内联时等待它不会因为它的任务还排在线程池的队列里而死锁
+            AtomicInteger nextFunction = new AtomicInteger();
+            for (int i = 0; i < funcDefs.size(); i++) {
+                pool.execute(() -> {
+                    int index = nextFunction.getAndIncrement();
+                    CompletableFuture<IRGenerator> result = results.get(index);
+                    try {
+                        IRGenerator functionGenerator = new IRGenerator(new CharArrayWriter(), module, globalSymbolTable,
+                            functionSymbolTables.get(index).getScopeNum(), passManager != null);
+                        functionGenerator.codeGen(funcDefs.get(index));
+                        result.complete(functionGenerator);
+                    }
+                    catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            }
+            for (Future<IRGenerator> result : results) { // 按顺序等待，先完成的函数的缓冲区保留到轮到它为止
+                IRGenerator functionGenerator = awaitFunction(result);
+                ((CharArrayWriter) functionGenerator.irWriter).writeTo(irWriter);
+                functionCount += functionGenerator.functionCount;
+                basicBlockCount += functionGenerator.basicBlockCount;
+                instructionCount += functionGenerator.instructionCount;
+                if (passManager != null) {
+                    passManager.merge(functionGenerator.passManager);
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static IRGenerator awaitFunction(Future<IRGenerator> result) throws IOException {
+        try {
+            return result.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException e) { // 工作线程中的异常原样抛出
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // 流式编译时逐个生成顶层成分的代码，一遍式编译时返回该成分的代码文本（出现语义错误后为 null）
+    public String codeGenCompUnitItem(ASTnode item) throws IOException {
+        if (fusedVisitor == null) {
+            codeGenItem(item);
+            return null;
+        }
+        // 一遍式编译时每个成分的代码先缓存起来，没有出现语义错误才真正输出，出现错误后缓存的代码直接丢弃
+        Writer outputWriter = irWriter;
+        CharArrayWriter itemBuffer = new CharArrayWriter();
+        irWriter = itemBuffer;
+        try {
+            codeGenItem(item);
+        }
+        finally {
+            irWriter = outputWriter;
+        }
+        if (discarding) {
+            return null;
+        }
+        itemBuffer.writeTo(outputWriter);
+        return itemBuffer.toString();
+    }
+
+    // 增量编译：函数及其依赖都没有变化时直接输出上一次生成的代码，此时 Visitor 只登记了函数符号和参数
+    public void codeGenCachedFunction(FuncDef funcDef, String llvmIR) throws IOException {
+        registerFunction(funcDef).markGenerated(); // 只有签名，之后的函数调用它时作为 call 的操作数，不能内联
+        functionCount++;
+        if (!discarding) {
+            irWriter.write(llvmIR);
+        }
+    }
+
+    private void codeGenItem(ASTnode item) throws IOException {
+        if (item instanceof Decl) {
+            codeGen((Decl) item);
+        }
+        else {
+            codeGen((FuncDef) item);
+        }
+    }
+
     private void codeGen(Decl decl) throws IOException {
+        if (fusedVisitor != null) { // 一遍式编译：先登记符号并计算初始值
+            fusedCheck(() -> fusedVisitor.visitDecl(decl));
+            if (discarding) {
+                return;
+            }
+        }
         if (currentScope() == 1) { // 生成全局变量/常量的 IR
             for (VarConstDef varConstDef : decl.varConstDefs) {
                 Symbol symbol = getSymbol(varConstDef.ident.name);
                 symbol.definedInLLVMIR = true;
                 ValueType type = (ValueType) symbol.symbolType;
-                printCode("@" + symbol.symbolName + " = ", true);
-                symbol.llvmIRSymbol = "@" + symbol.symbolName; // 更新符号表里面的 ir 表示
-                if (type.isConst) { // 如果是常量就加上 constant 标签
-                    printCode("constant ", false);
+                // 全局变量一定有编译期确定的初始值，数组的每个元素都有
+                int[] initializer = new int[type.arrayLength != null ? type.arrayLength : 1];
+                for (int i = 0; i < initializer.length; i++) {
+                    initializer[i] = symbol.constValues.get(i);
                 }
-                else {
-                    printCode("global ", false);
-                }
-                if (type.arrayLength != null) { // 数组类型
-                    String typeTag;
-                    if (type.basicType == ValueType.BasicType.CHR) { // 加上类型标签
-                        typeTag = "i8";
-                    }
-                    else {
-                        typeTag = "i32";
-                    }
-                    printCode("[" + type.arrayLength + " x " + typeTag + "] ", false);
-                    // 数组初始值
-                    printCode("[", false);
-                    for (int i = 0; i < type.arrayLength; i++) {
-                        printCode(typeTag + " " + symbol.constValues.get(i), false);
-                        if (i < type.arrayLength - 1) {
-                            printCode(", ", false);
-                        }
-                    }
-                    printCode("]", false);
-                }
-                else { // 非数组类型
-                    if (type.basicType == ValueType.BasicType.CHR) { // 加上类型标签
-                        printCode("i8 ", false);
-                    }
-                    else {
-                        printCode("i32 ", false);
-                    }
-                    // 初始值
-                    printCode(String.valueOf(symbol.constValues.get(0)), false);
-                }
-                printCode("\n", false);
+                GlobalVariable global = new GlobalVariable(symbol.symbolName, variableTypeOf(type), type.isConst, initializer);
+                symbol.llvmIRValue = global; // 更新符号表里面的 ir 表示
+                module.addGlobal(global);
+                IRPrinter.print(global, irWriter);
             }
         }
         else { // 生成局部变量的 IR
@@ -146,55 +344,39 @@ public class IRGenerator {
                 Symbol symbol = getSymbol(varConstDef.ident.name);
                 symbol.definedInLLVMIR = true;
                 ValueType symbolType = (ValueType) symbol.symbolType;
-                // 首先在栈上 alloca 一个对应的变量
-                int regNum = allocReg();
-                printCode("%" + regNum + " = alloca ", true);
-                printVariableType(symbolType); // 打印要分配的变量的类型
-                printCode("\n", false);
-                // 把分配的信息记录到符号表里面去
-                symbol.llvmIRSymbol = "%" + regNum;
+                // 首先在栈上 alloca 一个对应的变量，并把分配的信息记录到符号表里面去
+                symbol.llvmIRValue = emit(Instruction.alloca(variableTypeOf(symbolType)));
                 // 然后进行变量初始化的操作
                 if (symbolType.arrayLength == null) { // 普通变量非数组
+                    Value valueToStore;
                     if (symbol.constValues.get(0) != null) { // 如果变量拥有一个编译期就可以确定的值作为初始值，直接 store
-                        printCode("store ", true);
-                        printVariableType(symbolType);
-                        printCode(" " + symbol.constValues.get(0) + ", ", false); // 打印要存的值
+                        valueToStore = Constant.of(basicTypeOf(symbolType), symbol.constValues.get(0));
                     }
                     else {
-                        Value expValue = codeGen(varConstDef.initVal.expArray.get(0)); // 先生成表达式的代码
+                        valueToStore = codeGen(varConstDef.initVal.expArray.get(0)); // 先生成表达式的代码
                         if (symbolType.basicType == ValueType.BasicType.CHR) {
                             // 如果当前变量是 char 类型，则需要把 i32 的表达式转化为 i8
-                            expValue = convertToI8(expValue);
+                            valueToStore = convertToI8(valueToStore);
                         }
-                        printCode("store ", true);
-                        printVariableType(symbolType);
-                        printCode(" " + expValue + ", ", false); // 打印要存的值
                     }
-                    printVariableType(symbolType);
-                    printCode("* " + symbol.llvmIRSymbol, false);
-                    printCode("\n", false);
+                    emit(Instruction.store(valueToStore, symbol.llvmIRValue));
                 }
                 else { // 数组，给每个元素单独赋值
                     for (int i = 0; i < symbolType.arrayLength; i++) {
-                        Value indexValue = getElementPtr(symbol, new Value("" + i, Type.i32()));
+                        Value indexValue = getElementPtr(symbol, Constant.i32(i));
                         // store (i32|i8) {initVal[i]}, (i32|i8)* %{regNumPerElement}
+                        Value value;
                         if (symbol.constValues.get(i) != null) {
-                            printCode("store ", true);
-                            printBasicType(symbolType);
-                            printCode(" " + symbol.constValues.get(i) + ", ", false);
+                            value = Constant.of(basicTypeOf(symbolType), symbol.constValues.get(i));
                         }
                         else {
-                            Value value = codeGen(varConstDef.initVal.expArray.get(i));
+                            value = codeGen(varConstDef.initVal.expArray.get(i));
                             // 可能需要对表达式的值进行 trunc
                             if (symbolType.basicType == ValueType.BasicType.CHR) {
                                 value = convertToI8(value);
                             }
-                            printCode("store ", true);
-                            printBasicType(symbolType);
-                            printCode(" " + value + ", ", false);
                         }
-                        printBasicType(symbolType);
-                        printCode("* " + indexValue + "\n", false);
+                        emit(Instruction.store(value, indexValue));
                     }
                 }
             }
@@ -202,89 +384,80 @@ public class IRGenerator {
     }
 
     private void codeGen(FuncDef funcDef) throws IOException {
-        printCode("define ", true);
+        if (fusedVisitor != null) { // 一遍式编译：先登记函数并进入函数作用域，出现语义错误后函数体只做检查
+            fusedCheck(() -> {
+                if (funcDef.isMain) {
+                    fusedVisitor.enterMainFuncDef(funcDef);
+                }
+                else {
+                    fusedVisitor.enterFuncDef(funcDef);
+                }
+            });
+            if (discarding) {
+                fusedCheck(() -> fusedVisitor.visitBlock(funcDef.block, false));
+                exitFunctionScope(funcDef);
+                return;
+            }
+        }
+        Event event = JfrEvents.beginFunction();
+        int startStatementCount = statementCount;
+        int startInstructionCount = instructionCount;
+        int startBasicBlockCount = basicBlockCount;
+        functionCount++;
+        basicBlockCount++;
+        resetReg();
+        resetBasicBlock();
         if (funcDef.isMain) {
-            printCode("i32 @main() {\n", false);
-            resetBasicBlock();
-            String firstBBTag = allocBasicBlock();
-            printBasicBlock(firstBBTag);
+            currentFunction = module.getFunction("main"); // 并行生成时已经提前登记
+            if (currentFunction == null) {
+                currentFunction = registerFunction(funcDef);
+            }
+            returnBasicBlock = new BasicBlock("bbreturn", currentFunction);
+            enterBasicBlock(allocBasicBlock());
 
-            nextLevelIndent();
-            resetReg();
-            pushScope();
-            int returnValPtr = allocReg(); // 分配返回值
-            printCode("%" + returnValPtr + " = alloca i32\n", true);
-            printCode("store i32 0, i32* %" + returnValPtr + "\n", true);
-            this.returnValue = new Value("%" + returnValPtr, Type.i32ptr());
+            if (fusedVisitor == null) { // 一遍式编译时函数作用域已经建立
+                pushScope();
+            }
+            this.returnValue = emit(Instruction.alloca(Type.i32())); // 分配返回值
+            emit(Instruction.store(Constant.i32(0), this.returnValue));
         }
         else {
             Symbol funcSymbol = getSymbol(funcDef.ident.name);
-            funcSymbol.definedInLLVMIR = true;
-            FunctionType funcType = (FunctionType) funcSymbol.symbolType;
-            if (funcType.returnType == FunctionType.ReturnType.VOID) { // 答应函数类型
-                printCode("void ", false);
+            if (!funcSymbol.definedInLLVMIR) { // 并行生成时已经提前登记，其他函数的任务可能正在读取
+                registerFunction(funcDef);
             }
-            else if (funcType.returnType == FunctionType.ReturnType.INT) {
-                printCode("i32 ", false);
+            currentFunction = (Function) funcSymbol.llvmIRValue;
+            returnBasicBlock = new BasicBlock("bbreturn", currentFunction);
+            FunctionType funcType = (FunctionType) funcSymbol.symbolType;
+            if (fusedVisitor == null) { // 查找参数，符号表需要进入到函数体内的作用域
+                pushScope();
             }
-            else {
-                printCode("i8 ", false);
-            }
-            printCode("@" + funcSymbol.symbolName, false); // 打印函数名字
-            funcSymbol.llvmIRSymbol = "@" + funcSymbol.symbolName;
-            // 打印参数列表
-            resetReg(); // 重制虚拟寄存器编号
-            pushScope(); // 查找参数，符号表需要进入到函数体内的作用域
-            printCode("(", false);
             for (int i = 0;i < funcType.paramNames.size();i++) {
-                // 分配虚拟寄存器
-                int regNum = allocReg();
-                // 更新符号表的 ir 项目
-                getSymbol(funcType.paramNames.get(i)).llvmIRSymbol = "%" + regNum;
-                printParamType(funcType.paramTypes.get(i));
-                printCode(" %" + regNum ,false);
-                if (i < funcType.paramTypes.size() - 1) {
-                    printCode(", ", false);
-                }
+                // 参数占用最前面的虚拟寄存器，更新符号表的 ir 项目
+                getSymbol(funcType.paramNames.get(i)).llvmIRValue = currentFunction.getArgument(i);
+                virtualRegIndex++;
             }
-            printCode(") {\n", false);
-            resetBasicBlock();
-            String firstBBTag = allocBasicBlock();
-            printBasicBlock(firstBBTag);
+            enterBasicBlock(allocBasicBlock());
 
-            nextLevelIndent();
             if (funcType.returnType == FunctionType.ReturnType.INT) {
-                int returnValPtr = allocReg(); // 分配返回值
-                printCode("%" + returnValPtr + " = alloca i32\n", true);
-                printCode("store i32 0, i32* %" + returnValPtr + "\n", true);
-                this.returnValue = new Value("%" + returnValPtr, Type.i32ptr());
+                this.returnValue = emit(Instruction.alloca(Type.i32())); // 分配返回值
+                emit(Instruction.store(Constant.i32(0), this.returnValue));
             }
             else if (funcType.returnType == FunctionType.ReturnType.CHR) {
-                int returnValPtr = allocReg(); // 分配返回值
-                printCode("%" + returnValPtr + " = alloca i8\n", true);
-                printCode("store i8 0, i8* %" + returnValPtr + "\n", true);
-                this.returnValue = new Value("%" + returnValPtr, Type.i8ptr());
+                this.returnValue = emit(Instruction.alloca(Type.i8())); // 分配返回值
+                emit(Instruction.store(Constant.of(Type.i8(), 0), this.returnValue));
             }
             else {
                 this.returnValue = null;
             }
             // 对于非主函数，要把所有的参数先都保存到栈上
             for (int i = 0;i < funcType.paramNames.size();i++) {
-                int regNum = allocReg();
-                printCode("%" + regNum + " = alloca ", true);
-                printParamType(funcType.paramTypes.get(i));
-                printCode("\n", false);
-                // 生成 store 语句 store (||) {}
-                printCode("store " ,true);
-                printParamType(funcType.paramTypes.get(i)); // 打印参数类型
-                printCode(" " + getSymbol(funcType.paramNames.get(i)).llvmIRSymbol + ", ",false); // 打印函数签名中为参数分配的虚拟寄存器编号
-                // 打印 type* {regNum}
-                printParamType(funcType.paramTypes.get(i));
-                printCode("* %" + regNum ,false);
-                printCode("\n", false);
+                Symbol paramSymbol = getSymbol(funcType.paramNames.get(i));
+                Instruction paramAddr = emit(Instruction.alloca(paramTypeOf(funcType.paramTypes.get(i))));
+                emit(Instruction.store(paramSymbol.llvmIRValue, paramAddr));
                 // 最后更新符号表内当前符号的 llvm ir 表示
-                getSymbol(funcType.paramNames.get(i)).llvmIRSymbol = "%" + regNum;
-                getSymbol(funcType.paramNames.get(i)).definedInLLVMIR = true;
+                paramSymbol.llvmIRValue = paramAddr;
+                paramSymbol.definedInLLVMIR = true;
             }
         }
         // 接下来正式生成函数体
@@ -293,26 +466,64 @@ public class IRGenerator {
         if (this.returnValue == null && !this.branchedInCurrentBasicBlock) {
             // 如果当前函数是 void 类型的函数并且还没有进行返回（AST里面省略了）
             // 就添加上一个 ret void
-            printCode("br label %bbreturn\n", true);
+            emit(Instruction.br(returnBasicBlock));
         }
-        printBasicBlock("bbreturn");
+        enterBasicBlock(returnBasicBlock);
         if (this.returnValue == null) { // void 返回类型的函数直接返回
-            printCode("ret void\n", true);
+            emit(Instruction.ret(null));
+        }
+        else {
+            emit(Instruction.ret(emit(Instruction.load(this.returnValue))));
+        }
+        exitFunctionScope(funcDef); // 最后需要回到上一层作用域
+        if (passManager != null && !discarding) { // 出现语义错误后函数体可能不完整，反正也会被丢弃
+            passManager.run(currentFunction);
+        }
+        currentFunction.markGenerated(); // 之后的调用者可以内联它
+        IRPrinter.print(currentFunction, irWriter);
+        currentFunction.releaseBody(); // 打印之后不再需要
+        if (event != null) {
+            JfrEvents.commitFunction(event, funcDef.ident.name, funcDef.lineNum + 1, statementCount - startStatementCount,
+                instructionCount - startInstructionCount, basicBlockCount - startBasicBlockCount, virtualRegIndex);
+        }
+    }
+
+    // 登记函数，此后的函数可以调用它
+    private Function registerFunction(FuncDef funcDef) {
+        Function function;
+        if (funcDef.isMain) {
+            function = new Function("main", Type.i32(), new Type[0]);
         }
         else {
-            int retValRegNum = allocReg();
-            if (this.returnValue.type.basicType == Type.BasicType.i32ptr) {
-                printCode("%" + retValRegNum + " = load i32, i32* " + this.returnValue + "\n", true);
-                printCode("ret i32 %" + retValRegNum + "\n", true);
+            Symbol funcSymbol = getSymbol(funcDef.ident.name);
+            FunctionType funcType = (FunctionType) funcSymbol.symbolType;
+            Type[] paramTypes = new Type[funcType.paramTypes.size()];
+            for (int i = 0; i < paramTypes.length; i++) {
+                paramTypes[i] = paramTypeOf(funcType.paramTypes.get(i));
+            }
+            Type returnType = funcType.returnType == FunctionType.ReturnType.VOID ? Type.vo()
+                    : funcType.returnType == FunctionType.ReturnType.INT ? Type.i32() : Type.i8();
+            function = new Function(funcSymbol.symbolName, returnType, paramTypes);
+            funcSymbol.definedInLLVMIR = true;
+            funcSymbol.llvmIRValue = function;
+        }
+        module.addFunction(function);
+        return function;
+    }
+
+    private void exitFunctionScope(FuncDef funcDef) throws IOException {
+        if (fusedVisitor == null) {
+            popScope();
+            return;
+        }
+        fusedCheck(() -> { // 一遍式编译时由 Visitor 检查返回语句并退出函数作用域
+            if (funcDef.isMain) {
+                fusedVisitor.exitMainFuncDef(funcDef);
             }
             else {
-                printCode("%" + retValRegNum + " = load i8, i8* " + this.returnValue + "\n", true);
-                printCode("ret i8 %" + retValRegNum + "\n", true);
+                fusedVisitor.exitFuncDef(funcDef);
             }
-        }
-        popScope(); // 最后需要回到上一层作用域并且重置缩进
-        prevLevelIndent();
-        printCode("}\n", true);
+        });
     }
 
     private void codeGen(Block block) throws IOException {
@@ -327,39 +538,43 @@ public class IRGenerator {
     }
 
     private void codeGen(Stmt stmt) throws IOException {
+        if (fusedVisitor != null) { // 一遍式编译：先检查语句自身，出现语义错误后其中的子语句也只做检查
+            boolean inForLoop = forLoopDepth > 0;
+            if (discarding) { // 之前已经出现了语义错误，整条语句只做检查
+                fusedCheck(() -> fusedVisitor.visitStmt(stmt, inForLoop));
+                return;
+            }
+            fusedCheck(() -> fusedVisitor.checkStmt(stmt, inForLoop));
+            if (discarding) {
+                fusedCheck(() -> fusedVisitor.visitSubStmts(stmt, inForLoop));
+                return;
+            }
+        }
+        statementCount++;
+        generateStmt(stmt);
+    }
+
+    private void generateStmt(Stmt stmt) throws IOException {
         if (this.branchedInCurrentBasicBlock) { // 如果当前基本块内已经产生了跳转，那么需要新建一个基本块来保存后续的指令
-            printBasicBlock(allocBasicBlock());
+            enterBasicBlock(allocBasicBlock());
         }
         if (stmt.caseNum == 0) { // 'lval' = 'exp'
             Symbol symbol = getSymbol(stmt.lval0.ident.name);
             ValueType symbolType = (ValueType) symbol.symbolType;
+            Value addrValue;
             if (stmt.lval0.exp != null) { // 数组元素赋值
                 Value indexValue = codeGen(stmt.lval0.exp);
-                Value addrValue = getElementPtr(symbol, indexValue); // 获得数组元素的地址
-                Value valueToStore = codeGen(stmt.exp0); // 获取要存储的值
-                if (symbolType.basicType == ValueType.BasicType.CHR) { // 转化为 i8
-                    valueToStore = convertToI8(valueToStore);
-                }
-                // 生成 store 指令
-                printCode("store " + valueToStore.type + " " + valueToStore.value, true);
-                printCode(", " + addrValue.type + " " + addrValue.value + "\n", false);
+                addrValue = getElementPtr(symbol, indexValue); // 获得数组元素的地址
             }
             else { // 普通变量赋值
-                Value addrValue;
-                if (symbolType.basicType == ValueType.BasicType.CHR) {
-                    addrValue = new Value(symbol.llvmIRSymbol, Type.i8ptr());
-                }
-                else {
-                    addrValue = new Value(symbol.llvmIRSymbol, Type.i32ptr());
-                }
-                Value valueToStore = codeGen(stmt.exp0); // 获取要存储的值
-                if (symbolType.basicType == ValueType.BasicType.CHR) { // 转化为 i8
-                    valueToStore = convertToI8(valueToStore);
-                }
-                // 生成 store 指令
-                printCode("store " + valueToStore.type + " " + valueToStore.value, true);
-                printCode(", " + addrValue.type + " " + addrValue.value + "\n", false);
+                addrValue = symbol.llvmIRValue;
+            }
+            Value valueToStore = codeGen(stmt.exp0); // 获取要存储的值
+            if (symbolType.basicType == ValueType.BasicType.CHR) { // 转化为 i8
+                valueToStore = convertToI8(valueToStore);
             }
+            // 生成 store 指令
+            emit(Instruction.store(valueToStore, addrValue));
         }
         else if (stmt.caseNum == 1) { // [exp];
             if (stmt.exp1 != null) {
@@ -372,159 +587,104 @@ public class IRGenerator {
             popScope();
         }
         else if (stmt.caseNum == 3) { //  if 语句
-            // 首先获取当前的基本块，并分配三个基本块
-            String firstCondBBTag = this.currentBasicBlockTag;
-            String condTrueBBTag = allocBasicBlock(); // 条件为真跳转到的基本块
-            String condFalseBBTag = allocBasicBlock(); // 条件为假跳转到的基本块
-            String endBBTag = allocBasicBlock(); // 结束的基本块
-            // TODO 生成条件代码
-            codeGen(stmt.condExp3, condFalseBBTag, condTrueBBTag);
-
-            printBasicBlock(condTrueBBTag); // 打印基本块标签
+            // 分配三个基本块
+            BasicBlock condTrueBB = allocBasicBlock(); // 条件为真跳转到的基本块
+            BasicBlock condFalseBB = allocBasicBlock(); // 条件为假跳转到的基本块
+            BasicBlock endBB = allocBasicBlock(); // 结束的基本块
+            codeGen(stmt.condExp3, condFalseBB, condTrueBB);
+
+            enterBasicBlock(condTrueBB);
             codeGen(stmt.ifStmtIf3); // 生成条件为真执行的语句
             if (!this.branchedInCurrentBasicBlock) {
-                printCode("br label %" + endBBTag + "\n", true); // 执行结束跳转到结束基本块
+                emit(Instruction.br(endBB)); // 执行结束跳转到结束基本块
             }
 
-            printBasicBlock(condFalseBBTag); // 打印基本块标签
+            enterBasicBlock(condFalseBB);
             if (stmt.ifStmtElse3 != null) { // 如果有 else 语句，就继续生成
                 codeGen(stmt.ifStmtElse3);
             }
             if (!this.branchedInCurrentBasicBlock) {
-                printCode("br label %" + endBBTag + "\n", true); // 执行结束跳转到结束基本块
+                emit(Instruction.br(endBB)); // 执行结束跳转到结束基本块
             }
 
-            printBasicBlock(endBBTag); // 打印出口基本块标签
+            enterBasicBlock(endBB); // 进入出口基本块
         }
         else if (stmt.caseNum == 4) { // for 语句
-            // 首先获取当前的基本块，并分配四个基本块
-            String crtBBTag = this.currentBasicBlockTag; // 当前所在的基本块，其包含有 for 语句的初始 stmt
-            String condExpBBTag = allocBasicBlock(); // 条件判断所在的基本块
-            String stmtBBTag = allocBasicBlock(); // 循环体所在的开始基本块
-            String updateBBTag = allocBasicBlock(); // 循环更新语句所在的基本块
-            String endBBTag = allocBasicBlock(); // 循环结束后的第一个基本块
-            this.forLoopEndBBTag = endBBTag;
-            this.forLoopUpdateBBTag = updateBBTag;
+            // 当前所在的基本块包含有 for 语句的初始 stmt，再分配四个基本块
+            BasicBlock condExpBB = allocBasicBlock(); // 条件判断所在的基本块
+            BasicBlock stmtBB = allocBasicBlock(); // 循环体所在的开始基本块
+            BasicBlock updateBB = allocBasicBlock(); // 循环更新语句所在的基本块
+            BasicBlock endBB = allocBasicBlock(); // 循环结束后的第一个基本块
+            this.forLoopEndBB = endBB;
+            this.forLoopUpdateBB = updateBB;
 
             if (stmt.forStmtA4 != null) { // 如果存在初始化语句，那么对其进行代码生成
-                codeGen(stmt.forStmtA4);
+                generateStmt(stmt.forStmtA4);
             }
-            printCode("br label %" + condExpBBTag + "\n", true);
+            emit(Instruction.br(condExpBB));
 
-            printBasicBlock(condExpBBTag); // 进入新的条件判断基本块
+            enterBasicBlock(condExpBB); // 进入新的条件判断基本块
             if (stmt.condExp4 != null) {
-                codeGen(stmt.condExp4, endBBTag, stmtBBTag); // 条件满足就到循环体，不满足则直接跳转到最后
+                codeGen(stmt.condExp4, endBB, stmtBB); // 条件满足就到循环体，不满足则直接跳转到最后
             } else {
-                printCode("br label %" + stmtBBTag + "\n", true); // 如果没有条件，则直接跳转到循环体
+                emit(Instruction.br(stmtBB)); // 如果没有条件，则直接跳转到循环体
             }
 
-            printBasicBlock(stmtBBTag);
+            enterBasicBlock(stmtBB);
+            forLoopDepth++;
             codeGen(stmt.stmt4); // 生成循环体的代码
+            forLoopDepth--;
             if (!this.branchedInCurrentBasicBlock) { // 如果当前所在的基本块内部没有产生跳转操作, 则最后一步跳转到更新语句
-                printCode("br label %" + updateBBTag + "\n", true);
+                emit(Instruction.br(updateBB));
             }
 
-            printBasicBlock(updateBBTag);
+            enterBasicBlock(updateBB);
             if (stmt.forStmtB4 != null) {
-                codeGen(stmt.forStmtB4);
+                generateStmt(stmt.forStmtB4);
             }
-            printCode("br label %" + condExpBBTag + "\n", true); // 更新完成后跳转回到条件判断
+            emit(Instruction.br(condExpBB)); // 更新完成后跳转回到条件判断
 
-            // 最后打印出口基本块标签
-            printBasicBlock(endBBTag);
+            // 最后进入出口基本块
+            enterBasicBlock(endBB);
 
         }
         else if (stmt.caseNum == 5) { // break 语句
-            printCode("br label %" + this.forLoopEndBBTag + "\n", true);
+            emit(Instruction.br(this.forLoopEndBB));
             this.branchedInCurrentBasicBlock = true;
         }
         else if (stmt.caseNum == 6) { // continue 语句
-            printCode("br label %" + this.forLoopUpdateBBTag + "\n", true);
+            emit(Instruction.br(this.forLoopUpdateBB));
             this.branchedInCurrentBasicBlock = true;
         }
         else if (stmt.caseNum == 7) { // stmt -> return [exp];
-            if (stmt.returnExp7 == null) {
-                printCode("br label %bbreturn\n", true);
-            }
-            else {
+            if (stmt.returnExp7 != null) {
                 Value returnValue = codeGen(stmt.returnExp7);
-                if (SymbolTable.getCurrentSymbolTable().getCurrentReturnType() == FunctionType.ReturnType.CHR) {
+                if (currentSymbolTable().getCurrentReturnType() == FunctionType.ReturnType.CHR) {
                     returnValue = convertToI8(returnValue);
                 }
-                printCode("store " + returnValue.type + " " + returnValue.value + ", " + this.returnValue.type + " " + this.returnValue.value + "\n", true);
-                printCode("br label %bbreturn\n", true);
+                emit(Instruction.store(returnValue, this.returnValue));
             }
+            emit(Instruction.br(returnBasicBlock));
             this.branchedInCurrentBasicBlock = true;
         }
-        else if (stmt.caseNum == 8) { // getint()
-            Symbol symbol = getSymbol(stmt.lval8.ident.name);
+        else if (stmt.caseNum == 8 || stmt.caseNum == 9) { // getint() 和 getchar()
+            Lval lval = stmt.caseNum == 8 ? stmt.lval8 : stmt.lval9;
+            Symbol symbol = getSymbol(lval.ident.name);
             ValueType symbolType = (ValueType) symbol.symbolType;
-            if (stmt.lval8.exp != null) { // 数组元素赋值
-                Value indexValue = codeGen(stmt.lval8.exp);
-                Value addrValue = getElementPtr(symbol, indexValue); // 获得数组元素的地址
-                int regNum = allocReg();
-                printCode("%" + regNum + " = call i32 @getint()\n", true);
-                Value valueToStore = new Value("%" + regNum, Type.i32());
-                if (symbolType.basicType == ValueType.BasicType.CHR) { // 转化为 i8
-                    valueToStore = convertToI8(valueToStore);
-                }
-                // 生成 store 指令
-                printCode("store " + valueToStore.type + " " + valueToStore.value, true);
-                printCode(", " + addrValue.type + " " + addrValue.value + "\n", false);
+            Value addrValue;
+            if (lval.exp != null) { // 数组元素赋值
+                Value indexValue = codeGen(lval.exp);
+                addrValue = getElementPtr(symbol, indexValue); // 获得数组元素的地址
             }
             else { // 普通变量赋值
-                Value addrValue;
-                if (symbolType.basicType == ValueType.BasicType.CHR) {
-                    addrValue = new Value(symbol.llvmIRSymbol, Type.i8ptr());
-                }
-                else {
-                    addrValue = new Value(symbol.llvmIRSymbol, Type.i32ptr());
-                }
-                int regNum = allocReg(); // 分配一个寄存器来存储要保存的值
-                printCode("%" + regNum + " = call i32 @getint()\n", true);
-                Value valueToStore = new Value("%" + regNum, Type.i32());
-                if (symbolType.basicType == ValueType.BasicType.CHR) { // 转化为 i8
-                    valueToStore = convertToI8(valueToStore);
-                }
-                // 生成 store 指令
-                printCode("store " + valueToStore.type + " " + valueToStore.value, true);
-                printCode(", " + addrValue.type + " " + addrValue.value + "\n", false);
-            }
-        }
-        else if (stmt.caseNum == 9) { // getchar()
-            Symbol symbol = getSymbol(stmt.lval9.ident.name);
-            ValueType symbolType = (ValueType) symbol.symbolType;
-            if (stmt.lval9.exp != null) { // 数组元素赋值
-                Value indexValue = codeGen(stmt.lval9.exp);
-                Value addrValue = getElementPtr(symbol, indexValue); // 获得数组元素的地址
-                int regNum = allocReg();
-                printCode("%" + regNum + " = call i32 @getchar()\n", true);
-                Value valueToStore = new Value("%" + regNum, Type.i32());
-                if (symbolType.basicType == ValueType.BasicType.CHR) { // 转化为 i8
-                    valueToStore = convertToI8(valueToStore);
-                }
-                // 生成 store 指令
-                printCode("store " + valueToStore.type + " " + valueToStore.value, true);
-                printCode(", " + addrValue.type + " " + addrValue.value + "\n", false);
+                addrValue = symbol.llvmIRValue;
             }
-            else { // 普通变量赋值
-                Value addrValue;
-                if (symbolType.basicType == ValueType.BasicType.CHR) {
-                    addrValue = new Value(symbol.llvmIRSymbol, Type.i8ptr());
-                }
-                else {
-                    addrValue = new Value(symbol.llvmIRSymbol, Type.i32ptr());
-                }
-                int regNum = allocReg(); // 分配一个寄存器来存储要保存的值
-                printCode("%" + regNum + " = call i32 @getchar()\n", true);
-                Value valueToStore = new Value("%" + regNum, Type.i32());
-                if (symbolType.basicType == ValueType.BasicType.CHR) { // 转化为 i8
-                    valueToStore = convertToI8(valueToStore);
-                }
-                // 生成 store 指令
-                printCode("store " + valueToStore.type + " " + valueToStore.value, true);
-                printCode(", " + addrValue.type + " " + addrValue.value + "\n", false);
+            Value valueToStore = emit(Instruction.call(module.getFunction(stmt.caseNum == 8 ? "getint" : "getchar")));
+            if (symbolType.basicType == ValueType.BasicType.CHR) { // 转化为 i8
+                valueToStore = convertToI8(valueToStore);
             }
+            // 生成 store 指令
+            emit(Instruction.store(valueToStore, addrValue));
         }
         else if (stmt.caseNum == 10) { // printf()
             String formatString = stmt.stringConst10.getToken();
@@ -543,16 +703,12 @@ public class IRGenerator {
                         expIndex++;i++;continue;
                     }
                     else if (formatString.charAt(i) == '\\' && formatString.charAt(i + 1) == 'n') { // 输出换行
-                        outputAChar(new Value("10", Type.i32()));
+                        outputAChar(Constant.i32(10));
                         i++;continue;
                     }
                 }
                 // 原样输出
-                Value valueToOutput = new Value(
-                        String.valueOf((int) formatString.charAt(i)),
-                        Type.i32()
-                );
-                outputAChar(valueToOutput);
+                outputAChar(Constant.i32(formatString.charAt(i)));
             }
         }
         else {
@@ -561,22 +717,21 @@ public class IRGenerator {
         }
     }
 
-    private void codeGen(BiOperandExp exp, String nextCondTag, String destTag) throws IOException {
+    private void codeGen(BiOperandExp exp, BasicBlock nextCondBB, BasicBlock destBB) throws IOException {
         // 这个函数专门用于生成条件语句中短路求值的代码，exp 是目前需要解析的条件表达式，
-        // nextCondTag 是当前的条件不满足时，需要跳转到的下一个基本块标签
-        // destTag 是条件满足时需要跳转到的下一个标签
+        // nextCondBB 是当前的条件不满足时，需要跳转到的下一个基本块
+        // destBB 是条件满足时需要跳转到的下一个基本块
 
         if (exp.operator == null) { // 表达式的操作符是空的
             if (exp.leftElement instanceof BiOperandExp) { // 如果左节点是一个二元表达式，则继续进行代码生成
                 BiOperandExp subExp = (BiOperandExp) exp.leftElement;
-                codeGen(subExp, nextCondTag, destTag);
+                codeGen(subExp, nextCondBB, destBB);
             }
             else if (exp.leftElement instanceof UnaryExp) { // 如果左节点是一个一元表达式，则可以根据该表达式的值和 0 的关系来进行跳转
                 UnaryExp subExp = (UnaryExp) exp.leftElement;
                 Value expValue = codeGen(subExp);
-                int regNum = allocReg();
-                printCode("%" + regNum + " = icmp ne i32 " + expValue + ", 0\n", true);
-                printCode("br i1 %" + regNum + ", " + "label %" + destTag + ", label %" + nextCondTag + "\n", true);
+                Value condValue = emit(Instruction.icmp(Predicate.NE, expValue, Constant.i32(0)));
+                emit(Instruction.condBr(condValue, destBB, nextCondBB));
             }
             else {
                 throw new IOException("在进行条件表达式生成时遇到了不支持的 leftElement!");
@@ -587,25 +742,24 @@ public class IRGenerator {
             if (exp.operator.getType() == Token.TokenType.AND) {
                 // 操作符是 && 符号，需要进行短路求值
                 // 左侧是 LandExp 右侧是 EqExp
-                String bbTag = allocBasicBlock(); // 为当前的条件分配一个基本块，则左子树失败时会跳转到当前基本块进行判断
-                codeGen((BiOperandExp) exp.leftElement, nextCondTag, bbTag); // 左侧条件满足，则不发生跳转，如果不满足则立即跳转
-                printBasicBlock(bbTag);
-                codeGen((BiOperandExp) exp.rightElement, nextCondTag, destTag);
+                BasicBlock bb = allocBasicBlock(); // 为当前的条件分配一个基本块，则左子树失败时会跳转到当前基本块进行判断
+                codeGen((BiOperandExp) exp.leftElement, nextCondBB, bb); // 左侧条件满足，则不发生跳转，如果不满足则立即跳转
+                enterBasicBlock(bb);
+                codeGen((BiOperandExp) exp.rightElement, nextCondBB, destBB);
             }
             else if (exp.operator.getType() == Token.TokenType.OR) {
                 // 操作符是 || 符号，需要进行短路求值
                 // 左侧是 LorExp 右侧是 LandExp
-                String bbTag =  allocBasicBlock(); // 为当前的右侧条件分配一个基本块，则左子树失败时会跳转到当前基本块进行判断
-                codeGen((BiOperandExp) exp.leftElement, bbTag, destTag); // 左侧的 or 表达式如果有任何一个条件为 true，则整体为 true，跳转到 destTag, 如果所有条件都false，则回到当前所在的 tag
-                printBasicBlock(bbTag);
-                codeGen((BiOperandExp) exp.rightElement, nextCondTag, destTag); // 右侧的 and 表达式如果有任何一个条件为 false, 则and表达式整体为 false, 进而整个 or 表达式也是 false，直接跳到 destTag, 否则跳转到 nextCondTag 进行检查
+                BasicBlock bb = allocBasicBlock(); // 为当前的右侧条件分配一个基本块，则左子树失败时会跳转到当前基本块进行判断
+                codeGen((BiOperandExp) exp.leftElement, bb, destBB); // 左侧的 or 表达式如果有任何一个条件为 true，则整体为 true，跳转到 destBB, 如果所有条件都false，则回到当前所在的基本块
+                enterBasicBlock(bb);
+                codeGen((BiOperandExp) exp.rightElement, nextCondBB, destBB); // 右侧的 and 表达式如果有任何一个条件为 false, 则and表达式整体为 false, 进而整个 or 表达式也是 false，直接跳到 destBB, 否则跳转到 nextCondBB 进行检查
             }
             else {
                 // 操作符是其他符号，不需要进行短路求值，调用 codeGen(exp) 得到其值然后与 0 进行比较，生成对应的代码即可，可以仿照上面的 unaryExp 那一块
                 Value expValue = codeGen(exp);
-                int regNum = allocReg();
-                printCode("%" + regNum + " = icmp ne i32 " + expValue + ", 0\n", true);
-                printCode("br i1 %" + regNum + ", " + "label %" + destTag + ", label %" + nextCondTag + "\n", true);
+                Value condValue = emit(Instruction.icmp(Predicate.NE, expValue, Constant.i32(0)));
+                emit(Instruction.condBr(condValue, destBB, nextCondBB));
             }
         }
     }
@@ -638,44 +792,28 @@ public class IRGenerator {
             else {
                 rightValue = codeGen((BiOperandExp) exp.rightElement);
             }
-            int regNum = allocReg();
             switch (exp.operator.getType()) {
-                case PLUS -> printCode("%" + regNum + " = add i32 " + leftValue + ", " + rightValue + "\n", true);
-                case MINU -> printCode("%" + regNum + " = sub i32 " + leftValue + ", " + rightValue + "\n", true);
-                case MULT -> printCode("%" + regNum + " = mul i32 " + leftValue + ", " + rightValue + "\n", true);
-                case DIV -> printCode("%" + regNum + " = sdiv i32 " + leftValue + ", " + rightValue + "\n", true);
-                case MOD -> printCode("%" + regNum + " = srem i32 " + leftValue + ", " + rightValue + "\n", true);
-                case AND -> {} // 不应该在这里出现，应该在条件语句那里出现
-                case OR -> {} // 不应该在这里出现，应该在条件语句那里出现
-                case EQL -> {
-                    printCode("%" + regNum + " = icmp eq i32 " + leftValue + ", " + rightValue + "\n", true); // 首先进行比较操作
-                    return convertFromI1ToI32(new Value("%" + regNum, Type.i1())); // 然后再把 i1 转化为 i32 返回
-                }
-                case NEQ -> {
-                    printCode("%" + regNum + " = icmp ne i32 " + leftValue + ", " + rightValue + "\n", true); // 首先进行比较操作
-                    return convertFromI1ToI32(new Value("%" + regNum, Type.i1())); // 然后再把 i1 转化为 i32 返回
-                }
-                case LSS -> {
-                    printCode("%" + regNum + " = icmp slt i32 " + leftValue + ", " + rightValue + "\n", true); // 首先进行比较操作
-                    return convertFromI1ToI32(new Value("%" + regNum, Type.i1())); // 然后再把 i1 转化为 i32 返回
-                }
-                case LEQ -> {
-                    printCode("%" + regNum + " = icmp sle i32 " + leftValue + ", " + rightValue + "\n", true); // 首先进行比较操作
-                    return convertFromI1ToI32(new Value("%" + regNum, Type.i1())); // 然后再把 i1 转化为 i32 返回
-                }
-                case GRE -> {
-                    printCode("%" + regNum + " = icmp sgt i32 " + leftValue + ", " + rightValue + "\n", true); // 首先进行比较操作
-                    return convertFromI1ToI32(new Value("%" + regNum, Type.i1())); // 然后再把 i1 转化为 i32 返回
-                }
-                case GEQ -> {
-                    printCode("%" + regNum + " = icmp sge i32 " + leftValue + ", " + rightValue + "\n", true); // 首先进行比较操作
-                    return convertFromI1ToI32(new Value("%" + regNum, Type.i1())); // 然后再把 i1 转化为 i32 返回
-                }
+                case PLUS -> { return emit(Instruction.binary(Opcode.ADD, leftValue, rightValue)); }
+                case MINU -> { return emit(Instruction.binary(Opcode.SUB, leftValue, rightValue)); }
+                case MULT -> { return emit(Instruction.binary(Opcode.MUL, leftValue, rightValue)); }
+                case DIV -> { return emit(Instruction.binary(Opcode.SDIV, leftValue, rightValue)); }
+                case MOD -> { return emit(Instruction.binary(Opcode.SREM, leftValue, rightValue)); }
+                // 比较操作得到 i1，然后再把 i1 转化为 i32 返回
+                case EQL -> { return compare(Predicate.EQ, leftValue, rightValue); }
+                case NEQ -> { return compare(Predicate.NE, leftValue, rightValue); }
+                case LSS -> { return compare(Predicate.SLT, leftValue, rightValue); }
+                case LEQ -> { return compare(Predicate.SLE, leftValue, rightValue); }
+                case GRE -> { return compare(Predicate.SGT, leftValue, rightValue); }
+                case GEQ -> { return compare(Predicate.SGE, leftValue, rightValue); }
+                default -> throw new IOException("不支持的二元运算符: " + exp.operator.getToken()); // && 和 || 只会出现在条件语句中
             }
-            return new Value("%" + regNum, Type.i32());
         }
     }
 
+    private Value compare(Predicate predicate, Value leftValue, Value rightValue) throws IOException {
+        return convertFromI1ToI32(emit(Instruction.icmp(predicate, leftValue, rightValue)));
+    }
+
     private Value codeGen(UnaryExp exp) throws IOException {
         // 生成一元表达式的代码
         if (exp.primaryExp != null) { // 基本表达式
@@ -690,20 +828,16 @@ public class IRGenerator {
                 return value;
             }
             else if (exp.unaryOp.getType() == Token.TokenType.MINU) {
-                int regNum = allocReg();
-                printCode("%" + regNum + " = sub i32 0, " + value + "\n", true);
-                return new Value("%" + regNum, Type.i32());
+                return emit(Instruction.binary(Opcode.SUB, Constant.i32(0), value));
             }
             else if (exp.unaryOp.getType() == Token.TokenType.NOT) {
                 // %x = icmp ne i32 {value}, 0
                 // %y = xor i1 %x, i1 1
                 // %z = zext i1 %y to i32
                 // %z 即为所得
-                int regNum = allocReg();
-                printCode("%" + regNum + " = icmp ne i32 " + value + ", 0\n", true);
-                int regNum2 = allocReg();
-                printCode("%" + regNum2 + " = xor i1 %" + regNum + ", 1\n", true);
-                return convertFromI1ToI32(new Value("%" + regNum2, Type.i1())); // 最后转化到 i32
+                Value notZero = emit(Instruction.icmp(Predicate.NE, value, Constant.i32(0)));
+                Value isZero = emit(Instruction.binary(Opcode.XOR, notZero, Constant.i1(true)));
+                return convertFromI1ToI32(isZero); // 最后转化到 i32
             }
             else {
                 throw new IOException("不支持的 UnaryExp 类型!");
@@ -724,10 +858,10 @@ public class IRGenerator {
         }
         else if (exp.character != null) {
             // ASCII 范围 32-126，不会出现需要符号扩展的情况
-            return new Value("" + Utilities.getASCII(exp.character.getToken()), Type.i32());
+            return Constant.i32(Utilities.getASCII(exp.character.getToken()));
         }
         else if (exp.number != null) {
-            return new Value(exp.number.getToken(), Type.i32());
+            return Constant.i32(Integer.parseInt(exp.number.getToken())); // 语义检查时已经确认在 int 范围内
         }
         else {
             throw new IOException("不支持的 PrimaryExp!");
@@ -736,237 +870,137 @@ public class IRGenerator {
 
     private Value codeGen(Lval lval) throws IOException {
         // 有可能是数组 arr[i] 或者普通变量 var 或者数组变量本身 arr (在函数调用中出现)
-        Symbol symbol = SymbolTable.getCurrentSymbolTable().searchSymbolInCodeGen(lval.ident.name); // 首先检索符号表，找到对应的符号
+        Symbol symbol = currentSymbolTable().searchSymbolInCodeGen(lval.ident.name); // 首先检索符号表，找到对应的符号
         ValueType symbolType = (ValueType) symbol.symbolType;
+        Value addrValue;
         if (lval.exp == null) {
-            if (symbolType.arrayLength == null) {
-                // 普通变量 %{regNum} = load (i32|i8), (i32|i8)* {llvmirsymbol}
-                int regNum = allocReg();
-                printCode("%" + regNum + " = load ", true);
-                printBasicType(symbolType);
-                printCode(", ", false);
-                printBasicType(symbolType);
-                printCode("* ", false);
-                printCode(symbol.llvmIRSymbol + "\n", false);
-                if (symbolType.basicType == ValueType.BasicType.INT) {
-                    return new Value("%" + regNum, Type.i32());
-                }
-                else {
-                    return convertFromI8ToI32(new Value("%" + regNum, Type.i8()));
-                }
-            }
-            else { // 数组变量
+            if (symbolType.arrayLength != null) { // 数组变量
                 // 需要先获取数组的第一个元素的地址
-                Value firstElemPtr = getElementPtr(symbol, new Value("0", Type.i32()));
-                return firstElemPtr;
+                return getElementPtr(symbol, Constant.i32(0));
             }
+            // 普通变量 %{regNum} = load (i32|i8), (i32|i8)* {llvmirsymbol}
+            addrValue = symbol.llvmIRValue;
         }
         else {
             // 数组 getelementptr inbounds [n x (i32|i8)], [n x (i32|i8)]* {之前分配的虚拟寄存器}, (i32|i8) 0, (i32|i8) {index}
             Value indexValue = codeGen(lval.exp); // 数组的索引值
-            Value addrValue = getElementPtr(symbol, indexValue);
-            int regNum = allocReg();
-            printCode("%" + regNum + " = load ", true);
-            printBasicType(symbolType);
-            printCode(", ", false);
-            printBasicType(symbolType);
-            printCode("* " + addrValue + "\n", false);
-            if (symbolType.basicType == ValueType.BasicType.INT) {
-                return new Value("%" + regNum, Type.i32());
-            }
-            else {
-                return convertFromI8ToI32(new Value("%" + regNum, Type.i8()));
-            }
+            addrValue = getElementPtr(symbol, indexValue);
+        }
+        Value value = emit(Instruction.load(addrValue));
+        if (symbolType.basicType == ValueType.BasicType.INT) {
+            return value;
+        }
+        else {
+            return convertFromI8ToI32(value);
         }
     }
 
     private Value codeGen(Ident ident, FuncRParams funcRParams) throws IOException {
         Symbol symbol = getSymbol(ident.name); // 取得函数符号
         FunctionType functionType = (FunctionType) symbol.symbolType;
-        ArrayList<Value> realParamValues = new ArrayList<>(); // 函数实参的各个值
-        if (funcRParams != null) {
-            for (int i = 0;i < funcRParams.exps.size();i++) { // 分别解析每一个实参，并生成对应的代码
-                realParamValues.add(codeGen(funcRParams.exps.get(i))); // 根据约定，表达式的返回一定是 i32 类型
-                if (functionType.paramTypes.get(i).arrayLength == null // 如果对应的参数不是数组并且需要一个 char, 则进行 i32 到 i8 的转换
-                    && functionType.paramTypes.get(i).basicType == ValueType.BasicType.CHR) {
-                    realParamValues.set(i, convertToI8(realParamValues.get(i)));
-                }
+        int paramNum = funcRParams == null ? 0 : funcRParams.exps.size();
+        Value[] realParamValues = new Value[paramNum]; // 函数实参的各个值
+        for (int i = 0;i < paramNum;i++) { // 分别解析每一个实参，并生成对应的代码
+            realParamValues[i] = codeGen(funcRParams.exps.get(i)); // 根据约定，表达式的返回一定是 i32 类型
+            if (functionType.paramTypes.get(i).arrayLength == null // 如果对应的参数不是数组并且需要一个 char, 则进行 i32 到 i8 的转换
+                && functionType.paramTypes.get(i).basicType == ValueType.BasicType.CHR) {
+                realParamValues[i] = convertToI8(realParamValues[i]);
             }
         }
         // %result = call <return_type> @function_name(<arg_type> <arg_val>, ...)
-        if (functionType.returnType == FunctionType.ReturnType.VOID) {
-            printCode("call void @" + ident.name + "(", true);
-            // 打印出所有的参数，类型 + 值
-            // 函数的实参类型只有可能有这几种情况: i32, i8, i32*, i8*
-            for (int i = 0; i < realParamValues.size();i++) {
-                printCode(realParamValues.get(i).type + " " + realParamValues.get(i).value, false);
-                if (i < realParamValues.size() - 1) {
-                    printCode(", ", false);
-                }
-            }
-            printCode(")\n", false);
-            return new Value("", Type.vo());
-        }
-        else {
-            int resultRegNum = allocReg();
-            printCode("%" + resultRegNum + " = call " +
-                    (functionType.returnType == FunctionType.ReturnType.INT ? "i32" : "i8")
-                    + " @" + ident.name + "(", true);
-            // 打印出所有的参数，类型 + 值
-            for (int i = 0; i < realParamValues.size();i++) {
-                printCode(realParamValues.get(i).type + " " + realParamValues.get(i).value, false);
-                if (i < realParamValues.size() - 1) {
-                    printCode(", ", false);
-                }
-            }
-            printCode(")\n", false);
-            if (functionType.returnType == FunctionType.ReturnType.INT) {
-                return new Value("%" + resultRegNum, Type.i32());
-            }
-            else {
-                return convertFromI8ToI32(new Value("%" + resultRegNum, Type.i8() ));
-            }
+        // 函数的实参类型只有可能有这几种情况: i32, i8, i32*, i8*
+        Value result = emit(Instruction.call((Function) symbol.llvmIRValue, realParamValues));
+        if (functionType.returnType == FunctionType.ReturnType.CHR) {
+            return convertFromI8ToI32(result);
         }
+        return result; // void 函数的调用不会被当作值使用
     }
 
-    private void printParamType(ValueType paramValueType) throws IOException { // 打印参数类型
-        if (paramValueType.arrayLength != null) { // 打印类型参数
-            if (paramValueType.basicType == ValueType.BasicType.INT) {
-                printCode("i32*", false);
-            }
-            else {
-                printCode("i8*", false);
-            }
-        }
-        else {
-            if (paramValueType.basicType == ValueType.BasicType.INT) {
-                printCode("i32", false);
-            }
-            else {
-                printCode("i8", false);
-            }
-        }
+    private Type basicTypeOf(ValueType symbolType) { // 符号基本类型对应的 llvm 类型 (i32|i8)
+        return symbolType.basicType == ValueType.BasicType.INT ? Type.i32() : Type.i8();
     }
 
-    private void printVariableType(ValueType variableType) throws IOException {
-        if (variableType.arrayLength != null) { // 数组类型
-            if (variableType.basicType == ValueType.BasicType.INT) {
-                printCode("[" + variableType.arrayLength + " x i32]", false);
-            }
-            if (variableType.basicType == ValueType.BasicType.CHR) {
-                printCode("[" + variableType.arrayLength + " x i8]", false);
-            }
-        }
-        else {
-            if (variableType.basicType == ValueType.BasicType.INT) {
-                printCode("i32", false);
-            }
-            if (variableType.basicType == ValueType.BasicType.CHR) {
-                printCode("i8", false);
-            }
+    private Type variableTypeOf(ValueType variableType) { // 变量对应的 llvm 类型，数组为 [n x (i32|i8)]
+        if (variableType.arrayLength != null) {
+            return variableType.basicType == ValueType.BasicType.INT
+                    ? Type.i32arr(variableType.arrayLength) : Type.i8arr(variableType.arrayLength);
         }
+        return basicTypeOf(variableType);
     }
 
-    private void printBasicType(ValueType symbolType) throws IOException {
-        if (symbolType.basicType == ValueType.BasicType.INT) {
-            printCode("i32", false);
-        }
-        else {
-            printCode("i8", false);
+    private Type paramTypeOf(ValueType paramValueType) { // 参数对应的 llvm 类型，数组参数退化为 (i32|i8)*
+        if (paramValueType.arrayLength != null) {
+            return paramValueType.basicType == ValueType.BasicType.INT ? Type.i32ptr() : Type.i8ptr();
         }
+        return basicTypeOf(paramValueType);
     }
 
     private Value convertFromI8ToI32(Value i8Value) throws IOException {
-        if (i8Value.type.basicType != Type.BasicType.i8) {
+        if (i8Value.type != Type.i8()) {
             throw new IOException("i8 转换为 i32 出错!");
         }
-        int regNum = allocReg();
-        printCode("%" + regNum + " = sext i8 " + i8Value + " to i32\n", true);
-        return new Value("%" + regNum, Type.i32());
+        return emit(Instruction.cast(Opcode.SEXT, i8Value, Type.i32()));
     }
 
     private Value convertFromI1ToI32(Value i1Value) throws IOException {
-        if (i1Value.type.basicType != Type.BasicType.i1) {
+        if (i1Value.type != Type.i1()) {
             throw new IOException("i1 转换为 i32 出错!");
         }
-        int regNum = allocReg();
-        printCode("%" + regNum + " = zext i1 " + i1Value + " to i32\n", true);
-        return new Value("%" + regNum, Type.i32());
+        return emit(Instruction.cast(Opcode.ZEXT, i1Value, Type.i32()));
     }
 
     private Value convertToI8(Value i32Value) throws IOException {
-        if (i32Value.type.basicType != Type.BasicType.i32) {
+        if (i32Value.type != Type.i32()) {
             throw new IOException("i32 转换为 i8 出错!");
         }
-        int regNum = allocReg();
-        printCode("%" + regNum + " = trunc i32 " + i32Value + " to i8\n", true);
-        return new Value("%" + regNum, Type.i8());
+        return emit(Instruction.cast(Opcode.TRUNC, i32Value, Type.i8()));
     }
 
     private Value getElementPtr(Symbol symbol, Value indexValue) throws IOException {
         // 需要确保 symbol 是一个数组类型，并且其索引有效
         ValueType symbolType = (ValueType) symbol.symbolType;
-        int addrRegNum;
         // 如果符号表中存储的类型是 (i32|i8)**
         if (symbolType.arrayLength == 0) {
-            // 先 load 从 (i32|i8)** 得到 (i32|i8)*
-            int firstElemAddrRegNum = allocReg();
-            printCode("%" + firstElemAddrRegNum + " = load ", true);
-            printBasicType(symbolType); // i32* 或 i8*
-            printCode("*, ", false);
-            printBasicType(symbolType); // i32** 或 i8**
-            printCode("** " + symbol.llvmIRSymbol + "\n", false);
-            // 然后再根据 (i32|i8)* 得到对应元素的地址
-            addrRegNum = allocReg();
-            printCode("%" + addrRegNum + " = getelementptr inbounds ", true);
-            printBasicType(symbolType);
-            printCode(", ", false);
-            printBasicType(symbolType);
-            printCode("*", false);
-            printCode(" %" + firstElemAddrRegNum + ", ", false);
-            printCode("i32 " + indexValue + "\n", false);
+            // 先 load 从 (i32|i8)** 得到 (i32|i8)*，然后再根据 (i32|i8)* 得到对应元素的地址
+            Value firstElemAddr = emit(Instruction.load(symbol.llvmIRValue));
+            return emit(Instruction.getElementPtr(firstElemAddr, indexValue));
         }
         else { // 如果符号表中存储的类型是 [n x (i32|i8)]*
-            addrRegNum = allocReg();
-            printCode("%" + addrRegNum + " = getelementptr inbounds ", true);
-            printVariableType(symbolType);
-            printCode(", ", false);
-            printVariableType(symbolType);
-            printCode("*", false);
-            printCode(" " + symbol.llvmIRSymbol + ", ", false);
-            printCode("i32 0, i32 " + indexValue + "\n", false);
+            return emit(Instruction.getElementPtr(symbol.llvmIRValue, Constant.i32(0), indexValue));
         }
-        return new Value(
-                "%" + addrRegNum,
-                symbolType.basicType == ValueType.BasicType.INT ? Type.i32ptr() : Type.i8ptr()
-        );
     }
 
     private void outputAChar(Value outputValue) throws IOException {
-        if (outputValue.type.basicType != Type.BasicType.i32) {
+        if (outputValue.type != Type.i32()) {
             throw new IOException("输出字符时类型错误!");
         }
-        printCode("call void @putch(" + outputValue.type + " " + outputValue.value + ")\n", true);
+        emit(Instruction.call(module.getFunction("putch"), outputValue));
     }
 
     private void outputANumber(Value outputValue) throws IOException {
-        if (outputValue.type.basicType != Type.BasicType.i32) {
+        if (outputValue.type != Type.i32()) {
             throw new IOException("输出数字时类型错误!");
         }
-        printCode("call void @putint(" + outputValue.type + " " + outputValue.value + ")\n", true);
+        emit(Instruction.call(module.getFunction("putint"), outputValue));
     }
 
-    private void printBasicBlock(String basicBlockTag) throws IOException {
-        printCode(basicBlockTag + ":\n", false);
-        this.currentBasicBlockTag = basicBlockTag;
+    private void enterBasicBlock(BasicBlock basicBlock) { // 把基本块放到函数末尾，之后的指令都添加到这里
+        currentFunction.addBlock(basicBlock);
+        this.basicBlockCount++;
+        this.currentBasicBlock = basicBlock;
         this.branchedInCurrentBasicBlock = false;
     }
 
-    private void printCode(String code, boolean indent) throws IOException {
-        if (indent) {
-            writeIndent();
-        }
-        irWriter.write(code);
+    public int getFunctionCount() {
+        return functionCount;
+    }
+
+    public int getBasicBlockCount() {
+        return basicBlockCount;
+    }
+
+    public int getInstructionCount() {
+        return instructionCount;
     }
 
 }
@@ -1,49 +1,131 @@
 package llvm;
 
-public class Type {
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Type { // 类型实例全部驻留（interned），同一种类型只存在一个实例，因此可以直接用 == 比较
     public enum BasicType {
-        i32, i8, i1, vo, i32ptr, i8ptr, i32arr, i8arr, i32arrptr, i8arrptr
+        i32, i8, i1, i64, vo, i32ptr, i8ptr, i32ptrptr, i8ptrptr, i32arr, i8arr, i32arrptr, i8arrptr
     }
-    public BasicType basicType;
-    public Integer arrayLength;
+    public final BasicType basicType;
+    public final Integer arrayLength;
+    private final String text; // 缓存的文本表示，打印时不再重新拼接字符串
+
+    private static final Type I32 = new Type(BasicType.i32, null);
+    private static final Type I8 = new Type(BasicType.i8, null);
+    private static final Type I1 = new Type(BasicType.i1, null);
+    private static final Type I64 = new Type(BasicType.i64, null); // 只用于除以常量时计算乘积的高 32 位
+    private static final Type VO = new Type(BasicType.vo, null);
+    private static final Type I32PTR = new Type(BasicType.i32ptr, null);
+    private static final Type I8PTR = new Type(BasicType.i8ptr, null);
+    private static final Type I32PTRPTR = new Type(BasicType.i32ptrptr, null); // 数组参数保存到栈上时的地址类型
+    private static final Type I8PTRPTR = new Type(BasicType.i8ptrptr, null);
+
+    // 数组类型按照数组长度驻留，每一种数组基本类型各有一张表
+    private static final ConcurrentHashMap<Integer, Type> i32arrTypes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, Type> i8arrTypes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, Type> i32arrptrTypes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, Type> i8arrptrTypes = new ConcurrentHashMap<>();
 
-    public Type(BasicType basicType, Integer arrayLength) {
+    private Type(BasicType basicType, Integer arrayLength) {
         this.basicType = basicType;
         this.arrayLength = arrayLength;
+        this.text = buildText(basicType, arrayLength);
     }
 
     public static Type i32() {
-        return new Type(BasicType.i32, null);
+        return I32;
     }
 
     public static Type i1() {
-        return new Type(BasicType.i1, null);
+        return I1;
     }
 
     public static Type i8() {
-        return new Type(BasicType.i8, null);
+        return I8;
+    }
+
+    public static Type i64() {
+        return I64;
     }
 
     public static Type vo() {
-        return new Type(BasicType.vo, null);
+        return VO;
     }
 
     public static Type i32ptr() {
-        return new Type(BasicType.i32ptr, null);
+        return I32PTR;
     }
 
     public static Type i8ptr() {
-        return new Type(BasicType.i8ptr, null);
+        return I8PTR;
     }
 
-    @Override
-    public String toString() {
+    public static Type i32ptrptr() {
+        return I32PTRPTR;
+    }
+
+    public static Type i8ptrptr() {
+        return I8PTRPTR;
+    }
+
+    public static Type i32arr(int arrayLength) {
+        return i32arrTypes.computeIfAbsent(arrayLength, length -> new Type(BasicType.i32arr, length));
+    }
+
+    public static Type i8arr(int arrayLength) {
+        return i8arrTypes.computeIfAbsent(arrayLength, length -> new Type(BasicType.i8arr, length));
+    }
+
+    public static Type i32arrptr(int arrayLength) {
+        return i32arrptrTypes.computeIfAbsent(arrayLength, length -> new Type(BasicType.i32arrptr, length));
+    }
+
+    public static Type i8arrptr(int arrayLength) {
+        return i8arrptrTypes.computeIfAbsent(arrayLength, length -> new Type(BasicType.i8arrptr, length));
+    }
+
+    public boolean isPointer() {
+        switch (basicType) {
+            case i32ptr: case i8ptr: case i32ptrptr: case i8ptrptr: case i32arrptr: case i8arrptr: return true;
+            default: return false;
+        }
+    }
+
+    public Type pointerTo() { // 指向该类型的指针类型
+        switch (basicType) {
+            case i32: return I32PTR;
+            case i8: return I8PTR;
+            case i32ptr: return I32PTRPTR;
+            case i8ptr: return I8PTRPTR;
+            case i32arr: return i32arrptr(arrayLength);
+            case i8arr: return i8arrptr(arrayLength);
+        }
+        throw new IllegalArgumentException("不支持指向 " + text + " 的指针");
+    }
+
+    public Type pointee() { // 指针所指向的类型
+        switch (basicType) {
+            case i32ptr: return I32;
+            case i8ptr: return I8;
+            case i32ptrptr: return I32PTR;
+            case i8ptrptr: return I8PTR;
+            case i32arrptr: return i32arr(arrayLength);
+            case i8arrptr: return i8arr(arrayLength);
+        }
+        throw new IllegalArgumentException(text + " 不是指针类型");
+    }
+
+    private static String buildText(BasicType basicType, Integer arrayLength) {
         switch (basicType) {
             case i32: return "i32";
             case i8: return "i8";
+            case i1: return "i1";
+            case i64: return "i64";
             case vo: return "void";
             case i32ptr: return "i32*";
             case i8ptr: return "i8*";
+            case i32ptrptr: return "i32**";
+            case i8ptrptr: return "i8**";
             case i32arr: return "[" + arrayLength + " x i32]";
             case i8arr: return "[" + arrayLength + " x i8]";
             case i32arrptr: return "[" + arrayLength + " x i32]*";
@@ -51,4 +133,9 @@ public class Type {
         }
         return "";
     }
+
+    @Override
+    public String toString() {
+        return text;
+    }
 }
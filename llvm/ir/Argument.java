@@ -0,0 +1,15 @@
+package llvm.ir;
+
+import llvm.Type;
+
+public class Argument extends Value {
+
+    public final Function parent;
+    public final int index;
+
+    Argument(Type type, Function parent, int index) {
+        super(type);
+        this.parent = parent;
+        this.index = index;
+    }
+}
@@ -0,0 +1,47 @@
+package llvm.ir;
+
+import llvm.Type;
+
+import java.util.ArrayList;
+
+// 基本块作为值使用时是跳转指令的目标或者 phi 指令的来源，使用者即为这些指令
+public class BasicBlock extends Value {
+
+    public final String name;
+    public final Function parent;
+    public int index; // 分析时使用的编号，由各个优化遍自行设置
+    private final ArrayList<Instruction> instructions = new ArrayList<>();
+
+    public BasicBlock(String name, Function parent) {
+        super(Type.vo());
+        this.name = name;
+        this.parent = parent;
+    }
+
+    public ArrayList<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public void add(Instruction instruction) {
+        instruction.parent = this;
+        instructions.add(instruction);
+    }
+
+    public void add(int position, Instruction instruction) {
+        instruction.parent = this;
+        instructions.add(position, instruction);
+    }
+
+    public Instruction getTerminator() { // 基本块最后一条指令是跳转或返回时返回这条指令，否则返回 null
+        if (instructions.isEmpty()) {
+            return null;
+        }
+        Instruction last = instructions.get(instructions.size() - 1);
+        return last.opcode.isTerminator() ? last : null;
+    }
+
+    @Override
+    public String toString() {
+        return "%" + name;
+    }
+}
@@ -0,0 +1,67 @@
+package llvm.ir;
+
+import llvm.Type;
+
+// 整数常量，值相同的常量可能是不同的对象，比较时使用 equals 或者比较 value
+public class Constant extends Value {
+
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final Constant[] I32_CACHE = new Constant[CACHE_HIGH - CACHE_LOW];
+    private static final Constant TRUE = new Constant(Type.i1(), 1);
+    private static final Constant FALSE = new Constant(Type.i1(), 0);
+
+    static {
+        for (int i = 0; i < I32_CACHE.length; i++) {
+            I32_CACHE[i] = new Constant(Type.i32(), CACHE_LOW + i);
+        }
+    }
+
+    public final int value;
+
+    private Constant(Type type, int value) {
+        super(type);
+        this.value = value;
+    }
+
+    public static Constant i32(int value) {
+        if (value >= CACHE_LOW && value < CACHE_HIGH) {
+            return I32_CACHE[value - CACHE_LOW];
+        }
+        return new Constant(Type.i32(), value);
+    }
+
+    public static Constant i1(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public static Constant of(Type type, int value) {
+        if (type == Type.i32()) {
+            return i32(value);
+        }
+        if (type == Type.i1()) {
+            return i1(value != 0);
+        }
+        return new Constant(type, value);
+    }
+
+    @Override
+    boolean tracksUsers() {
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Constant && ((Constant) o).type == type && ((Constant) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return type.hashCode() * 31 + value;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+}
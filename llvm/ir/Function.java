@@ -0,0 +1,117 @@
+package llvm.ir;
+
+import llvm.Type;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+// 函数定义或者库函数声明，作为值使用时（call 指令的操作数）类型为返回值类型
+public class Function extends Value {
+
+    public final String name;
+    private final Argument[] arguments;
+    private final ArrayList<BasicBlock> blocks = new ArrayList<>(); // 按打印顺序，第一个为入口基本块
+    private final String comment; // 库函数声明后面的注释（包括前面的空格）
+    private boolean declaration;
+    private ArrayList<BasicBlock> inlineBody; // 优化之后保存的函数体副本，供之后的调用者内联，不适合内联时为 null
+    private final CountDownLatch generated = new CountDownLatch(1);
+
+    public Function(String name, Type returnType, Type[] paramTypes) {
+        this(name, returnType, paramTypes, null);
+    }
+
+    private Function(String name, Type returnType, Type[] paramTypes, String comment) {
+        super(returnType);
+        this.name = name;
+        this.comment = comment;
+        this.arguments = new Argument[paramTypes.length];
+        for (int i = 0; i < paramTypes.length; i++) {
+            arguments[i] = new Argument(paramTypes[i], this, i);
+        }
+    }
+
+    public static Function declaration(String name, Type returnType, Type[] paramTypes, String comment) {
+        Function function = new Function(name, returnType, paramTypes, comment);
+        function.declaration = true;
+        return function;
+    }
+
+    public boolean isDeclaration() {
+        return declaration;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public int getArgumentCount() {
+        return arguments.length;
+    }
+
+    public Argument getArgument(int index) {
+        return arguments[index];
+    }
+
+    public ArrayList<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock getEntryBlock() {
+        return blocks.get(0);
+    }
+
+    public void addBlock(BasicBlock block) {
+        blocks.add(block);
+    }
+
+    public void setInlineBody(ArrayList<BasicBlock> inlineBody) {
+        this.inlineBody = inlineBody;
+    }
+
+    public boolean hasInlineBody() {
+        return inlineBody != null;
+    }
+
+    public void markGenerated() { // 函数体已经生成并优化完毕，或者不会再生成（复用缓存的代码、出现语义错误）
+        generated.countDown();
+    }
+
+    // 并行生成时调用者可能先于被调用者运行到内联，需要等待被调用者生成完毕；被中断（其他函数出错、线程池关闭）时当作不能内联
+    public ArrayList<BasicBlock> awaitInlineBody() {
+        try {
+            generated.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return inlineBody;
+    }
+
+    // 函数体打印之后不再需要时释放全部基本块和指令，函数本身仍然可以作为 call 的操作数。
+    // 符号表中的局部符号仍然引用着参数和 alloca 指令，因此还要断开指令之间的引用，否则整个函数体都不能被回收
+    public void releaseBody() {
+        for (BasicBlock block : blocks) {
+            block.clearUsers();
+            for (Instruction instruction : block.getInstructions()) {
+                instruction.releaseReferences();
+            }
+            block.getInstructions().clear();
+        }
+        for (Argument argument : arguments) {
+            argument.clearUsers();
+        }
+        blocks.clear();
+        blocks.trimToSize();
+    }
+
+    @Override
+    boolean tracksUsers() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "@" + name;
+    }
+}
@@ -0,0 +1,30 @@
+package llvm.ir;
+
+import llvm.Type;
+
+// 全局变量或常量，值的类型为指向 valueType 的指针
+public class GlobalVariable extends Value {
+
+    public final String name;
+    public final Type valueType;
+    public final boolean isConst;
+    public final int[] initializer; // 每个元素的初始值，非数组时只有一个
+
+    public GlobalVariable(String name, Type valueType, boolean isConst, int[] initializer) {
+        super(valueType.pointerTo());
+        this.name = name;
+        this.valueType = valueType;
+        this.isConst = isConst;
+        this.initializer = initializer;
+    }
+
+    @Override
+    boolean tracksUsers() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "@" + name;
+    }
+}
@@ -0,0 +1,214 @@
+package llvm.ir;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// 把中间代码对象打印为 llvm ir 文本。函数内的参数和有结果的指令按打印顺序从 0 开始编号，
+// 指令缩进两个空格，基本块标签不缩进，格式与 IRGenerator 以前直接输出的文本完全相同
+public class IRPrinter {
+
+    private IRPrinter() {
+    }
+
+    public static void print(Module module, Writer writer) throws IOException {
+        printDeclarations(module, writer);
+        for (GlobalVariable global : module.getGlobals()) {
+            print(global, writer);
+        }
+        for (Function function : module.getFunctions()) {
+            print(function, writer);
+        }
+    }
+
+    public static void printDeclarations(Module module, Writer writer) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (Function declaration : module.getDeclarations()) {
+            out.append("declare ").append(declaration.type).append(" @").append(declaration.name).append('(');
+            for (int i = 0; i < declaration.getArgumentCount(); i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(declaration.getArgument(i).type);
+            }
+            out.append(')');
+            if (declaration.getComment() != null) {
+                out.append(declaration.getComment());
+            }
+            out.append('\n');
+        }
+        writer.append(out);
+    }
+
+    public static void print(GlobalVariable global, Writer writer) throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append('@').append(global.name).append(" = ").append(global.isConst ? "constant " : "global ");
+        out.append(global.valueType).append(' ');
+        if (global.valueType.arrayLength != null) {
+            String elementType = global.valueType.basicType == llvm.Type.BasicType.i32arr ? "i32 " : "i8 ";
+            out.append('[');
+            for (int i = 0; i < global.initializer.length; i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(elementType).append(global.initializer[i]);
+            }
+            out.append(']');
+        }
+        else {
+            out.append(global.initializer[0]);
+        }
+        out.append('\n');
+        writer.append(out);
+    }
+
+    public static void print(Function function, Writer writer) throws IOException {
+        int slot = 0;
+        for (int i = 0; i < function.getArgumentCount(); i++) {
+            function.getArgument(i).slot = slot++;
+        }
+        int instructionNum = 0;
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction.hasResult()) {
+                    instruction.slot = slot++;
+                }
+            }
+            instructionNum += block.getInstructions().size();
+        }
+        StringBuilder out = new StringBuilder(64 + instructionNum * 40);
+        out.append("define ").append(function.type).append(" @").append(function.name).append('(');
+        for (int i = 0; i < function.getArgumentCount(); i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            Argument argument = function.getArgument(i);
+            out.append(argument.type).append(" %").append(argument.slot);
+        }
+        out.append(") {\n");
+        for (BasicBlock block : function.getBlocks()) {
+            out.append(block.name).append(":\n");
+            for (Instruction instruction : block.getInstructions()) {
+                out.append("  ");
+                printInstruction(instruction, out);
+                out.append('\n');
+            }
+        }
+        out.append("}\n");
+        writer.append(out);
+    }
+
+    private static void printInstruction(Instruction instruction, StringBuilder out) {
+        if (instruction.hasResult()) {
+            out.append('%').append(instruction.slot).append(" = ");
+        }
+        Instruction.Opcode opcode = instruction.opcode;
+        out.append(opcode.text).append(' ');
+        switch (opcode) {
+            case ICMP:
+                out.append(instruction.getPredicate().text).append(' ');
+                printTypedOperand(instruction.getOperand(0), out);
+                out.append(", ");
+                printOperand(instruction.getOperand(1), out);
+                break;
+            case ZEXT: case SEXT: case TRUNC:
+                printTypedOperand(instruction.getOperand(0), out);
+                out.append(" to ").append(instruction.type);
+                break;
+            case ALLOCA:
+                out.append(instruction.type.pointee());
+                break;
+            case LOAD:
+                out.append(instruction.type).append(", ");
+                printTypedOperand(instruction.getOperand(0), out);
+                break;
+            case STORE:
+                printTypedOperand(instruction.getOperand(0), out);
+                out.append(", ");
+                printTypedOperand(instruction.getOperand(1), out);
+                break;
+            case GETELEMENTPTR:
+                out.append(instruction.getOperand(0).type.pointee());
+                for (int i = 0; i < instruction.getOperandCount(); i++) {
+                    out.append(", ");
+                    printTypedOperand(instruction.getOperand(i), out);
+                }
+                break;
+            case CALL:
+                out.append(instruction.type).append(' ');
+                printOperand(instruction.getOperand(0), out);
+                out.append('(');
+                for (int i = 1; i < instruction.getOperandCount(); i++) {
+                    if (i > 1) {
+                        out.append(", ");
+                    }
+                    printTypedOperand(instruction.getOperand(i), out);
+                }
+                out.append(')');
+                break;
+            case BR:
+                if (instruction.getOperandCount() == 1) {
+                    out.append("label ");
+                    printOperand(instruction.getOperand(0), out);
+                }
+                else {
+                    printTypedOperand(instruction.getOperand(0), out);
+                    out.append(", label ");
+                    printOperand(instruction.getOperand(1), out);
+                    out.append(", label ");
+                    printOperand(instruction.getOperand(2), out);
+                }
+                break;
+            case PHI:
+                out.append(instruction.type);
+                for (int i = 0; i < instruction.getIncomingCount(); i++) {
+                    out.append(i > 0 ? ", [ " : " [ ");
+                    printOperand(instruction.getIncomingValue(i), out);
+                    out.append(", ");
+                    printOperand(instruction.getIncomingBlock(i), out);
+                    out.append(" ]");
+                }
+                break;
+            case RET:
+                if (instruction.getOperandCount() == 0) {
+                    out.append("void");
+                }
+                else {
+                    printTypedOperand(instruction.getOperand(0), out);
+                }
+                break;
+            default: // 二元运算
+                printTypedOperand(instruction.getOperand(0), out);
+                out.append(", ");
+                printOperand(instruction.getOperand(1), out);
+                break;
+        }
+    }
+
+    private static void printTypedOperand(Value value, StringBuilder out) {
+        out.append(value.type).append(' ');
+        printOperand(value, out);
+    }
+
+    private static void printOperand(Value value, StringBuilder out) {
+        if (value instanceof Constant) {
+            if (value.type.isPointer()) { // 只会作为未初始化的指针变量的初始值出现
+                out.append("null");
+            }
+            else {
+                out.append(((Constant) value).value);
+            }
+        }
+        else if (value instanceof Instruction || value instanceof Argument) {
+            out.append('%').append(value.slot);
+        }
+        else if (value instanceof BasicBlock) {
+            out.append('%').append(((BasicBlock) value).name);
+        }
+        else if (value instanceof GlobalVariable) {
+            out.append('@').append(((GlobalVariable) value).name);
+        }
+        else {
+            out.append('@').append(((Function) value).name);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package llvm.ir;
+
+import llvm.Type;
+
+// 一条指令，各种指令共用同一个类，按 opcode 区分，操作数的排列方式：
+//   二元运算、icmp        [左操作数, 右操作数]
+//   zext、sext、trunc     [被转换的值]，结果类型即为目标类型
+//   alloca                []，结果类型为指向所分配类型的指针
+//   load                  [地址]
+//   store                 [要存的值, 地址]
+//   getelementptr         [基地址, 下标...]
+//   call                  [被调用的函数, 实参...]
+//   br                    [目标基本块] 或者 [条件, 条件为真的基本块, 条件为假的基本块]
+//   ret                   [] 或者 [返回值]
+//   phi                   [值, 来源基本块, 值, 来源基本块...]，每个前驱基本块一对
+public class Instruction extends Value {
+
+    public enum Opcode {
+        ADD("add"), SUB("sub"), MUL("mul"), SDIV("sdiv"), SREM("srem"),
+        SHL("shl"), ASHR("ashr"), LSHR("lshr"), AND("and"), OR("or"), XOR("xor"), // 移位和按位运算只由优化遍生成
+        ICMP("icmp"), ZEXT("zext"), SEXT("sext"), TRUNC("trunc"),
+        ALLOCA("alloca"), LOAD("load"), STORE("store"), GETELEMENTPTR("getelementptr inbounds"),
+        CALL("call"), BR("br"), RET("ret"), PHI("phi");
+
+        public final String text;
+
+        Opcode(String text) {
+            this.text = text;
+        }
+
+        public boolean isBinary() {
+            return ordinal() <= XOR.ordinal();
+        }
+
+        public boolean isCast() {
+            return this == ZEXT || this == SEXT || this == TRUNC;
+        }
+
+        public boolean isTerminator() {
+            return this == BR || this == RET;
+        }
+    }
+
+    public enum Predicate {
+        EQ("eq"), NE("ne"), SLT("slt"), SLE("sle"), SGT("sgt"), SGE("sge");
+
+        public final String text;
+
+        Predicate(String text) {
+            this.text = text;
+        }
+    }
+
+    private static final Value[] NO_OPERANDS = new Value[0];
+
+    public final Opcode opcode;
+    private final Predicate predicate; // 只有 icmp 指令有
+    private Value[] operands;
+    BasicBlock parent;
+    public int index; // 分析时使用的编号，由各个优化遍自行设置
+
+    private Instruction(Opcode opcode, Type type, Predicate predicate, Value... operands) {
+        super(type);
+        this.opcode = opcode;
+        this.predicate = predicate;
+        this.operands = operands.length == 0 ? NO_OPERANDS : operands;
+        for (Value operand : operands) {
+            operand.addUser(this);
+        }
+    }
+
+    public static Instruction binary(Opcode opcode, Value lhs, Value rhs) {
+        return new Instruction(opcode, lhs.type, null, lhs, rhs);
+    }
+
+    public static Instruction icmp(Predicate predicate, Value lhs, Value rhs) {
+        return new Instruction(Opcode.ICMP, Type.i1(), predicate, lhs, rhs);
+    }
+
+    public static Instruction cast(Opcode opcode, Value value, Type destType) {
+        return new Instruction(opcode, destType, null, value);
+    }
+
+    public static Instruction alloca(Type allocatedType) {
+        return new Instruction(Opcode.ALLOCA, allocatedType.pointerTo(), null);
+    }
+
+    public static Instruction load(Value address) {
+        return new Instruction(Opcode.LOAD, address.type.pointee(), null, address);
+    }
+
+    public static Instruction store(Value value, Value address) {
+        return new Instruction(Opcode.STORE, Type.vo(), null, value, address);
+    }
+
+    // 结果为数组（或者指针所指向的）元素的地址，数组基地址需要两个下标，指针只需要一个
+    public static Instruction getElementPtr(Value address, Value... indices) {
+        Value[] operands = new Value[indices.length + 1];
+        operands[0] = address;
+        System.arraycopy(indices, 0, operands, 1, indices.length);
+        Type elementType = address.type.pointee();
+        if (indices.length > 1) {
+            elementType = elementType.basicType == Type.BasicType.i32arr ? Type.i32() : Type.i8();
+        }
+        return new Instruction(Opcode.GETELEMENTPTR, elementType.pointerTo(), null, operands);
+    }
+
+    public static Instruction call(Function callee, Value... args) {
+        Value[] operands = new Value[args.length + 1];
+        operands[0] = callee;
+        System.arraycopy(args, 0, operands, 1, args.length);
+        return new Instruction(Opcode.CALL, callee.type, null, operands);
+    }
+
+    public static Instruction br(BasicBlock target) {
+        return new Instruction(Opcode.BR, Type.vo(), null, target);
+    }
+
+    public static Instruction condBr(Value condition, BasicBlock trueTarget, BasicBlock falseTarget) {
+        return new Instruction(Opcode.BR, Type.vo(), null, condition, trueTarget, falseTarget);
+    }
+
+    public static Instruction phi(Type type) { // 来源由 addIncoming 逐个添加
+        return new Instruction(Opcode.PHI, type, null);
+    }
+
+    public static Instruction ret(Value value) { // value 为 null 时为 ret void
+        return value == null ? new Instruction(Opcode.RET, Type.vo(), null) : new Instruction(Opcode.RET, Type.vo(), null, value);
+    }
+
+    public Instruction copy(Value... operands) { // 运算和类型相同、操作数为 operands 的新指令，phi 的来源之后再逐个添加
+        return new Instruction(opcode, type, predicate, operands);
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public BasicBlock getParent() {
+        return parent;
+    }
+
+    public int getOperandCount() {
+        return operands.length;
+    }
+
+    public Value getOperand(int index) {
+        return operands[index];
+    }
+
+    public void setOperand(int index, Value value) {
+        operands[index].removeUser(this);
+        operands[index] = value;
+        value.addUser(this);
+    }
+
+    public void addIncoming(Value value, BasicBlock block) {
+        Value[] newOperands = new Value[operands.length + 2];
+        System.arraycopy(operands, 0, newOperands, 0, operands.length);
+        newOperands[operands.length] = value;
+        newOperands[operands.length + 1] = block;
+        operands = newOperands;
+        value.addUser(this);
+        block.addUser(this);
+    }
+
+    public int getIncomingCount() {
+        return operands.length / 2;
+    }
+
+    public Value getIncomingValue(int index) {
+        return operands[index * 2];
+    }
+
+    public BasicBlock getIncomingBlock(int index) {
+        return (BasicBlock) operands[index * 2 + 1];
+    }
+
+    public void removeIncoming(int index) {
+        operands[index * 2].removeUser(this);
+        operands[index * 2 + 1].removeUser(this);
+        Value[] newOperands = new Value[operands.length - 2];
+        System.arraycopy(operands, 0, newOperands, 0, index * 2);
+        System.arraycopy(operands, index * 2 + 2, newOperands, index * 2, operands.length - index * 2 - 2);
+        operands = newOperands;
+    }
+
+    public int getSuccessorCount() { // 跳转指令的目标数量，其他指令为 0
+        return opcode != Opcode.BR ? 0 : operands.length == 1 ? 1 : 2;
+    }
+
+    public BasicBlock getSuccessor(int index) {
+        return (BasicBlock) operands[operands.length == 1 ? 0 : index + 1];
+    }
+
+    public boolean hasResult() { // 是否产生一个值，即打印时是否占用一个虚拟寄存器编号
+        return type != Type.vo();
+    }
+
+    void releaseReferences() { // 所在的函数被释放时使用
+        clearUsers();
+        operands = NO_OPERANDS;
+        parent = null;
+    }
+
+    public void dropOperands() { // 删除指令之前调用，从各个操作数的使用者中去掉自己
+        for (Value operand : operands) {
+            operand.removeUser(this);
+        }
+        operands = NO_OPERANDS;
+    }
+}
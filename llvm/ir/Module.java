@@ -0,0 +1,43 @@
+package llvm.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// 一个编译单元的中间代码：库函数声明、全局变量和函数定义，各自按源程序中的顺序排列
+public class Module {
+
+    private final ArrayList<Function> declarations = new ArrayList<>();
+    private final ArrayList<GlobalVariable> globals = new ArrayList<>();
+    private final ArrayList<Function> functions = new ArrayList<>();
+    private final HashMap<String, Function> functionsByName = new HashMap<>();
+
+    public void addDeclaration(Function declaration) {
+        declarations.add(declaration);
+        functionsByName.put(declaration.name, declaration);
+    }
+
+    public void addGlobal(GlobalVariable global) {
+        globals.add(global);
+    }
+
+    public void addFunction(Function function) {
+        functions.add(function);
+        functionsByName.put(function.name, function);
+    }
+
+    public Function getFunction(String name) { // 库函数或者已经登记的函数，不存在时返回 null
+        return functionsByName.get(name);
+    }
+
+    public ArrayList<Function> getDeclarations() {
+        return declarations;
+    }
+
+    public ArrayList<GlobalVariable> getGlobals() {
+        return globals;
+    }
+
+    public ArrayList<Function> getFunctions() {
+        return functions;
+    }
+}
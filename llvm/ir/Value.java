@@ -0,0 +1,74 @@
+package llvm.ir;
+
+import llvm.Type;
+
+import java.util.Arrays;
+
+// 中间代码中所有可以作为操作数的对象：常量、全局变量、函数、参数、基本块和指令
+// 函数内的值（参数、基本块、指令）记录使用它的全部指令（use-def 链），一条指令多次使用同一个值时记录多次；
+// 常量、全局变量和函数被多个函数共享，并行生成代码时不同线程会同时使用，因此不记录使用者
+public abstract class Value {
+
+    private static final Instruction[] NO_USERS = new Instruction[0];
+
+    public final Type type;
+    private Instruction[] users = NO_USERS;
+    private int userCount;
+    int slot; // 打印时分配的虚拟寄存器编号
+
+    protected Value(Type type) {
+        this.type = type;
+    }
+
+    boolean tracksUsers() {
+        return true;
+    }
+
+    void addUser(Instruction user) {
+        if (!tracksUsers()) {
+            return;
+        }
+        if (userCount == users.length) {
+            users = Arrays.copyOf(users, Math.max(4, userCount * 2));
+        }
+        users[userCount++] = user;
+    }
+
+    void removeUser(Instruction user) { // 只去掉一次使用
+        for (int i = 0; i < userCount; i++) {
+            if (users[i] == user) {
+                users[i] = users[--userCount];
+                users[userCount] = null;
+                return;
+            }
+        }
+    }
+
+    void clearUsers() { // 只在整个函数被释放时使用，不更新使用者的操作数
+        users = NO_USERS;
+        userCount = 0;
+    }
+
+    public int getUserCount() {
+        return userCount;
+    }
+
+    public Instruction getUser(int index) {
+        return users[index];
+    }
+
+    public boolean hasUsers() {
+        return userCount > 0;
+    }
+
+    public void replaceAllUsesWith(Value value) {
+        while (userCount > 0) {
+            Instruction user = users[userCount - 1];
+            for (int i = 0; i < user.getOperandCount(); i++) {
+                if (user.getOperand(i) == this) {
+                    user.setOperand(i, value);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package llvm.pass;
+
+import llvm.ir.BasicBlock;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// 控制流图的公共操作。基本块的后继由最后一条跳转指令给出，前驱即为跳转到它的指令所在的基本块
+public class ControlFlow {
+
+    private ControlFlow() {
+    }
+
+    public static ArrayList<BasicBlock> predecessors(BasicBlock block) { // 不重复，按使用者的顺序
+        ArrayList<BasicBlock> predecessors = new ArrayList<>();
+        for (int i = 0; i < block.getUserCount(); i++) {
+            Instruction user = block.getUser(i);
+            if (user.opcode == Instruction.Opcode.BR && !predecessors.contains(user.getParent())) {
+                predecessors.add(user.getParent());
+            }
+        }
+        return predecessors;
+    }
+
+    // 去掉每个基本块中第一条跳转或返回指令之后的指令（IRGenerator 在 break、continue、return 之后的声明会生成在这里），
+    // 再删除从入口基本块不可达的基本块，并去掉 phi 指令中来自这些基本块的值。返回是否修改了函数
+    public static boolean removeUnreachableBlocks(Function function) {
+        ArrayList<BasicBlock> blocks = function.getBlocks();
+        ArrayList<Instruction> removed = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size() - 1; i++) {
+                if (instructions.get(i).opcode.isTerminator()) {
+                    List<Instruction> tail = instructions.subList(i + 1, instructions.size());
+                    removed.addAll(tail);
+                    tail.clear();
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            blocks.get(i).index = 0;
+        }
+        ArrayDeque<BasicBlock> worklist = new ArrayDeque<>();
+        blocks.get(0).index = 1; // 1 表示可达
+        worklist.add(blocks.get(0));
+        while (!worklist.isEmpty()) {
+            Instruction terminator = worklist.poll().getTerminator();
+            if (terminator == null) {
+                continue;
+            }
+            for (int i = 0; i < terminator.getSuccessorCount(); i++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (successor.index == 0) {
+                    successor.index = 1;
+                    worklist.add(successor);
+                }
+            }
+        }
+        int reachableNum = 0;
+        for (BasicBlock block : blocks) {
+            if (block.index == 1) {
+                blocks.set(reachableNum++, block);
+            }
+            else {
+                removed.addAll(block.getInstructions());
+            }
+        }
+        boolean changed = !removed.isEmpty() || reachableNum < blocks.size();
+        if (reachableNum < blocks.size()) {
+            blocks.subList(reachableNum, blocks.size()).clear();
+            for (BasicBlock block : blocks) {
+                removeIncomingFromUnreachable(block);
+            }
+        }
+        for (Instruction instruction : removed) {
+            instruction.dropOperands();
+        }
+        return changed;
+    }
+
+    // 把基本块的跳转指令替换为 terminator，原来的跳转指令从操作数的使用者中去掉
+    public static void replaceTerminator(BasicBlock block, Instruction terminator) {
+        ArrayList<Instruction> instructions = block.getInstructions();
+        instructions.remove(instructions.size() - 1).dropOperands();
+        block.add(terminator);
+    }
+
+    // 删除 predecessor 到 block 的一条边之后，去掉 block 中每个 phi 指令里来自 predecessor 的一个值
+    public static void removeIncoming(BasicBlock block, BasicBlock predecessor) {
+        for (Instruction instruction : block.getInstructions()) {
+            if (instruction.opcode != Instruction.Opcode.PHI) {
+                break;
+            }
+            for (int i = 0; i < instruction.getIncomingCount(); i++) {
+                if (instruction.getIncomingBlock(i) == predecessor) {
+                    instruction.removeIncoming(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void removeIncomingFromUnreachable(BasicBlock block) {
+        for (Instruction instruction : block.getInstructions()) {
+            if (instruction.opcode != Instruction.Opcode.PHI) {
+                break;
+            }
+            for (int i = instruction.getIncomingCount() - 1; i >= 0; i--) {
+                if (instruction.getIncomingBlock(i).index != 1) {
+                    instruction.removeIncoming(i);
+                }
+            }
+        }
+    }
+}
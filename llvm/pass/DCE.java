@@ -0,0 +1,99 @@
+package llvm.pass;
+
+import llvm.ir.BasicBlock;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Value;
+
+import java.util.ArrayList;
+
+// 基于活跃性的死代码删除：先删除不可达的基本块（同时去掉 phi 指令中来自它们的值），
+// 再从有副作用的指令（store、call、跳转和返回）出发沿操作数标记活跃的指令，其余的指令全部删除。
+// 与逐条删除没有使用者的指令不同，互相使用但最终没有被用到的 phi 环也能删除
+public class DCE implements FunctionPass {
+
+    @Override
+    public int revision() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(Function function, PassManager manager) {
+        ArrayList<BasicBlock> blocks = function.getBlocks();
+        int blockNum = blocks.size();
+        boolean changed = ControlFlow.removeUnreachableBlocks(function);
+        int removedBlockNum = blockNum - blocks.size();
+
+        int instructionNum = 0;
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.getInstructions()) {
+                instruction.index = instructionNum++;
+            }
+        }
+        boolean[] live = new boolean[instructionNum];
+        Instruction[] worklist = new Instruction[instructionNum];
+        int size = 0;
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (hasSideEffect(instruction)) {
+                    live[instruction.index] = true;
+                    worklist[size++] = instruction;
+                }
+            }
+        }
+        while (size > 0) {
+            Instruction instruction = worklist[--size];
+            for (int i = 0; i < instruction.getOperandCount(); i++) {
+                Value operand = instruction.getOperand(i);
+                if (operand instanceof Instruction && !live[((Instruction) operand).index]) {
+                    live[((Instruction) operand).index] = true;
+                    worklist[size++] = (Instruction) operand;
+                }
+            }
+        }
+
+        int removedNum = 0;
+        for (BasicBlock block : blocks) {
+            ArrayList<Instruction> instructions = block.getInstructions();
+            int kept = 0;
+            for (Instruction instruction : instructions) {
+                if (live[instruction.index]) {
+                    instructions.set(kept++, instruction);
+                }
+                else {
+                    instruction.dropOperands(); // 使用者也都是要删除的指令
+                    removedNum++;
+                }
+            }
+            instructions.subList(kept, instructions.size()).clear();
+        }
+        manager.count("dce.removedBlocks", removedBlockNum);
+        manager.count("dce.removedInstructions", removedNum);
+        return changed || removedNum > 0;
+    }
+
+    // 其他优化遍删除某个使用之后调用：value 是没有使用者、没有副作用的指令时删除它，并继续检查它的操作数
+    public static void removeIfUnused(Value value) {
+        if (!(value instanceof Instruction)) {
+            return;
+        }
+        Instruction instruction = (Instruction) value;
+        if (instruction.hasUsers() || hasSideEffect(instruction) || instruction.getParent() == null) {
+            return;
+        }
+        Value[] operands = new Value[instruction.getOperandCount()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = instruction.getOperand(i);
+        }
+        instruction.getParent().getInstructions().remove(instruction);
+        instruction.dropOperands();
+        for (Value operand : operands) {
+            removeIfUnused(operand);
+        }
+    }
+
+    private static boolean hasSideEffect(Instruction instruction) { // 函数调用一律视为有副作用
+        return instruction.opcode == Opcode.STORE || instruction.opcode == Opcode.CALL || instruction.opcode.isTerminator();
+    }
+}
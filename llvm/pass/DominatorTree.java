@@ -0,0 +1,208 @@
+package llvm.pass;
+
+import llvm.ir.BasicBlock;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// 支配树，使用 Cooper、Harvey 和 Kennedy 的迭代算法计算。只包含从入口可达的基本块，
+// 构造时按逆后序把基本块的 index 设置为 0、1、2...，之后函数的控制流图发生变化时需要重新构造
+public class DominatorTree {
+
+    private final BasicBlock[] order; // 逆后序
+    private final int[][] predecessors; // 每个基本块的前驱在 order 中的下标
+    private final int[] idom; // 直接支配者的下标，入口基本块为它自己
+    private final int[][] children;
+    private final int[] preorder; // 支配树先序遍历时进入和离开的编号，用于 O(1) 判断支配关系
+    private final int[] postorder;
+
+    public DominatorTree(Function function) {
+        ArrayList<BasicBlock> blocks = function.getBlocks();
+        for (BasicBlock block : blocks) {
+            block.index = -1;
+        }
+        order = reversePostOrder(blocks.get(0), blocks.size());
+        int n = order.length;
+        for (int i = 0; i < n; i++) {
+            order[i].index = i;
+        }
+        int[] predecessorCount = new int[n];
+        for (BasicBlock block : order) {
+            Instruction terminator = block.getTerminator();
+            for (int i = 0; terminator != null && i < terminator.getSuccessorCount(); i++) {
+                predecessorCount[terminator.getSuccessor(i).index]++;
+            }
+        }
+        predecessors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            predecessors[i] = new int[predecessorCount[i]];
+            predecessorCount[i] = 0;
+        }
+        for (BasicBlock block : order) {
+            Instruction terminator = block.getTerminator();
+            for (int i = 0; terminator != null && i < terminator.getSuccessorCount(); i++) {
+                int successor = terminator.getSuccessor(i).index;
+                predecessors[successor][predecessorCount[successor]++] = block.index;
+            }
+        }
+
+        idom = new int[n];
+        Arrays.fill(idom, -1);
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 1; b < n; b++) {
+                int newIdom = -1;
+                for (int p : predecessors[b]) {
+                    if (idom[p] == -1) {
+                        continue;
+                    }
+                    newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+                }
+                if (idom[b] != newIdom) {
+                    idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        int[] childCount = new int[n];
+        for (int b = 1; b < n; b++) {
+            childCount[idom[b]]++;
+        }
+        children = new int[n][];
+        for (int b = 0; b < n; b++) {
+            children[b] = new int[childCount[b]];
+            childCount[b] = 0;
+        }
+        for (int b = 1; b < n; b++) {
+            children[idom[b]][childCount[idom[b]]++] = b;
+        }
+
+        preorder = new int[n];
+        postorder = new int[n];
+        int[] stack = new int[n];
+        int[] next = new int[n]; // 每个基本块下一个要访问的子结点
+        int top = 0;
+        int clock = 0;
+        stack[top++] = 0;
+        preorder[0] = clock++;
+        while (top > 0) {
+            int b = stack[top - 1];
+            if (next[b] < children[b].length) {
+                int child = children[b][next[b]++];
+                preorder[child] = clock++;
+                stack[top++] = child;
+            }
+            else {
+                postorder[b] = clock++;
+                top--;
+            }
+        }
+    }
+
+    private int intersect(int a, int b) { // 逆后序中下标越小越靠近入口
+        while (a != b) {
+            while (a > b) {
+                a = idom[a];
+            }
+            while (b > a) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    private static BasicBlock[] reversePostOrder(BasicBlock entry, int blockNum) {
+        ArrayList<BasicBlock> postOrder = new ArrayList<>(blockNum);
+        BasicBlock[] stack = new BasicBlock[blockNum];
+        int[] next = new int[blockNum];
+        int top = 0;
+        entry.index = 0; // 0 表示已经访问过，遍历结束后重新编号
+        stack[top++] = entry;
+        while (top > 0) {
+            BasicBlock block = stack[top - 1];
+            Instruction terminator = block.getTerminator();
+            int successorCount = terminator == null ? 0 : terminator.getSuccessorCount();
+            if (next[top - 1] < successorCount) {
+                BasicBlock successor = terminator.getSuccessor(next[top - 1]++);
+                if (successor.index == -1) {
+                    successor.index = 0;
+                    next[top] = 0;
+                    stack[top++] = successor;
+                }
+            }
+            else {
+                postOrder.add(block);
+                top--;
+            }
+        }
+        BasicBlock[] order = new BasicBlock[postOrder.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = postOrder.get(order.length - 1 - i);
+        }
+        return order;
+    }
+
+    public int size() {
+        return order.length;
+    }
+
+    public BasicBlock get(int index) { // 逆后序中的第 index 个基本块
+        return order[index];
+    }
+
+    public BasicBlock[] reversePostOrder() {
+        return order;
+    }
+
+    public int[] predecessorsOf(int index) { // 有多条边时重复出现
+        return predecessors[index];
+    }
+
+    public int idomOf(int index) {
+        return idom[index];
+    }
+
+    public int[] childrenOf(int index) {
+        return children[index];
+    }
+
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        return preorder[a.index] <= preorder[b.index] && postorder[b.index] <= postorder[a.index];
+    }
+
+    // 支配边界：b 支配 x 的某个前驱但不严格支配 x 时，x 在 b 的支配边界中
+    public int[][] dominanceFrontiers() {
+        int n = order.length;
+        int[][] frontiers = new int[n][];
+        int[] sizes = new int[n];
+        int[][] buffers = new int[n][];
+        for (int x = 0; x < n; x++) {
+            if (predecessors[x].length < 2) {
+                continue;
+            }
+            for (int p : predecessors[x]) {
+                for (int runner = p; runner != idom[x]; runner = idom[runner]) {
+                    if (sizes[runner] > 0 && buffers[runner][sizes[runner] - 1] == x) {
+                        continue; // 同一个 x 只记录一次，x 是按顺序处理的
+                    }
+                    if (buffers[runner] == null) {
+                        buffers[runner] = new int[4];
+                    }
+                    else if (sizes[runner] == buffers[runner].length) {
+                        buffers[runner] = Arrays.copyOf(buffers[runner], sizes[runner] * 2);
+                    }
+                    buffers[runner][sizes[runner]++] = x;
+                }
+            }
+        }
+        for (int b = 0; b < n; b++) {
+            frontiers[b] = buffers[b] == null ? new int[0] : Arrays.copyOf(buffers[b], sizes[b]);
+        }
+        return frontiers;
+    }
+}
@@ -0,0 +1,14 @@
+package llvm.pass;
+
+import llvm.ir.Function;
+
+// 对单个函数进行的优化，函数之间互不影响，因此可以在并行生成代码的各个线程中分别进行
+public interface FunctionPass {
+
+    // 修订号，改变这个遍输出的修改都要加 1。各遍的名字和修订号组成编译结果缓存和增量编译状态的键（见 PassManager.getKey），
+    // 旧版本留下的中间代码因此不会被当作当前版本的结果
+    int revision();
+
+    // 返回函数是否被修改，统计信息通过 manager.count 记录
+    boolean run(Function function, PassManager manager);
+}
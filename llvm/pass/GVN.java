@@ -0,0 +1,253 @@
+package llvm.pass;
+
+import llvm.Type;
+import llvm.ir.BasicBlock;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Instruction.Predicate;
+import llvm.ir.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// 基于支配树的全局值编号：沿支配树先序遍历，用带作用域的哈希表记录已经计算过的表达式，
+// 被支配的基本块中相同的运算、icmp、类型转换和 getelementptr 直接使用之前的结果。
+// load 使用简单的内存模型：任何 store 和函数调用都可能修改任何内存，记为一个新的内存版本，
+// 同一版本内对同一地址的 load 可以使用之前 load 的结果或者 store 的值。
+// 有多个前驱的基本块入口处内存可能来自其他路径，也使用新的版本
+public class GVN implements FunctionPass {
+
+    // 一个表达式：运算、比较谓词、结果类型和操作数，常量按值比较，其他值按对象比较
+    private static final class Expression {
+        private final Opcode opcode;
+        private final Predicate predicate;
+        private final Type type;
+        private final Value[] operands;
+
+        private Expression(Instruction instruction) {
+            Predicate predicate = instruction.getPredicate();
+            Value[] operands = new Value[instruction.getOperandCount()];
+            for (int i = 0; i < operands.length; i++) {
+                operands[i] = instruction.getOperand(i);
+            }
+            if (predicate == Predicate.SGT || predicate == Predicate.SGE) { // a > b 即 b < a
+                predicate = predicate == Predicate.SGT ? Predicate.SLT : Predicate.SLE;
+                Value lhs = operands[0];
+                operands[0] = operands[1];
+                operands[1] = lhs;
+            }
+            this.opcode = instruction.opcode;
+            this.predicate = predicate;
+            this.type = instruction.type;
+            this.operands = operands;
+        }
+
+        private boolean isCommutative() {
+            return opcode == Opcode.ADD || opcode == Opcode.MUL || opcode == Opcode.AND || opcode == Opcode.OR || opcode == Opcode.XOR
+                || predicate == Predicate.EQ || predicate == Predicate.NE;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Expression)) {
+                return false;
+            }
+            Expression other = (Expression) o;
+            if (opcode != other.opcode || predicate != other.predicate || type != other.type) {
+                return false;
+            }
+            if (Arrays.equals(operands, other.operands)) {
+                return true;
+            }
+            return isCommutative() && operands[0].equals(other.operands[1]) && operands[1].equals(other.operands[0]);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = opcode.hashCode() * 31 + (predicate == null ? 0 : predicate.hashCode());
+            if (isCommutative()) {
+                return hash * 31 + operands[0].hashCode() + operands[1].hashCode();
+            }
+            return hash * 31 + Arrays.hashCode(operands);
+        }
+    }
+
+    private static final class AvailableLoad { // 某个地址在某个内存版本中的值
+        private final Value value;
+        private final int generation;
+
+        private AvailableLoad(Value value, int generation) {
+            this.value = value;
+            this.generation = generation;
+        }
+    }
+
+    private final HashMap<Expression, Instruction> expressions = new HashMap<>();
+    private final HashMap<Value, AvailableLoad> loads = new HashMap<>();
+    // 撤销日志：离开一棵子树时把哈希表恢复到进入时的状态，logValues 中的 null 表示原来没有这个键
+    private final ArrayList<Object> logKeys = new ArrayList<>();
+    private final ArrayList<Object> logValues = new ArrayList<>();
+    private final ArrayList<Value> unusedCandidates = new ArrayList<>();
+    private int generationCount;
+    private int removedNum;
+    private int removedLoadNum;
+
+    @Override
+    public int revision() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(Function function, PassManager manager) {
+        DominatorTree tree = new DominatorTree(function);
+        int blockNum = tree.size();
+        int[] stack = new int[blockNum];
+        int[] logMarks = new int[blockNum];
+        int[] generations = new int[blockNum]; // 每个基本块处理完之后的内存版本，被它直接支配的唯一后继沿用
+        int[] nextChild = new int[blockNum];
+        removedNum = 0;
+        removedLoadNum = 0;
+        generationCount = 0;
+        int top = 0;
+        stack[top++] = 0;
+        boolean entering = true;
+        while (top > 0) {
+            int b = stack[top - 1];
+            if (entering) {
+                logMarks[top - 1] = logKeys.size();
+                nextChild[top - 1] = 0;
+                int generation;
+                if (top > 1 && tree.predecessorsOf(b).length == 1) { // 唯一的前驱即为直接支配者
+                    generation = generations[top - 2];
+                }
+                else {
+                    generation = ++generationCount;
+                }
+                generations[top - 1] = visit(tree.get(b), generation);
+            }
+            int[] children = tree.childrenOf(b);
+            if (nextChild[top - 1] < children.length) {
+                stack[top++] = children[nextChild[top - 2]++];
+                entering = true;
+            }
+            else {
+                top--;
+                undo(logMarks[top]);
+                entering = false;
+            }
+        }
+        expressions.clear();
+        loads.clear();
+        for (Value candidate : unusedCandidates) {
+            DCE.removeIfUnused(candidate);
+        }
+        unusedCandidates.clear();
+        manager.count("gvn.removedInstructions", removedNum);
+        manager.count("gvn.removedLoads", removedLoadNum);
+        return removedNum > 0;
+    }
+
+    private int visit(BasicBlock block, int generation) { // 返回基本块末尾的内存版本
+        ArrayList<Instruction> instructions = block.getInstructions();
+        ArrayList<Instruction> removed = new ArrayList<>();
+        for (Instruction instruction : instructions) {
+            Value replacement = null;
+            switch (instruction.opcode) {
+                case PHI:
+                    replacement = trivialPhiValue(instruction);
+                    break;
+                case LOAD: {
+                    Value address = instruction.getOperand(0);
+                    AvailableLoad available = loads.get(address);
+                    if (available != null && available.generation == generation) {
+                        replacement = available.value;
+                        removedLoadNum++;
+                    }
+                    else {
+                        put(loads, address, new AvailableLoad(instruction, generation));
+                    }
+                    break;
+                }
+                case STORE:
+                    generation = ++generationCount;
+                    put(loads, instruction.getOperand(1), new AvailableLoad(instruction.getOperand(0), generation));
+                    break;
+                case CALL:
+                    generation = ++generationCount;
+                    break;
+                case ALLOCA:
+                case BR:
+                case RET:
+                    break;
+                default: { // 二元运算、icmp、类型转换和 getelementptr
+                    Expression expression = new Expression(instruction);
+                    Instruction existing = expressions.get(expression);
+                    if (existing != null) {
+                        replacement = existing;
+                    }
+                    else {
+                        put(expressions, expression, instruction);
+                    }
+                }
+            }
+            if (replacement != null) {
+                instruction.replaceAllUsesWith(replacement);
+                removed.add(instruction);
+            }
+        }
+        if (!removed.isEmpty()) {
+            instructions.removeAll(removed);
+            for (Instruction instruction : removed) {
+                Value[] operands = new Value[instruction.getOperandCount()];
+                for (int i = 0; i < operands.length; i++) {
+                    operands[i] = instruction.getOperand(i);
+                }
+                instruction.dropOperands();
+                for (Value operand : operands) { // 例如被删除的 load 的地址，遍历结束之后再检查，此时哈希表中可能还记录着它
+                    if (operand instanceof Instruction) {
+                        unusedCandidates.add(operand);
+                    }
+                }
+            }
+            removedNum += removed.size();
+        }
+        return generation;
+    }
+
+    private static Value trivialPhiValue(Instruction phi) { // 除了自身以外所有来源的值都相同时返回这个值
+        Value value = null;
+        for (int i = 0; i < phi.getIncomingCount(); i++) {
+            Value incoming = phi.getIncomingValue(i);
+            if (incoming == phi || incoming.equals(value)) {
+                continue;
+            }
+            if (value != null) {
+                return null;
+            }
+            value = incoming;
+        }
+        return value;
+    }
+
+    private <K, V> void put(HashMap<K, V> map, K key, V value) {
+        logKeys.add(key);
+        logValues.add(map.put(key, value));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void undo(int mark) {
+        for (int i = logKeys.size() - 1; i >= mark; i--) {
+            Object key = logKeys.remove(i);
+            Object oldValue = logValues.remove(i);
+            HashMap<Object, Object> map = key instanceof Expression ? (HashMap) expressions : (HashMap) loads;
+            if (oldValue == null) {
+                map.remove(key);
+            }
+            else {
+                map.put(key, oldValue);
+            }
+        }
+    }
+}
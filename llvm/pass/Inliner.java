@@ -0,0 +1,267 @@
+package llvm.pass;
+
+import llvm.ir.BasicBlock;
+import llvm.ir.Constant;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Value;
+import llvm.pass.LoopInfo.Loop;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// 函数内联：把调用点替换为被调用函数的函数体。被调用函数总是定义在调用者之前（不能互相递归），
+// 按源程序顺序优化相当于在调用图上自底向上处理：每个函数优化之后由 SaveBody 保存一份函数体副本，
+// 之后的调用者复制这份副本，其中它自己的调用已经内联过了。直接递归的函数和较大的函数不保存副本。
+// 代价模型：被调用函数的指令数，减去调用本身和传递实参的指令，常量实参之后可能折叠掉分支和运算，每个再减去一些；
+// 阈值随调用点所在的循环深度增加，循环中的调用执行次数多，值得付出更多的代码体积
+public class Inliner implements FunctionPass {
+
+    private static final int BASE_THRESHOLD = 30; // 不在循环中的调用点
+    private static final int LOOP_BONUS = 30; // 每层循环增加的阈值，最多计算 MAX_LOOP_DEPTH 层
+    private static final int MAX_LOOP_DEPTH = 3;
+    private static final int CONSTANT_ARGUMENT_BONUS = 10;
+    private static final int MAX_BODY_SIZE = 150; // 超过这个大小的函数在任何调用点都不会被内联，不保存副本
+    private static final int MAX_CALLER_SIZE = 3000; // 调用者增长到这个大小之后不再内联
+
+    private static final class CallSite {
+        private final Instruction call;
+        private final int loopDepth;
+
+        private CallSite(Instruction call, int loopDepth) {
+            this.call = call;
+            this.loopDepth = loopDepth;
+        }
+    }
+
+    @Override
+    public int revision() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(Function function, PassManager manager) {
+        ArrayList<CallSite> callSites = new ArrayList<>();
+        LoopInfo loopInfo = null;
+        int callerSize = 0;
+        for (BasicBlock block : function.getBlocks()) {
+            callerSize += block.getInstructions().size();
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction.opcode != Opcode.CALL) {
+                    continue;
+                }
+                Function callee = (Function) instruction.getOperand(0);
+                if (callee.isDeclaration() || callee == function) {
+                    continue;
+                }
+                if (loopInfo == null) {
+                    loopInfo = new LoopInfo(new DominatorTree(function));
+                }
+                Loop loop = loopInfo.loopFor(block);
+                callSites.add(new CallSite(instruction, loop == null ? 0 : loop.getDepth()));
+            }
+        }
+        int inlinedNum = 0;
+        int inlinedSize = 0;
+        for (CallSite callSite : callSites) { // 内联只会拆分基本块，之前计算的循环深度仍然有效
+            Function callee = (Function) callSite.call.getOperand(0);
+            ArrayList<BasicBlock> body = callee.awaitInlineBody();
+            if (body == null) {
+                continue;
+            }
+            int size = sizeOf(body);
+            if (callerSize + size > MAX_CALLER_SIZE || cost(callSite.call, size) > threshold(callSite.loopDepth)) {
+                continue;
+            }
+            inline(function, callSite.call, body, inlinedNum);
+            callerSize += size;
+            inlinedNum++;
+            inlinedSize += size;
+        }
+        manager.count("inliner.inlinedCalls", inlinedNum);
+        manager.count("inliner.inlinedInstructions", inlinedSize);
+        return inlinedNum > 0;
+    }
+
+    private static int cost(Instruction call, int size) {
+        int cost = size - call.getOperandCount(); // call 指令和每个实参
+        for (int i = 1; i < call.getOperandCount(); i++) {
+            if (call.getOperand(i) instanceof Constant) {
+                cost -= CONSTANT_ARGUMENT_BONUS;
+            }
+        }
+        return cost;
+    }
+
+    private static int threshold(int loopDepth) {
+        return BASE_THRESHOLD + LOOP_BONUS * Math.min(loopDepth, MAX_LOOP_DEPTH);
+    }
+
+    private static int sizeOf(ArrayList<BasicBlock> blocks) {
+        int size = 0;
+        for (BasicBlock block : blocks) {
+            size += block.getInstructions().size();
+        }
+        return size;
+    }
+
+    // 调用所在的基本块从 call 处拆成两半，后一半移到新的 exit 基本块，前一半跳转到复制出的入口基本块，
+    // 复制出的 ret 改为跳转到 exit，有多个 ret 时返回值在 exit 开头用 phi 合并。复制出的 alloca 移到调用者的入口基本块，
+    // 这样循环中的调用不会每次都分配新的栈空间
+    private static void inline(Function caller, Instruction call, ArrayList<BasicBlock> body, int inlineIndex) {
+        Function callee = (Function) call.getOperand(0);
+        BasicBlock block = call.getParent();
+        String prefix = callee.name + ".i" + inlineIndex + ".";
+        IdentityHashMap<Value, Value> valueMap = new IdentityHashMap<>();
+        for (int i = 0; i < callee.getArgumentCount(); i++) {
+            valueMap.put(callee.getArgument(i), call.getOperand(i + 1));
+        }
+        ArrayList<BasicBlock> clones = cloneBlocks(body, valueMap, caller, prefix);
+
+        BasicBlock exit = new BasicBlock(prefix + "exit", caller);
+        ArrayList<Instruction> instructions = block.getInstructions();
+        int callIndex = instructions.indexOf(call);
+        for (int i = callIndex + 1; i < instructions.size(); i++) {
+            exit.add(instructions.get(i));
+        }
+        instructions.subList(callIndex, instructions.size()).clear();
+        Instruction terminator = exit.getTerminator();
+        for (int i = 0; i < terminator.getSuccessorCount(); i++) { // 后继的 phi 中来源改为 exit
+            for (Instruction phi : terminator.getSuccessor(i).getInstructions()) {
+                if (phi.opcode != Opcode.PHI) {
+                    break;
+                }
+                for (int j = 0; j < phi.getIncomingCount(); j++) {
+                    if (phi.getIncomingBlock(j) == block) {
+                        phi.setOperand(j * 2 + 1, exit);
+                    }
+                }
+            }
+        }
+        block.add(Instruction.br(clones.get(0)));
+
+        Instruction returnPhi = call.hasResult() ? Instruction.phi(call.type) : null;
+        BasicBlock entry = caller.getEntryBlock();
+        int allocaNum = 0;
+        for (BasicBlock clone : clones) {
+            ArrayList<Instruction> cloneInstructions = clone.getInstructions();
+            for (int i = 0; i < cloneInstructions.size(); i++) {
+                Instruction instruction = cloneInstructions.get(i);
+                if (instruction.opcode == Opcode.ALLOCA) {
+                    cloneInstructions.remove(i--);
+                    entry.add(allocaNum++, instruction);
+                }
+            }
+            Instruction ret = clone.getTerminator();
+            if (ret.opcode == Opcode.RET) {
+                if (returnPhi != null) {
+                    returnPhi.addIncoming(ret.getOperand(0), clone);
+                }
+                ControlFlow.replaceTerminator(clone, Instruction.br(exit));
+            }
+        }
+        if (returnPhi != null) {
+            Value result = returnPhi;
+            if (returnPhi.getIncomingCount() == 0) { // 被调用函数不会返回，exit 不可达
+                result = Constant.of(call.type, 0);
+            }
+            else if (returnPhi.getIncomingCount() == 1) {
+                result = returnPhi.getIncomingValue(0);
+                returnPhi.dropOperands();
+            }
+            else {
+                exit.add(0, returnPhi);
+            }
+            call.replaceAllUsesWith(result);
+        }
+        call.dropOperands();
+
+        ArrayList<BasicBlock> blocks = caller.getBlocks();
+        int position = blocks.indexOf(block) + 1;
+        blocks.addAll(position, clones);
+        blocks.add(position + clones.size(), exit);
+    }
+
+    // 按 blocks 的顺序复制基本块和指令到 parent 中，valueMap 中预先放入需要替换的参数。
+    // blocks 按逆后序排列，除了 phi 以外每条指令的操作数都在它之前复制好了；phi 先创建，最后再添加来源
+    private static ArrayList<BasicBlock> cloneBlocks(ArrayList<BasicBlock> blocks, IdentityHashMap<Value, Value> valueMap,
+                                                     Function parent, String prefix) {
+        ArrayList<BasicBlock> clones = new ArrayList<>(blocks.size());
+        for (BasicBlock block : blocks) {
+            BasicBlock clone = new BasicBlock(prefix + block.name, parent);
+            valueMap.put(block, clone);
+            clones.add(clone);
+        }
+        ArrayList<Instruction> phis = new ArrayList<>();
+        for (int b = 0; b < blocks.size(); b++) {
+            for (Instruction instruction : blocks.get(b).getInstructions()) {
+                Instruction clone;
+                if (instruction.opcode == Opcode.PHI) {
+                    clone = instruction.copy();
+                    phis.add(instruction);
+                }
+                else {
+                    Value[] operands = new Value[instruction.getOperandCount()];
+                    for (int i = 0; i < operands.length; i++) {
+                        operands[i] = mapped(valueMap, instruction.getOperand(i));
+                    }
+                    clone = instruction.copy(operands);
+                }
+                valueMap.put(instruction, clone);
+                clones.get(b).add(clone);
+            }
+        }
+        for (Instruction phi : phis) {
+            Instruction clone = (Instruction) valueMap.get(phi);
+            for (int i = 0; i < phi.getIncomingCount(); i++) {
+                clone.addIncoming(mapped(valueMap, phi.getIncomingValue(i)), (BasicBlock) valueMap.get(phi.getIncomingBlock(i)));
+            }
+        }
+        return clones;
+    }
+
+    private static Value mapped(IdentityHashMap<Value, Value> valueMap, Value value) { // 常量、全局变量和函数不需要替换
+        Value clone = valueMap.get(value);
+        return clone == null ? value : clone;
+    }
+
+    // 放在其他优化遍之后、强度削减之前：保存的副本已经优化过，内联之后常量实参还能继续折叠其中的除法。
+    // 副本按逆后序保存，之后只会被读取，并行生成时可以被多个调用者同时复制
+    public static class SaveBody implements FunctionPass {
+
+        @Override
+        public int revision() {
+            return 1;
+        }
+
+        @Override
+        public boolean run(Function function, PassManager manager) {
+            if (function.name.equals("main")) {
+                return false;
+            }
+            DominatorTree tree = new DominatorTree(function);
+            int size = 0;
+            for (BasicBlock block : function.getBlocks()) {
+                for (Instruction instruction : block.getInstructions()) {
+                    if (instruction.opcode == Opcode.CALL && instruction.getOperand(0) == function) {
+                        return false; // 递归函数
+                    }
+                }
+                size += block.getInstructions().size();
+            }
+            // 入口基本块有前驱（整个函数是一个循环）时，调用者跳转到复制出的入口还需要修改其中的 phi，不内联这种函数
+            if (size > MAX_BODY_SIZE || tree.predecessorsOf(0).length > 0) {
+                return false;
+            }
+            ArrayList<BasicBlock> order = new ArrayList<>(tree.size());
+            for (int i = 0; i < tree.size(); i++) {
+                order.add(tree.get(i));
+            }
+            // 副本仍然使用原来的参数，内联时替换为实参
+            function.setInlineBody(cloneBlocks(order, new IdentityHashMap<>(), function, ""));
+            manager.count("inliner.savedBodies", 1);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package llvm.pass;
+
+import llvm.ir.Argument;
+import llvm.ir.BasicBlock;
+import llvm.ir.Constant;
+import llvm.ir.Function;
+import llvm.ir.GlobalVariable;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Value;
+import llvm.pass.LoopInfo.Loop;
+
+import java.util.ArrayList;
+
+// 循环不变量外提：先给没有前置基本块（preheader）的循环插入一个，再从内层循环到外层循环，
+// 把操作数都在循环外的无副作用指令移到前置基本块的末尾。外提之后即使循环一次都不执行也会执行这些指令，
+// 因此除法只在除数为非 0、非 -1 的常量，或者指令一定会执行（所在基本块支配循环的所有出口）时外提；
+// load 还要求地址一定有效，并且循环中没有可能写同一地址的 store，也没有调用可能修改内存的函数
+public class LICM implements FunctionPass {
+
+    @Override
+    public int revision() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(Function function, PassManager manager) {
+        DominatorTree tree = new DominatorTree(function);
+        LoopInfo loopInfo = new LoopInfo(tree);
+        if (loopInfo.getLoops().isEmpty()) {
+            return false;
+        }
+        ArrayList<BasicBlock> inserted = new ArrayList<>();
+        for (Loop loop : loopInfo.getLoops()) {
+            if (loop.getPreheader() == null && loop.header != function.getEntryBlock()) {
+                inserted.add(insertPreheader(function, loop));
+            }
+        }
+        if (!inserted.isEmpty()) { // 控制流图变了，重新计算
+            tree = new DominatorTree(function);
+            loopInfo = new LoopInfo(tree);
+        }
+        int hoistedNum = 0;
+        int hoistedLoadNum = 0;
+        for (Loop loop : loopInfo.getLoops()) {
+            BasicBlock preheader = loop.getPreheader();
+            if (preheader == null) {
+                continue;
+            }
+            ArrayList<Value> storeAddresses = new ArrayList<>();
+            boolean clobbersMemory = false; // 循环中调用了非库函数，可能修改任何全局变量和数组参数
+            ArrayList<BasicBlock> exitingBlocks = new ArrayList<>();
+            for (BasicBlock block : loop.getBlocks()) {
+                for (Instruction instruction : block.getInstructions()) {
+                    if (instruction.opcode == Opcode.STORE) {
+                        storeAddresses.add(instruction.getOperand(1));
+                    }
+                    else if (instruction.opcode == Opcode.CALL && !((Function) instruction.getOperand(0)).isDeclaration()) {
+                        clobbersMemory = true;
+                    }
+                }
+                Instruction terminator = block.getTerminator();
+                for (int i = 0; i < terminator.getSuccessorCount(); i++) {
+                    if (!loop.contains(terminator.getSuccessor(i))) {
+                        exitingBlocks.add(block);
+                        break;
+                    }
+                }
+            }
+            // 按逆后序处理，操作数所在的指令先被外提；一轮中外提的指令可能使之前检查过的指令变为不变量
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (BasicBlock block : loop.getBlocks()) {
+                    // 没有出口的循环中只有循环头一定会执行
+                    boolean guaranteed = exitingBlocks.isEmpty() ? block == loop.header : dominatesAll(tree, block, exitingBlocks);
+                    ArrayList<Instruction> instructions = block.getInstructions();
+                    for (int i = 0; i < instructions.size(); i++) {
+                        Instruction instruction = instructions.get(i);
+                        if (!isInvariant(loop, instruction) || !isSafeToHoist(instruction, guaranteed)) {
+                            continue;
+                        }
+                        if (instruction.opcode == Opcode.LOAD) {
+                            if (clobbersMemory || mayBeStored(instruction.getOperand(0), storeAddresses)) {
+                                continue;
+                            }
+                            hoistedLoadNum++;
+                        }
+                        instructions.remove(i--);
+                        preheader.add(preheader.getInstructions().size() - 1, instruction);
+                        hoistedNum++;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        int insertedNum = 0;
+        for (BasicBlock preheader : inserted) { // 没有外提任何指令的前置基本块只会多执行一次跳转，恢复原来的边
+            if (SimplifyCFG.forwardEmptyBlock(preheader)) {
+                function.getBlocks().remove(preheader);
+            }
+            else {
+                insertedNum++;
+            }
+        }
+        manager.count("licm.loops", loopInfo.getLoops().size());
+        manager.count("licm.insertedPreheaders", insertedNum);
+        manager.count("licm.hoistedInstructions", hoistedNum);
+        manager.count("licm.hoistedLoads", hoistedLoadNum);
+        return !inserted.isEmpty() || hoistedNum > 0;
+    }
+
+    // 循环外的前驱都改为跳转到新的前置基本块，循环头 phi 中来自这些前驱的值移到前置基本块中的 phi
+    private static BasicBlock insertPreheader(Function function, Loop loop) {
+        BasicBlock header = loop.header;
+        BasicBlock preheader = new BasicBlock(header.name + ".preheader", function);
+        ArrayList<BasicBlock> outside = new ArrayList<>();
+        for (BasicBlock predecessor : ControlFlow.predecessors(header)) {
+            if (!loop.contains(predecessor)) {
+                outside.add(predecessor);
+            }
+        }
+        for (BasicBlock predecessor : outside) {
+            Instruction terminator = predecessor.getTerminator();
+            for (int i = 0; i < terminator.getOperandCount(); i++) {
+                if (terminator.getOperand(i) == header) {
+                    terminator.setOperand(i, preheader);
+                }
+            }
+        }
+        for (Instruction phi : header.getInstructions()) {
+            if (phi.opcode != Opcode.PHI) {
+                break;
+            }
+            Instruction merged = Instruction.phi(phi.type);
+            for (int i = phi.getIncomingCount() - 1; i >= 0; i--) {
+                if (outside.contains(phi.getIncomingBlock(i))) {
+                    merged.addIncoming(phi.getIncomingValue(i), phi.getIncomingBlock(i));
+                    phi.removeIncoming(i);
+                }
+            }
+            Value value = merged;
+            if (merged.getIncomingCount() == 1 || allSame(merged)) { // 只有一个来源时不需要 phi
+                value = merged.getIncomingValue(0);
+                merged.dropOperands();
+            }
+            else {
+                preheader.add(merged);
+            }
+            phi.addIncoming(value, preheader);
+        }
+        preheader.add(Instruction.br(header));
+        ArrayList<BasicBlock> blocks = function.getBlocks();
+        blocks.add(blocks.indexOf(header), preheader);
+        return preheader;
+    }
+
+    private static boolean allSame(Instruction phi) {
+        for (int i = 1; i < phi.getIncomingCount(); i++) {
+            if (!phi.getIncomingValue(i).equals(phi.getIncomingValue(0))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean dominatesAll(DominatorTree tree, BasicBlock block, ArrayList<BasicBlock> blocks) {
+        for (BasicBlock other : blocks) {
+            if (!tree.dominates(block, other)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isInvariant(Loop loop, Instruction instruction) {
+        for (int i = 0; i < instruction.getOperandCount(); i++) {
+            Value operand = instruction.getOperand(i);
+            if (operand instanceof Instruction && loop.contains(((Instruction) operand).getParent())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSafeToHoist(Instruction instruction, boolean guaranteed) {
+        Opcode opcode = instruction.opcode;
+        if (opcode == Opcode.SDIV || opcode == Opcode.SREM) {
+            Value divisor = instruction.getOperand(1);
+            return guaranteed || (divisor instanceof Constant && ((Constant) divisor).value != 0 && ((Constant) divisor).value != -1);
+        }
+        if (opcode == Opcode.LOAD) {
+            return guaranteed || isDereferenceable(instruction.getOperand(0));
+        }
+        return opcode.isBinary() || opcode.isCast() || opcode == Opcode.ICMP || opcode == Opcode.GETELEMENTPTR;
+    }
+
+    private static boolean isDereferenceable(Value address) { // 全局变量、alloca，或者用常量下标访问它们的数组元素
+        if (address instanceof GlobalVariable || isAlloca(address)) {
+            return true;
+        }
+        if (!(address instanceof Instruction) || ((Instruction) address).opcode != Opcode.GETELEMENTPTR) {
+            return false;
+        }
+        Instruction gep = (Instruction) address;
+        Value base = gep.getOperand(0);
+        if (gep.getOperandCount() != 3 || !(base instanceof GlobalVariable || isAlloca(base))) {
+            return false;
+        }
+        if (!(gep.getOperand(1) instanceof Constant) || !(gep.getOperand(2) instanceof Constant)) {
+            return false;
+        }
+        int index = ((Constant) gep.getOperand(2)).value;
+        return ((Constant) gep.getOperand(1)).value == 0 && index >= 0 && index < base.type.pointee().arrayLength;
+    }
+
+    private static boolean isAlloca(Value value) {
+        return value instanceof Instruction && ((Instruction) value).opcode == Opcode.ALLOCA;
+    }
+
+    private static boolean mayBeStored(Value address, ArrayList<Value> storeAddresses) {
+        for (Value storeAddress : storeAddresses) {
+            if (mayAlias(address, storeAddress)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 简单的别名分析：沿 getelementptr 找到基地址，不同的全局变量和 alloca 互不重叠，
+    // 数组参数可能指向任何全局数组或者另一个数组参数，但不会指向本函数的 alloca；基地址相同时比较常量偏移
+    private static boolean mayAlias(Value a, Value b) {
+        Value rootA = root(a);
+        Value rootB = root(b);
+        if (rootA == rootB) {
+            Integer offsetA = offset(a);
+            Integer offsetB = offset(b);
+            return offsetA == null || offsetB == null || offsetA.equals(offsetB);
+        }
+        boolean identifiedA = rootA instanceof GlobalVariable || isAlloca(rootA);
+        boolean identifiedB = rootB instanceof GlobalVariable || isAlloca(rootB);
+        if (identifiedA && identifiedB) {
+            return false;
+        }
+        return !(isAlloca(rootA) && rootB instanceof Argument) && !(isAlloca(rootB) && rootA instanceof Argument);
+    }
+
+    private static Value root(Value address) {
+        while (address instanceof Instruction && ((Instruction) address).opcode == Opcode.GETELEMENTPTR) {
+            address = ((Instruction) address).getOperand(0);
+        }
+        return address;
+    }
+
+    private static Integer offset(Value address) { // 相对于基地址的元素个数，下标不全是常量时返回 null
+        int offset = 0;
+        while (address instanceof Instruction && ((Instruction) address).opcode == Opcode.GETELEMENTPTR) {
+            Instruction gep = (Instruction) address;
+            Integer arrayLength = gep.getOperand(0).type.pointee().arrayLength;
+            for (int i = 1; i < gep.getOperandCount(); i++) {
+                if (!(gep.getOperand(i) instanceof Constant)) {
+                    return null;
+                }
+                int index = ((Constant) gep.getOperand(i)).value;
+                // 两个下标时第一个下标以整个数组为单位
+                offset += (i == 1 && gep.getOperandCount() == 3) ? index * arrayLength : index;
+            }
+            address = gep.getOperand(0);
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,129 @@
+package llvm.pass;
+
+import llvm.ir.BasicBlock;
+
+import java.util.ArrayList;
+
+// 函数中的自然循环：支配树中目标支配来源的边 n -> h 为回边，h 为循环头，
+// 循环体为能够不经过 h 到达 n 的基本块加上 h 本身。循环头相同的回边属于同一个循环。
+// 基本块按 DominatorTree 中的编号记录，控制流图变化之后需要和支配树一起重新计算
+public class LoopInfo {
+
+    public static class Loop {
+        public final BasicBlock header;
+        private final boolean[] contains; // 按基本块的编号
+        private final ArrayList<BasicBlock> blocks = new ArrayList<>(); // 按逆后序
+        private Loop parent;
+        private int depth = 1;
+
+        private Loop(BasicBlock header, int blockNum) {
+            this.header = header;
+            this.contains = new boolean[blockNum];
+        }
+
+        public boolean contains(BasicBlock block) {
+            return block.index >= 0 && contains[block.index];
+        }
+
+        public ArrayList<BasicBlock> getBlocks() {
+            return blocks;
+        }
+
+        public Loop getParent() {
+            return parent;
+        }
+
+        public int getDepth() { // 最外层循环为 1
+            return depth;
+        }
+
+        // 循环外跳转到循环头的基本块中，唯一的一个以无条件跳转结尾的基本块；没有时返回 null
+        public BasicBlock getPreheader() {
+            BasicBlock preheader = null;
+            for (BasicBlock predecessor : ControlFlow.predecessors(header)) {
+                if (contains(predecessor)) {
+                    continue;
+                }
+                if (preheader != null) {
+                    return null;
+                }
+                preheader = predecessor;
+            }
+            if (preheader == null || preheader.getTerminator().getSuccessorCount() != 1) {
+                return null;
+            }
+            return preheader;
+        }
+    }
+
+    private final ArrayList<Loop> loops = new ArrayList<>(); // 内层循环在外层循环之前
+
+    public LoopInfo(DominatorTree tree) {
+        int blockNum = tree.size();
+        int[] worklist = new int[blockNum];
+        for (int h = 0; h < blockNum; h++) {
+            BasicBlock header = tree.get(h);
+            Loop loop = null;
+            int size = 0;
+            for (int n : tree.predecessorsOf(h)) {
+                if (!tree.dominates(header, tree.get(n))) {
+                    continue;
+                }
+                if (loop == null) {
+                    loop = new Loop(header, blockNum);
+                    loop.contains[h] = true;
+                }
+                if (!loop.contains[n]) {
+                    loop.contains[n] = true;
+                    worklist[size++] = n;
+                }
+            }
+            if (loop == null) {
+                continue;
+            }
+            while (size > 0) {
+                int b = worklist[--size];
+                for (int p : tree.predecessorsOf(b)) {
+                    if (!loop.contains[p]) {
+                        loop.contains[p] = true;
+                        worklist[size++] = p;
+                    }
+                }
+            }
+            for (int b = 0; b < blockNum; b++) {
+                if (loop.contains[b]) {
+                    loop.blocks.add(tree.get(b));
+                }
+            }
+            loops.add(loop);
+        }
+        // 外层循环是包含它的循环中最小的一个，按基本块数量从小到大排列之后第一个包含它的即是
+        loops.sort((a, b) -> a.blocks.size() - b.blocks.size());
+        for (int i = 0; i < loops.size(); i++) {
+            Loop loop = loops.get(i);
+            for (int j = i + 1; j < loops.size(); j++) {
+                if (loops.get(j).contains(loop.header)) {
+                    loop.parent = loops.get(j);
+                    break;
+                }
+            }
+        }
+        for (int i = loops.size() - 1; i >= 0; i--) { // 外层循环先确定深度
+            Loop loop = loops.get(i);
+            loop.depth = loop.parent == null ? 1 : loop.parent.depth + 1;
+        }
+    }
+
+    public ArrayList<Loop> getLoops() { // 内层循环在外层循环之前
+        return loops;
+    }
+
+    public Loop loopFor(BasicBlock block) { // 包含 block 的最内层循环，不在循环中时返回 null
+        for (Loop loop : loops) {
+            if (loop.contains(block)) {
+                return loop;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,282 @@
+package llvm.pass;
+
+import llvm.Type;
+import llvm.ir.BasicBlock;
+import llvm.ir.Constant;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// 把只通过 load 和 store 访问的非数组局部变量（包括参数的副本和返回值）提升为虚拟寄存器：
+// 在存储所在基本块的迭代支配边界上放置 phi 指令（只放在变量活跃的基本块，即 pruned SSA），
+// 然后沿支配树先序遍历，把每个 load 替换为到达它的值，最后删除这些 alloca、load 和 store
+public class Mem2Reg implements FunctionPass {
+
+    @Override
+    public int revision() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(Function function, PassManager manager) {
+        boolean changed = ControlFlow.removeUnreachableBlocks(function); // 支配树只包含可达的基本块
+        HashMap<Instruction, Integer> variables = new HashMap<>();
+        ArrayList<Instruction> allocas = new ArrayList<>();
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction.opcode == Opcode.ALLOCA && isPromotable(instruction)) {
+                    variables.put(instruction, allocas.size());
+                    allocas.add(instruction);
+                }
+            }
+        }
+        if (allocas.isEmpty()) {
+            return changed;
+        }
+        DominatorTree tree = new DominatorTree(function);
+        int blockNum = tree.size();
+        int variableNum = allocas.size();
+
+        // 每个变量被存储的基本块，以及在存储之前就被读取（入口处活跃）的基本块
+        ArrayList<int[]> defBlocks = new ArrayList<>(variableNum);
+        ArrayList<int[]> useBlocks = new ArrayList<>(variableNum);
+        int[] defNum = new int[variableNum];
+        int[] useNum = new int[variableNum];
+        int[] lastDef = new int[variableNum]; // 最近一次存储所在的基本块
+        int[] lastUse = new int[variableNum];
+        for (int v = 0; v < variableNum; v++) {
+            defBlocks.add(new int[2]);
+            useBlocks.add(new int[2]);
+        }
+        Arrays.fill(lastDef, -1);
+        Arrays.fill(lastUse, -1);
+        for (int b = 0; b < blockNum; b++) {
+            for (Instruction instruction : tree.get(b).getInstructions()) {
+                if (instruction.opcode == Opcode.STORE) {
+                    Integer v = variables.get(instruction.getOperand(1));
+                    if (v != null && lastDef[v] != b) {
+                        lastDef[v] = b;
+                        defBlocks.set(v, append(defBlocks.get(v), defNum[v]++, b));
+                    }
+                }
+                else if (instruction.opcode == Opcode.LOAD) {
+                    Integer v = variables.get(instruction.getOperand(0));
+                    if (v != null && lastDef[v] != b && lastUse[v] != b) {
+                        lastUse[v] = b;
+                        useBlocks.set(v, append(useBlocks.get(v), useNum[v]++, b));
+                    }
+                }
+            }
+        }
+
+        // 放置 phi 指令
+        int[][] frontiers = tree.dominanceFrontiers();
+        ArrayList<ArrayList<Instruction>> blockPhis = new ArrayList<>(blockNum); // 每个基本块开头新放置的 phi
+        for (int b = 0; b < blockNum; b++) {
+            blockPhis.add(null);
+        }
+        HashMap<Instruction, Integer> phiVariables = new HashMap<>();
+        int[] liveMark = new int[blockNum]; // 以变量编号 + 1 作为标记，不需要为每个变量清空
+        int[] defMark = new int[blockNum];
+        int[] phiMark = new int[blockNum];
+        int[] worklist = new int[blockNum];
+        for (int v = 0; v < variableNum; v++) {
+            if (useNum[v] == 0) { // 每次读取之前在同一个基本块中都有存储，不需要 phi
+                continue;
+            }
+            int mark = v + 1;
+            int[] defs = defBlocks.get(v);
+            for (int i = 0; i < defNum[v]; i++) {
+                defMark[defs[i]] = mark;
+            }
+            // 变量在入口处活跃的基本块：从读取处沿前驱反向传播，遇到存储的基本块为止
+            int size = 0;
+            int[] uses = useBlocks.get(v);
+            for (int i = 0; i < useNum[v]; i++) {
+                liveMark[uses[i]] = mark;
+                worklist[size++] = uses[i];
+            }
+            while (size > 0) {
+                int b = worklist[--size];
+                for (int p : tree.predecessorsOf(b)) {
+                    if (liveMark[p] != mark && defMark[p] != mark) {
+                        liveMark[p] = mark;
+                        worklist[size++] = p;
+                    }
+                }
+            }
+            // 迭代支配边界，新放置的 phi 也是一次存储
+            size = 0;
+            for (int i = 0; i < defNum[v]; i++) {
+                worklist[size++] = defs[i];
+            }
+            Type type = allocas.get(v).type.pointee();
+            while (size > 0) {
+                int b = worklist[--size];
+                for (int x : frontiers[b]) {
+                    if (phiMark[x] == mark || liveMark[x] != mark) {
+                        continue;
+                    }
+                    phiMark[x] = mark;
+                    Instruction phi = Instruction.phi(type);
+                    if (blockPhis.get(x) == null) {
+                        blockPhis.set(x, new ArrayList<>());
+                    }
+                    blockPhis.get(x).add(phi);
+                    phiVariables.put(phi, v);
+                    if (defMark[x] != mark) {
+                        worklist[size++] = x;
+                    }
+                }
+            }
+        }
+        for (int b = 0; b < blockNum; b++) {
+            ArrayList<Instruction> phis = blockPhis.get(b);
+            if (phis != null) {
+                for (int i = 0; i < phis.size(); i++) {
+                    tree.get(b).add(i, phis.get(i));
+                }
+            }
+        }
+
+        rename(tree, variables, phiVariables, allocas);
+
+        int removedNum = 0;
+        for (BasicBlock block : function.getBlocks()) {
+            ArrayList<Instruction> instructions = block.getInstructions();
+            int kept = 0;
+            for (Instruction instruction : instructions) {
+                boolean promoted = (instruction.opcode == Opcode.LOAD && variables.containsKey(instruction.getOperand(0)))
+                    || (instruction.opcode == Opcode.STORE && variables.containsKey(instruction.getOperand(1)))
+                    || variables.containsKey(instruction);
+                if (promoted) {
+                    instruction.dropOperands();
+                    removedNum++;
+                }
+                else {
+                    instructions.set(kept++, instruction);
+                }
+            }
+            instructions.subList(kept, instructions.size()).clear();
+        }
+        manager.count("mem2reg.promotedAllocas", variableNum);
+        manager.count("mem2reg.insertedPhis", phiVariables.size());
+        manager.count("mem2reg.removedInstructions", removedNum);
+        return true;
+    }
+
+    private static boolean isPromotable(Instruction alloca) {
+        if (alloca.type.pointee().arrayLength != null) {
+            return false;
+        }
+        for (int i = 0; i < alloca.getUserCount(); i++) {
+            Instruction user = alloca.getUser(i);
+            boolean isAddress = (user.opcode == Opcode.LOAD)
+                || (user.opcode == Opcode.STORE && user.getOperand(1) == alloca && user.getOperand(0) != alloca);
+            if (!isAddress) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] append(int[] array, int size, int value) {
+        if (size == array.length) {
+            array = Arrays.copyOf(array, size * 2);
+        }
+        array[size] = value;
+        return array;
+    }
+
+    // 沿支配树先序遍历，current 为每个变量在当前位置的值，离开一个基本块时按日志恢复进入时的值。
+    // 没有被存储过就读取的变量取 0（原来的 alloca 是未初始化的内存）
+    private static void rename(DominatorTree tree, HashMap<Instruction, Integer> variables,
+                               HashMap<Instruction, Integer> phiVariables, ArrayList<Instruction> allocas) {
+        Value[] current = new Value[allocas.size()];
+        for (int v = 0; v < current.length; v++) {
+            current[v] = Constant.of(allocas.get(v).type.pointee(), 0);
+        }
+        int[] logVariables = new int[16];
+        Value[] logValues = new Value[16];
+        int logSize = 0;
+        int blockNum = tree.size();
+        int[] stack = new int[blockNum];
+        int[] logMarks = new int[blockNum]; // 进入每个基本块时的日志长度
+        int[] nextChild = new int[blockNum];
+        int top = 0;
+        stack[top++] = 0;
+        boolean entering = true;
+        while (top > 0) {
+            int b = stack[top - 1];
+            if (entering) {
+                logMarks[top - 1] = logSize;
+                nextChild[top - 1] = 0;
+                BasicBlock block = tree.get(b);
+                for (Instruction instruction : block.getInstructions()) {
+                    int v = -1;
+                    Value value = null;
+                    if (instruction.opcode == Opcode.PHI) {
+                        Integer phiVariable = phiVariables.get(instruction);
+                        if (phiVariable != null) {
+                            v = phiVariable;
+                            value = instruction;
+                        }
+                    }
+                    else if (instruction.opcode == Opcode.LOAD) {
+                        Integer loadVariable = variables.get(instruction.getOperand(0));
+                        if (loadVariable != null) {
+                            instruction.replaceAllUsesWith(current[loadVariable]);
+                        }
+                    }
+                    else if (instruction.opcode == Opcode.STORE) {
+                        Integer storeVariable = variables.get(instruction.getOperand(1));
+                        if (storeVariable != null) {
+                            v = storeVariable;
+                            value = instruction.getOperand(0);
+                        }
+                    }
+                    if (v >= 0) {
+                        if (logSize == logVariables.length) {
+                            logVariables = Arrays.copyOf(logVariables, logSize * 2);
+                            logValues = Arrays.copyOf(logValues, logSize * 2);
+                        }
+                        logVariables[logSize] = v;
+                        logValues[logSize++] = current[v];
+                        current[v] = value;
+                    }
+                }
+                Instruction terminator = block.getTerminator();
+                for (int i = 0; terminator != null && i < terminator.getSuccessorCount(); i++) {
+                    for (Instruction instruction : terminator.getSuccessor(i).getInstructions()) {
+                        if (instruction.opcode != Opcode.PHI) {
+                            break;
+                        }
+                        Integer phiVariable = phiVariables.get(instruction);
+                        if (phiVariable != null) {
+                            instruction.addIncoming(current[phiVariable], block);
+                        }
+                    }
+                }
+            }
+            int[] children = tree.childrenOf(b);
+            if (nextChild[top - 1] < children.length) {
+                stack[top++] = children[nextChild[top - 2]++];
+                entering = true;
+            }
+            else {
+                top--;
+                while (logSize > logMarks[top]) {
+                    logSize--;
+                    current[logVariables[logSize]] = logValues[logSize];
+                    logValues[logSize] = null;
+                }
+                entering = false;
+            }
+        }
+    }
+}
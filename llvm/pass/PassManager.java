@@ -0,0 +1,60 @@
+package llvm.pass;
+
+import llvm.ir.Function;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 按顺序对每个函数运行各个优化遍，并汇总各遍记录的统计信息。每个 IRGenerator 各有一个，不在线程之间共享
+public class PassManager {
+
+    private final ArrayList<FunctionPass> passes = new ArrayList<>();
+    private final LinkedHashMap<String, Long> statistics = new LinkedHashMap<>();
+
+    public static PassManager createDefault() { // 默认的优化流程，-O0 时不使用
+        PassManager manager = new PassManager();
+        manager.add(new Mem2Reg());
+        manager.add(new Inliner());
+        manager.add(new SCCP());
+        manager.add(new DCE());
+        manager.add(new SimplifyCFG());
+        manager.add(new TailRecursion());
+        manager.add(new GVN());
+        manager.add(new LICM());
+        manager.add(new Inliner.SaveBody());
+        manager.add(new StrengthReduction());
+        return manager;
+    }
+
+    public void add(FunctionPass pass) {
+        passes.add(pass);
+    }
+
+    // 优化流程的标识：按顺序列出各遍的名字和修订号，例如 "Mem2Reg.1,Inliner.1,..."
+    public String getKey() {
+        StringBuilder key = new StringBuilder();
+        for (FunctionPass pass : passes) {
+            key.append(key.length() == 0 ? "" : ",").append(pass.getClass().getSimpleName()).append('.').append(pass.revision());
+        }
+        return key.toString();
+    }
+
+    public void run(Function function) {
+        for (FunctionPass pass : passes) {
+            pass.run(function, this);
+        }
+    }
+
+    public void count(String name, long value) { // 同名计数累加
+        statistics.merge(name, value, Long::sum);
+    }
+
+    public void merge(PassManager other) { // 并行生成时把各个线程的统计信息汇总到一起
+        other.statistics.forEach(this::count);
+    }
+
+    public Map<String, Long> getStatistics() {
+        return statistics;
+    }
+}
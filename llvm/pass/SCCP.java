@@ -0,0 +1,307 @@
+package llvm.pass;
+
+import llvm.Type;
+import llvm.ir.BasicBlock;
+import llvm.ir.Constant;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Value;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+// 稀疏条件常量传播（Wegman 和 Zadeck 的算法）：只沿着可能执行的控制流边传播常量，
+// 条件为常量的跳转只有一个后继可执行。结束后把值为常量的指令替换为常量，条件为常量的跳转改为无条件跳转，
+// 再删除不可执行的基本块。Mem2Reg 之后局部变量已经是虚拟寄存器，通过赋值得到的常量也能传播
+public class SCCP implements FunctionPass {
+
+    // 格上的三种状态：尚未确定、常量、不是常量
+    private static final byte UNDEFINED = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte OVERDEFINED = 2;
+
+    private byte[] states; // 按指令的 index 保存
+    private int[] values;
+    private boolean[] executable; // 按基本块的 index 保存
+    private byte[] executableEdges; // 基本块跳转指令的第 i 个后继可执行时第 i 位为 1
+    private final ArrayDeque<BasicBlock> blockWorklist = new ArrayDeque<>();
+    private final ArrayDeque<Instruction> instructionWorklist = new ArrayDeque<>();
+
+    @Override
+    public int revision() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(Function function, PassManager manager) {
+        ArrayList<BasicBlock> blocks = function.getBlocks();
+        int instructionNum = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            blocks.get(i).index = i;
+            for (Instruction instruction : blocks.get(i).getInstructions()) {
+                instruction.index = instructionNum++;
+            }
+        }
+        states = new byte[instructionNum];
+        values = new int[instructionNum];
+        executable = new boolean[blocks.size()];
+        executableEdges = new byte[blocks.size()];
+
+        executable[0] = true;
+        blockWorklist.add(blocks.get(0));
+        while (!blockWorklist.isEmpty() || !instructionWorklist.isEmpty()) {
+            while (!instructionWorklist.isEmpty()) { // 值发生变化的指令，重新计算可执行基本块中的使用者
+                Instruction instruction = instructionWorklist.poll();
+                for (int i = 0; i < instruction.getUserCount(); i++) {
+                    Instruction user = instruction.getUser(i);
+                    if (executable[user.getParent().index]) {
+                        visit(user);
+                    }
+                }
+            }
+            if (!blockWorklist.isEmpty()) {
+                for (Instruction instruction : blockWorklist.poll().getInstructions()) {
+                    visit(instruction);
+                }
+            }
+        }
+
+        // 改写函数
+        int foldedNum = 0;
+        int foldedBranchNum = 0;
+        for (BasicBlock block : blocks) {
+            if (!executable[block.index]) {
+                continue;
+            }
+            ArrayList<Instruction> instructions = block.getInstructions();
+            int kept = 0;
+            for (Instruction instruction : instructions) {
+                if (instruction.hasResult() && states[instruction.index] == CONSTANT) {
+                    instruction.replaceAllUsesWith(Constant.of(instruction.type, values[instruction.index]));
+                    instruction.dropOperands();
+                    foldedNum++;
+                }
+                else {
+                    instructions.set(kept++, instruction);
+                }
+            }
+            instructions.subList(kept, instructions.size()).clear();
+            Instruction terminator = block.getTerminator();
+            if (terminator != null && terminator.getSuccessorCount() == 2 && executableEdges[block.index] != 3) {
+                // 条件为常量，或者所在的分支不会执行到（此时两个后继都不可执行，任选一个，之后会一起被删除）
+                int taken = executableEdges[block.index] == 2 ? 1 : 0;
+                BasicBlock target = terminator.getSuccessor(taken);
+                ControlFlow.removeIncoming(terminator.getSuccessor(1 - taken), block);
+                ControlFlow.replaceTerminator(block, Instruction.br(target));
+                foldedBranchNum++;
+            }
+        }
+        int blockNum = blocks.size();
+        ControlFlow.removeUnreachableBlocks(function);
+        int removedBlockNum = blockNum - blocks.size();
+        int remainingNum = 0;
+        for (BasicBlock block : blocks) {
+            remainingNum += block.getInstructions().size();
+        }
+        states = null;
+        values = null;
+        executable = null;
+        executableEdges = null;
+        manager.count("sccp.foldedInstructions", foldedNum);
+        manager.count("sccp.foldedBranches", foldedBranchNum);
+        manager.count("sccp.removedBlocks", removedBlockNum);
+        manager.count("sccp.removedInstructions", instructionNum - remainingNum);
+        return instructionNum != remainingNum || foldedBranchNum > 0;
+    }
+
+    private void markEdge(BasicBlock block, int successorIndex) {
+        int bit = 1 << successorIndex;
+        if ((executableEdges[block.index] & bit) != 0) {
+            return;
+        }
+        executableEdges[block.index] |= bit;
+        BasicBlock successor = block.getTerminator().getSuccessor(successorIndex);
+        if (!executable[successor.index]) {
+            executable[successor.index] = true;
+            blockWorklist.add(successor);
+        }
+        else { // 新的一条边可执行，phi 指令需要重新计算
+            for (Instruction instruction : successor.getInstructions()) {
+                if (instruction.opcode != Opcode.PHI) {
+                    break;
+                }
+                visit(instruction);
+            }
+        }
+    }
+
+    private boolean isEdgeExecutable(BasicBlock from, BasicBlock to) {
+        Instruction terminator = from.getTerminator();
+        for (int i = 0; i < terminator.getSuccessorCount(); i++) {
+            if (terminator.getSuccessor(i) == to && (executableEdges[from.index] & (1 << i)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte stateOf(Value value) {
+        if (value instanceof Constant) {
+            return CONSTANT;
+        }
+        if (value instanceof Instruction) {
+            return states[((Instruction) value).index];
+        }
+        return OVERDEFINED; // 参数、全局变量等
+    }
+
+    private int valueOf(Value value) {
+        return value instanceof Constant ? ((Constant) value).value : values[((Instruction) value).index];
+    }
+
+    private void visit(Instruction instruction) {
+        switch (instruction.opcode) {
+            case BR:
+                if (instruction.getSuccessorCount() == 1) {
+                    markEdge(instruction.getParent(), 0);
+                }
+                else {
+                    Value condition = instruction.getOperand(0);
+                    byte state = stateOf(condition);
+                    if (state == OVERDEFINED) {
+                        markEdge(instruction.getParent(), 0);
+                        markEdge(instruction.getParent(), 1);
+                    }
+                    else if (state == CONSTANT) {
+                        markEdge(instruction.getParent(), valueOf(condition) != 0 ? 0 : 1);
+                    }
+                }
+                return;
+            case PHI:
+                visitPhi(instruction);
+                return;
+            default:
+                if (!instruction.hasResult() || states[instruction.index] == OVERDEFINED) {
+                    return;
+                }
+                if (!instruction.opcode.isBinary() && !instruction.opcode.isCast() && instruction.opcode != Opcode.ICMP) {
+                    update(instruction, OVERDEFINED, 0); // load、call 等
+                    return;
+                }
+                if (instruction.type == Type.i64() || instruction.getOperand(0).type == Type.i64()) {
+                    update(instruction, OVERDEFINED, 0); // i64 的值用 int 保存不下
+                    return;
+                }
+                byte state = UNDEFINED;
+                for (int i = 0; i < instruction.getOperandCount(); i++) {
+                    state = (byte) Math.max(state, stateOf(instruction.getOperand(i)));
+                }
+                if (state != CONSTANT) {
+                    update(instruction, state, 0);
+                    return;
+                }
+                int lhs = valueOf(instruction.getOperand(0));
+                if (instruction.opcode.isCast()) {
+                    update(instruction, CONSTANT, cast(instruction.opcode, instruction.getOperand(0).type, instruction.type, lhs));
+                    return;
+                }
+                int rhs = valueOf(instruction.getOperand(1));
+                if (instruction.opcode == Opcode.ICMP) {
+                    update(instruction, CONSTANT, compare(instruction.getPredicate(), lhs, rhs) ? 1 : 0);
+                }
+                else if ((instruction.opcode == Opcode.SDIV || instruction.opcode == Opcode.SREM)
+                    && (rhs == 0 || (lhs == Integer.MIN_VALUE && rhs == -1))) {
+                    update(instruction, OVERDEFINED, 0); // 运行时的未定义行为，保持原样
+                }
+                else {
+                    update(instruction, CONSTANT, truncate(instruction.type, evaluate(instruction.opcode, lhs, rhs)));
+                }
+        }
+    }
+
+    private void visitPhi(Instruction phi) {
+        if (states[phi.index] == OVERDEFINED) {
+            return;
+        }
+        byte state = UNDEFINED;
+        int value = 0;
+        for (int i = 0; i < phi.getIncomingCount(); i++) {
+            if (!isEdgeExecutable(phi.getIncomingBlock(i), phi.getParent())) {
+                continue;
+            }
+            Value incoming = phi.getIncomingValue(i);
+            byte incomingState = stateOf(incoming);
+            if (incomingState == OVERDEFINED || (incomingState == CONSTANT && state == CONSTANT && valueOf(incoming) != value)) {
+                state = OVERDEFINED;
+                break;
+            }
+            if (incomingState == CONSTANT) {
+                state = CONSTANT;
+                value = valueOf(incoming);
+            }
+        }
+        update(phi, state, value);
+    }
+
+    private void update(Instruction instruction, byte state, int value) { // 状态只会沿格下降
+        byte oldState = states[instruction.index];
+        if (oldState == CONSTANT && state == CONSTANT && values[instruction.index] != value) {
+            state = OVERDEFINED;
+        }
+        if (state <= oldState) {
+            return;
+        }
+        states[instruction.index] = state;
+        values[instruction.index] = value;
+        instructionWorklist.add(instruction);
+    }
+
+    private static int evaluate(Opcode opcode, int lhs, int rhs) {
+        switch (opcode) {
+            case ADD: return lhs + rhs;
+            case SUB: return lhs - rhs;
+            case MUL: return lhs * rhs;
+            case SDIV: return lhs / rhs;
+            case SREM: return lhs % rhs;
+            case SHL: return lhs << rhs;
+            case ASHR: return lhs >> rhs;
+            case LSHR: return lhs >>> rhs;
+            case AND: return lhs & rhs;
+            case OR: return lhs | rhs;
+            case XOR: return lhs ^ rhs;
+            default: throw new IllegalArgumentException("不是二元运算: " + opcode);
+        }
+    }
+
+    private static boolean compare(Instruction.Predicate predicate, int lhs, int rhs) {
+        switch (predicate) {
+            case EQ: return lhs == rhs;
+            case NE: return lhs != rhs;
+            case SLT: return lhs < rhs;
+            case SLE: return lhs <= rhs;
+            case SGT: return lhs > rhs;
+            default: return lhs >= rhs;
+        }
+    }
+
+    private static int cast(Opcode opcode, Type from, Type to, int value) {
+        if (opcode == Opcode.ZEXT) {
+            return from == Type.i1() ? value & 1 : value & 0xff;
+        }
+        if (opcode == Opcode.SEXT) {
+            return from == Type.i1() ? -(value & 1) : (byte) value;
+        }
+        return truncate(to, value);
+    }
+
+    private static int truncate(Type type, int value) { // 把结果截断到类型的位宽，i8 按有符号数保存
+        if (type == Type.i1()) {
+            return value & 1;
+        }
+        if (type == Type.i8()) {
+            return (byte) value;
+        }
+        return value;
+    }
+}
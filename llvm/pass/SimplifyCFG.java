@@ -0,0 +1,191 @@
+package llvm.pass;
+
+import llvm.ir.BasicBlock;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Value;
+
+import java.util.ArrayList;
+
+// 控制流图化简，反复进行以下变换直到不再变化：
+//   两个目标相同的条件跳转改为无条件跳转
+//   只有一条无条件跳转的基本块：前驱直接跳转到它的目标（跳转到跳转），没有前驱之后删除
+//   以无条件跳转结尾的基本块与它唯一的后继（后继只有这一个前驱）合并为一个基本块
+// 短路求值和 if、for 语句生成的大量只有一条跳转指令的基本块都在这里去掉
+public class SimplifyCFG implements FunctionPass {
+
+    @Override
+    public int revision() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(Function function, PassManager manager) {
+        ArrayList<BasicBlock> blocks = function.getBlocks();
+        int blockNum = blocks.size();
+        int foldedNum = 0;
+        int forwardedNum = 0;
+        int mergedNum = 0;
+        boolean changed = ControlFlow.removeUnreachableBlocks(function);
+        boolean changedThisRound = true;
+        while (changedThisRound) {
+            changedThisRound = false;
+            for (BasicBlock block : blocks) {
+                if (foldIdenticalTargets(block)) {
+                    foldedNum++;
+                    changedThisRound = true;
+                }
+            }
+            for (int i = 1; i < blocks.size(); i++) { // 入口基本块没有前驱，不需要转发
+                if (forwardEmptyBlock(blocks.get(i))) {
+                    blocks.remove(i--);
+                    forwardedNum++;
+                    changedThisRound = true;
+                }
+            }
+            for (int i = 0; i < blocks.size(); i++) {
+                BasicBlock successor = mergeSuccessor(blocks.get(i));
+                if (successor != null) {
+                    blocks.remove(successor);
+                    i--; // 合并之后的基本块可能还能继续合并
+                    mergedNum++;
+                    changedThisRound = true;
+                }
+            }
+            changed |= changedThisRound;
+        }
+        manager.count("simplifycfg.blocksBefore", blockNum);
+        manager.count("simplifycfg.blocksAfter", blocks.size());
+        manager.count("simplifycfg.foldedBranches", foldedNum);
+        manager.count("simplifycfg.forwardedBlocks", forwardedNum);
+        manager.count("simplifycfg.mergedBlocks", mergedNum);
+        return changed;
+    }
+
+    private static boolean foldIdenticalTargets(BasicBlock block) { // br i1 %c, label %x, label %x
+        Instruction terminator = block.getTerminator();
+        if (terminator == null || terminator.getSuccessorCount() != 2 || terminator.getSuccessor(0) != terminator.getSuccessor(1)) {
+            return false;
+        }
+        BasicBlock target = terminator.getSuccessor(0);
+        Value condition = terminator.getOperand(0);
+        ControlFlow.removeIncoming(target, block); // 两条边来自同一个基本块，phi 中的两个值一定相同
+        ControlFlow.replaceTerminator(block, Instruction.br(target));
+        DCE.removeIfUnused(condition);
+        return true;
+    }
+
+    // block 只有一条跳转到 target 的指令时，把前驱中跳转到 block 的边改为跳转到 target，全部改完之后返回 true，
+    // 由调用者把 block 从函数中删除。某个前驱已经是 target 的前驱、并且 phi 中两条边的值不同时，这个前驱不能转发
+    static boolean forwardEmptyBlock(BasicBlock block) {
+        if (block.getInstructions().size() != 1) {
+            return false;
+        }
+        Instruction jump = block.getTerminator();
+        if (jump == null || jump.getSuccessorCount() != 1 || jump.getSuccessor(0) == block) {
+            return false;
+        }
+        BasicBlock target = jump.getSuccessor(0);
+        ArrayList<Instruction> predecessorJumps = new ArrayList<>();
+        for (int i = 0; i < block.getUserCount(); i++) {
+            Instruction user = block.getUser(i);
+            if (user.opcode == Opcode.BR && !predecessorJumps.contains(user)) {
+                predecessorJumps.add(user);
+            }
+        }
+        boolean forwardedAll = true;
+        for (Instruction predecessorJump : predecessorJumps) {
+            BasicBlock predecessor = predecessorJump.getParent();
+            if (!canForward(predecessor, block, target)) {
+                forwardedAll = false;
+                continue;
+            }
+            for (int i = 0; i < predecessorJump.getOperandCount(); i++) {
+                if (predecessorJump.getOperand(i) == block) {
+                    predecessorJump.setOperand(i, target);
+                    addIncomingLike(target, block, predecessor);
+                }
+            }
+        }
+        if (!forwardedAll) {
+            return false;
+        }
+        ControlFlow.removeIncoming(target, block);
+        jump.dropOperands();
+        block.getInstructions().clear();
+        return true;
+    }
+
+    private static boolean canForward(BasicBlock predecessor, BasicBlock block, BasicBlock target) {
+        for (Instruction phi : target.getInstructions()) {
+            if (phi.opcode != Opcode.PHI) {
+                break;
+            }
+            Value fromBlock = incomingValue(phi, block);
+            Value fromPredecessor = incomingValue(phi, predecessor);
+            if (fromPredecessor != null && !sameValue(fromPredecessor, fromBlock)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addIncomingLike(BasicBlock target, BasicBlock block, BasicBlock predecessor) { // 新的边 predecessor -> target 沿用 block -> target 的值
+        for (Instruction phi : target.getInstructions()) {
+            if (phi.opcode != Opcode.PHI) {
+                break;
+            }
+            phi.addIncoming(incomingValue(phi, block), predecessor);
+        }
+    }
+
+    private static Value incomingValue(Instruction phi, BasicBlock block) {
+        for (int i = 0; i < phi.getIncomingCount(); i++) {
+            if (phi.getIncomingBlock(i) == block) {
+                return phi.getIncomingValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameValue(Value a, Value b) { // 常量不唯一，需要比较值
+        return a == b || a.equals(b);
+    }
+
+    private static int jumpCount(BasicBlock block) { // 跳转到 block 的边数，基本块的使用者还包括以它为来源的 phi
+        int count = 0;
+        for (int i = 0; i < block.getUserCount(); i++) {
+            if (block.getUser(i).opcode == Opcode.BR) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // block 以无条件跳转结尾、后继只有 block 这一个前驱时，把后继的指令移到 block 中，返回被合并掉的后继
+    private static BasicBlock mergeSuccessor(BasicBlock block) {
+        Instruction jump = block.getTerminator();
+        if (jump == null || jump.getSuccessorCount() != 1) {
+            return null;
+        }
+        BasicBlock successor = jump.getSuccessor(0);
+        if (successor == block || successor == block.parent.getEntryBlock() || jumpCount(successor) != 1) {
+            return null;
+        }
+        ArrayList<Instruction> instructions = successor.getInstructions();
+        int first = 0;
+        for (; first < instructions.size() && instructions.get(first).opcode == Opcode.PHI; first++) {
+            Instruction phi = instructions.get(first); // 只有一个来源
+            phi.replaceAllUsesWith(phi.getIncomingValue(0));
+            phi.dropOperands();
+        }
+        block.getInstructions().remove(block.getInstructions().size() - 1).dropOperands();
+        for (int i = first; i < instructions.size(); i++) {
+            block.add(instructions.get(i));
+        }
+        instructions.clear();
+        successor.replaceAllUsesWith(block); // 后继的后继中 phi 的来源改为 block
+        return successor;
+    }
+}
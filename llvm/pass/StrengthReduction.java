@@ -0,0 +1,220 @@
+package llvm.pass;
+
+import llvm.Type;
+import llvm.ir.BasicBlock;
+import llvm.ir.Constant;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Instruction.Predicate;
+import llvm.ir.Value;
+
+import java.util.ArrayList;
+
+// 强度削减：把乘以、除以常量和对常量取余改写为代价更低的指令序列，放在最后运行，不影响其他优化遍的模式匹配
+//   乘以 2^k、2^k ± 1、-2^k：移位加上至多一次加减，其他常量保留 mul
+//   除以 ±2^k：负数先加上 2^k - 1 再算术右移，使结果向 0 取整
+//   除以其他常量：乘以“魔数”取乘积的高 32 位再右移（Hacker's Delight 第 10 章），
+//   乘积在 i64 中计算，被除数为负数时结果加 1，除数为负数时取相反数
+//   取余：x - x / d * d，除数为 ±2^k 时用按位与代替乘法
+// 除数为 0 时保持原样（运行时的未定义行为），x / -1 改为 0 - x
+public class StrengthReduction implements FunctionPass {
+
+    private BasicBlock block; // 新指令插入到 block 的 position 处
+    private ArrayList<Instruction> instructions;
+    private int position;
+    private int reducedMulNum;
+    private int reducedDivNum;
+
+    @Override
+    public int revision() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(Function function, PassManager manager) {
+        reducedMulNum = 0;
+        reducedDivNum = 0;
+        for (BasicBlock block : function.getBlocks()) {
+            this.block = block;
+            instructions = block.getInstructions();
+            for (position = 0; position < instructions.size(); position++) {
+                Instruction instruction = instructions.get(position);
+                if (instruction.type != Type.i32()
+                    || instruction.opcode != Opcode.MUL && instruction.opcode != Opcode.SDIV && instruction.opcode != Opcode.SREM) {
+                    continue;
+                }
+                Value replacement = null;
+                Value lhs = instruction.getOperand(0);
+                Value rhs = instruction.getOperand(1);
+                if (instruction.opcode == Opcode.MUL) {
+                    if (rhs instanceof Constant) {
+                        replacement = multiply(lhs, ((Constant) rhs).value);
+                    }
+                    else if (lhs instanceof Constant) {
+                        replacement = multiply(rhs, ((Constant) lhs).value);
+                    }
+                    if (replacement != null) {
+                        reducedMulNum++;
+                    }
+                }
+                else if (rhs instanceof Constant && ((Constant) rhs).value != 0) {
+                    int divisor = ((Constant) rhs).value;
+                    replacement = instruction.opcode == Opcode.SDIV ? divide(lhs, divisor) : remainder(lhs, divisor);
+                    reducedDivNum++;
+                }
+                if (replacement != null) { // 新指令都插在它前面，position 已经指向它
+                    instruction.replaceAllUsesWith(replacement);
+                    instructions.remove(position--);
+                    instruction.dropOperands();
+                }
+            }
+        }
+        block = null;
+        instructions = null;
+        manager.count("strengthreduction.reducedMultiplications", reducedMulNum);
+        manager.count("strengthreduction.reducedDivisions", reducedDivNum);
+        return reducedMulNum + reducedDivNum > 0;
+    }
+
+    // x * c，没有更便宜的序列时返回 null
+    private Value multiply(Value x, int c) {
+        if (c == 0) {
+            return Constant.i32(0);
+        }
+        if (c == 1) {
+            return x;
+        }
+        if (c == -1) {
+            return emit(Opcode.SUB, Constant.i32(0), x);
+        }
+        if (Integer.bitCount(c) == 1) { // 包括 INT_MIN，x * 2^31 即 x << 31
+            return shiftLeft(x, c);
+        }
+        if (Integer.bitCount(c - 1) == 1) {
+            return emit(Opcode.ADD, shiftLeft(x, c - 1), x);
+        }
+        if (Integer.bitCount(c + 1) == 1) {
+            return emit(Opcode.SUB, shiftLeft(x, c + 1), x);
+        }
+        if (Integer.bitCount(-c) == 1) {
+            return emit(Opcode.SUB, Constant.i32(0), shiftLeft(x, -c));
+        }
+        return null;
+    }
+
+    private Value shiftLeft(Value x, int powerOfTwo) {
+        return emit(Opcode.SHL, x, Constant.i32(Integer.numberOfTrailingZeros(powerOfTwo)));
+    }
+
+    private Value divide(Value x, int d) {
+        if (d == 1) {
+            return x;
+        }
+        if (d == -1) {
+            return emit(Opcode.SUB, Constant.i32(0), x);
+        }
+        if (d == Integer.MIN_VALUE) { // 只有 INT_MIN / INT_MIN 为 1
+            Value equal = emit(Instruction.icmp(Predicate.EQ, x, Constant.i32(Integer.MIN_VALUE)));
+            return emit(Instruction.cast(Opcode.ZEXT, equal, Type.i32()));
+        }
+        int absolute = Math.abs(d);
+        Value quotient;
+        if (Integer.bitCount(absolute) == 1) {
+            int k = Integer.numberOfTrailingZeros(absolute);
+            quotient = emit(Opcode.ASHR, emit(Opcode.ADD, x, roundingBias(x, k)), Constant.i32(k));
+        }
+        else {
+            quotient = magicDivide(x, absolute);
+        }
+        return d < 0 ? emit(Opcode.SUB, Constant.i32(0), quotient) : quotient;
+    }
+
+    private Value remainder(Value x, int d) {
+        if (d == 1 || d == -1) {
+            return Constant.i32(0);
+        }
+        if (d == Integer.MIN_VALUE) { // 只有 INT_MIN % INT_MIN 为 0，其余为 x 本身
+            Value equal = emit(Instruction.icmp(Predicate.EQ, x, Constant.i32(Integer.MIN_VALUE)));
+            Value quotient = emit(Instruction.cast(Opcode.ZEXT, equal, Type.i32()));
+            return emit(Opcode.SUB, x, emit(Opcode.SHL, quotient, Constant.i32(31)));
+        }
+        int absolute = Math.abs(d); // 余数的符号与被除数相同，与除数的符号无关
+        if (Integer.bitCount(absolute) == 1) { // x - ((x + bias) & -2^k)
+            int k = Integer.numberOfTrailingZeros(absolute);
+            Value rounded = emit(Opcode.AND, emit(Opcode.ADD, x, roundingBias(x, k)), Constant.i32(-absolute));
+            return emit(Opcode.SUB, x, rounded);
+        }
+        Value quotient = magicDivide(x, absolute);
+        Value product = multiply(quotient, absolute);
+        if (product == null) {
+            product = emit(Opcode.MUL, quotient, Constant.i32(absolute));
+        }
+        return emit(Opcode.SUB, x, product);
+    }
+
+    // x 为负数时为 2^k - 1，否则为 0：(x >> (k - 1)) >>> (32 - k)
+    private Value roundingBias(Value x, int k) {
+        Value sign = k == 1 ? x : emit(Opcode.ASHR, x, Constant.i32(k - 1));
+        return emit(Opcode.LSHR, sign, Constant.i32(32 - k));
+    }
+
+    // d >= 3 且不是 2 的幂
+    private Value magicDivide(Value x, int d) {
+        int[] magic = magic(d);
+        int multiplier = magic[0];
+        int shift = magic[1];
+        Value wide = emit(Instruction.cast(Opcode.SEXT, x, Type.i64()));
+        Value product = emit(Opcode.MUL, wide, Constant.of(Type.i64(), multiplier));
+        Value quotient;
+        if (multiplier >= 0) { // 高 32 位的右移和之后的右移合并为一次
+            quotient = emit(Instruction.cast(Opcode.TRUNC, emit(Opcode.ASHR, product, Constant.of(Type.i64(), 32 + shift)), Type.i32()));
+        }
+        else { // 魔数按无符号数大于 2^31，作为有符号数相乘之后少加了一次 x
+            Value high = emit(Instruction.cast(Opcode.TRUNC, emit(Opcode.ASHR, product, Constant.of(Type.i64(), 32)), Type.i32()));
+            quotient = emit(Opcode.ADD, high, x);
+            if (shift > 0) {
+                quotient = emit(Opcode.ASHR, quotient, Constant.i32(shift));
+            }
+        }
+        return emit(Opcode.ADD, quotient, emit(Opcode.LSHR, x, Constant.i32(31))); // 向下取整改为向 0 取整
+    }
+
+    // 返回 {魔数, 右移位数}：魔数为 ceil(2^(32+s) / d)，s 为使误差足够小的最小值，见 Hacker's Delight 图 10-1
+    static int[] magic(int d) {
+        long two31 = 1L << 31;
+        long anc = two31 - 1 - two31 % d; // |nc|，不能被 d 整除的最大被除数
+        int p = 31;
+        long q1 = two31 / anc;
+        long r1 = two31 - q1 * anc;
+        long q2 = two31 / d;
+        long r2 = two31 - q2 * d;
+        long delta;
+        do {
+            p++;
+            q1 *= 2;
+            r1 *= 2;
+            if (r1 >= anc) {
+                q1++;
+                r1 -= anc;
+            }
+            q2 *= 2;
+            r2 *= 2;
+            if (r2 >= d) {
+                q2++;
+                r2 -= d;
+            }
+            delta = d - r2;
+        } while (q1 < delta || (q1 == delta && r1 == 0));
+        return new int[] {(int) (q2 + 1), p - 32};
+    }
+
+    private Value emit(Opcode opcode, Value lhs, Value rhs) {
+        return emit(Instruction.binary(opcode, lhs, rhs));
+    }
+
+    private Value emit(Instruction instruction) {
+        block.add(position++, instruction);
+        return instruction;
+    }
+}
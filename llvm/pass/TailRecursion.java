@@ -0,0 +1,237 @@
+package llvm.pass;
+
+import llvm.ir.Argument;
+import llvm.ir.BasicBlock;
+import llvm.ir.Constant;
+import llvm.ir.Function;
+import llvm.ir.GlobalVariable;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Value;
+
+import java.util.ArrayList;
+
+// 尾递归消除：返回值就是对自身调用的结果（或者 void 函数中调用之后直接返回）时，
+// 把调用改为更新参数之后跳回函数开头。原来的入口基本块成为循环头，参数换成循环头中的 phi，
+// 新插入的入口基本块只有 alloca 和一条跳转，局部数组不会在每次循环时重新分配。
+// 累加器递归：return f(...) + x 或者 return f(...) * x（x 在调用之前算好）也改为循环，
+// 加法和乘法满足结合律和交换律（溢出时按 2^32 取模也一样），用循环头中的累加器 phi 记录已经累积的 x，
+// 其他返回点返回累加器与原返回值的运算结果。同一个函数中的累加器递归必须使用同一种运算
+public class TailRecursion implements FunctionPass {
+
+    private static final class TailCall {
+        private final Instruction call;
+        private final Instruction accumulate; // call 的结果与另一个值的运算，普通尾调用为 null
+        private final BasicBlock returnBlock; // 以 br 跳转到只做返回的基本块时为这个基本块，否则为 null
+
+        private TailCall(Instruction call, Instruction accumulate, BasicBlock returnBlock) {
+            this.call = call;
+            this.accumulate = accumulate;
+            this.returnBlock = returnBlock;
+        }
+    }
+
+    @Override
+    public int revision() {
+        return 3;
+    }
+
+    @Override
+    public boolean run(Function function, PassManager manager) {
+        if (function.name.equals("main") || !ControlFlow.predecessors(function.getEntryBlock()).isEmpty()) {
+            return false;
+        }
+        ArrayList<TailCall> tailCalls = new ArrayList<>();
+        Opcode accumulatorOpcode = null;
+        for (BasicBlock block : function.getBlocks()) {
+            TailCall tailCall = findTailCall(function, block);
+            if (tailCall == null) {
+                continue;
+            }
+            if (tailCall.accumulate != null) {
+                if (accumulatorOpcode != null && accumulatorOpcode != tailCall.accumulate.opcode) {
+                    continue;
+                }
+                accumulatorOpcode = tailCall.accumulate.opcode;
+            }
+            tailCalls.add(tailCall);
+        }
+        if (tailCalls.isEmpty()) {
+            return false;
+        }
+
+        // 新的入口基本块，原来入口中的 alloca 移过来
+        BasicBlock header = function.getEntryBlock();
+        BasicBlock entry = new BasicBlock("entry", function);
+        ArrayList<Instruction> headerInstructions = header.getInstructions();
+        for (int i = 0; i < headerInstructions.size(); i++) {
+            if (headerInstructions.get(i).opcode == Opcode.ALLOCA) {
+                entry.add(headerInstructions.remove(i--));
+            }
+        }
+        entry.add(Instruction.br(header));
+        function.getBlocks().add(0, entry);
+
+        Instruction[] parameters = new Instruction[function.getArgumentCount()];
+        for (int i = 0; i < parameters.length; i++) {
+            Value argument = function.getArgument(i);
+            parameters[i] = Instruction.phi(argument.type);
+            argument.replaceAllUsesWith(parameters[i]);
+            parameters[i].addIncoming(argument, entry);
+            header.add(i, parameters[i]);
+        }
+        Instruction accumulator = null;
+        if (accumulatorOpcode != null) {
+            accumulator = Instruction.phi(function.type);
+            accumulator.addIncoming(Constant.of(function.type, accumulatorOpcode == Opcode.ADD ? 0 : 1), entry);
+            header.add(parameters.length, accumulator);
+        }
+
+        for (TailCall tailCall : tailCalls) {
+            Instruction call = tailCall.call;
+            BasicBlock block = call.getParent();
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i].addIncoming(call.getOperand(i + 1), block);
+            }
+            if (accumulator != null) {
+                Value accumulated = accumulator;
+                if (tailCall.accumulate != null) { // 另一个操作数加到累加器上
+                    Value other = tailCall.accumulate.getOperand(0) == call ? tailCall.accumulate.getOperand(1) : tailCall.accumulate.getOperand(0);
+                    Instruction next = Instruction.binary(accumulatorOpcode, accumulator, other);
+                    block.add(block.getInstructions().indexOf(call), next);
+                    accumulated = next;
+                }
+                accumulator.addIncoming(accumulated, block);
+            }
+            if (tailCall.returnBlock != null) {
+                ControlFlow.removeIncoming(tailCall.returnBlock, block);
+            }
+            ControlFlow.replaceTerminator(block, Instruction.br(header));
+            if (tailCall.accumulate != null) {
+                block.getInstructions().remove(tailCall.accumulate);
+                tailCall.accumulate.dropOperands();
+            }
+            block.getInstructions().remove(call);
+            call.dropOperands();
+        }
+        // 所有前驱都是尾调用的返回块不再可达，其中的 phi 已经没有来源，之后的遍中没有删除不可达基本块的，在这里删除
+        ControlFlow.removeUnreachableBlocks(function);
+        if (accumulator != null) { // 其他返回点，尾调用所在的基本块已经改为跳转，返回块的 phi 中也已经去掉了来自尾调用的来源
+            Value identity = accumulator.getIncomingValue(0);
+            for (BasicBlock block : function.getBlocks()) {
+                Instruction ret = block.getTerminator();
+                if (ret == null || ret.opcode != Opcode.RET) {
+                    continue;
+                }
+                Value value = singleIncomingValue(ret.getOperand(0), block);
+                if (value.equals(identity)) { // 返回的正是单位元，例如递归到 0 时 return 0，直接返回累加器
+                    ret.setOperand(0, accumulator);
+                    continue;
+                }
+                Instruction result = Instruction.binary(accumulatorOpcode, accumulator, value);
+                block.add(block.getInstructions().size() - 1, result);
+                ret.setOperand(0, result);
+            }
+        }
+        manager.count("tailrecursion.eliminatedCalls", tailCalls.size());
+        manager.count("tailrecursion.accumulators", accumulator == null ? 0 : 1);
+        return true;
+    }
+
+    // block 末尾是否为对自身的尾调用：call [运算] 之后是 ret，或者跳转到只有 phi 和 ret 的基本块，返回的正是这个结果
+    private static TailCall findTailCall(Function function, BasicBlock block) {
+        ArrayList<Instruction> instructions = block.getInstructions();
+        Instruction terminator = block.getTerminator();
+        if (terminator == null || instructions.size() < 2) {
+            return null;
+        }
+        BasicBlock returnBlock = null;
+        if (terminator.opcode == Opcode.BR) {
+            if (terminator.getSuccessorCount() != 1 || !isReturnBlock(terminator.getSuccessor(0))) {
+                return null;
+            }
+            returnBlock = terminator.getSuccessor(0);
+        }
+        Value returned = returnedValue(returnBlock == null ? block : returnBlock, block);
+        Instruction accumulate = null;
+        Instruction call = instructions.get(instructions.size() - 2);
+        if ((call.opcode == Opcode.ADD || call.opcode == Opcode.MUL) && instructions.size() >= 3) {
+            accumulate = call;
+            call = instructions.get(instructions.size() - 3);
+        }
+        if (call.opcode != Opcode.CALL || call.getOperand(0) != function || !argumentsStayValid(call)) {
+            return null;
+        }
+        Instruction result = accumulate == null ? call : accumulate;
+        if (result.hasResult() ? returned != result || result.getUserCount() != 1 : returned != null) {
+            return null; // 返回的不是这个结果，或者结果还有其他用处
+        }
+        // 累加：call 只被运算使用一次，另一个操作数不是 call 本身（例如 f(n) + f(n)）
+        if (accumulate != null && (call.getUserCount() != 1 || accumulate.getOperand(0) == accumulate.getOperand(1)
+            || (accumulate.getOperand(0) != call && accumulate.getOperand(1) != call))) {
+            return null;
+        }
+        return new TailCall(call, accumulate, returnBlock);
+    }
+
+    // value 是 block 中的 phi 并且各个来源的值都相同时返回这个值（去掉尾调用的来源之后常常只剩一个），否则返回 value 本身
+    private static Value singleIncomingValue(Value value, BasicBlock block) {
+        if (!(value instanceof Instruction) || ((Instruction) value).opcode != Opcode.PHI || ((Instruction) value).getParent() != block
+            || ((Instruction) value).getIncomingCount() == 0) {
+            return value;
+        }
+        Instruction phi = (Instruction) value;
+        for (int i = 1; i < phi.getIncomingCount(); i++) {
+            if (!phi.getIncomingValue(i).equals(phi.getIncomingValue(0))) {
+                return value;
+            }
+        }
+        return phi.getIncomingValue(0);
+    }
+
+    private static boolean isReturnBlock(BasicBlock block) { // 只有 phi 和 ret
+        ArrayList<Instruction> instructions = block.getInstructions();
+        for (int i = 0; i < instructions.size() - 1; i++) {
+            if (instructions.get(i).opcode != Opcode.PHI) {
+                return false;
+            }
+        }
+        Instruction ret = block.getTerminator();
+        return ret != null && ret.opcode == Opcode.RET;
+    }
+
+    // returnBlock 中的 ret 沿 block -> returnBlock 这条边返回的值，ret void 时为 null
+    private static Value returnedValue(BasicBlock returnBlock, BasicBlock block) {
+        Instruction ret = returnBlock.getTerminator();
+        if (ret.getOperandCount() == 0) {
+            return null;
+        }
+        Value value = ret.getOperand(0);
+        if (value instanceof Instruction && ((Instruction) value).opcode == Opcode.PHI && ((Instruction) value).getParent() == returnBlock) {
+            Instruction phi = (Instruction) value;
+            for (int i = 0; i < phi.getIncomingCount(); i++) {
+                if (phi.getIncomingBlock(i) == block) {
+                    return phi.getIncomingValue(i);
+                }
+            }
+        }
+        return value;
+    }
+
+    // 循环中参数换成实参之后，本次调用的局部数组会被下一轮重用，因此实参不能指向本函数的 alloca
+    private static boolean argumentsStayValid(Instruction call) {
+        for (int i = 1; i < call.getOperandCount(); i++) {
+            Value argument = call.getOperand(i);
+            if (!argument.type.isPointer()) {
+                continue;
+            }
+            while (argument instanceof Instruction && ((Instruction) argument).opcode == Opcode.GETELEMENTPTR) {
+                argument = ((Instruction) argument).getOperand(0);
+            }
+            if (!(argument instanceof GlobalVariable) && !(argument instanceof Argument)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
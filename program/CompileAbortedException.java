@@ -0,0 +1,12 @@
+package program;
+
+// 启用提前终止后，出现第一个语义错误时抛出，直接结束整个编译过程
+public class CompileAbortedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CompileAbortedException(int lineNum, char errorCode) {
+        super("第 " + lineNum + " 行出现语义错误 " + errorCode + "，编译提前终止");
+    }
+
+}
@@ -0,0 +1,58 @@
+package program;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JFR 事件：生成一个函数的中间代码，一遍式编译时包括该函数的语义检查
+@Name("sysy.Function")
+@Label("Function Compiled")
+@Category("SysY Compiler")
+@Description("Code generation for one SysY function")
+public class FunctionEvent extends Event {
+
+    @Label("Function")
+    public String function;
+
+    @Label("Source Line")
+    public int line;
+
+    @Label("Statements")
+    public int statements;
+
+    @Label("Instructions")
+    public int instructions;
+
+    @Label("Basic Blocks")
+    public int basicBlocks;
+
+    @Label("Virtual Registers")
+    public int virtualRegisters;
+
+    static Event start() {
+        FunctionEvent event = new FunctionEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void finish(Event started, String function, int line, int statements, int instructions,
+                       int basicBlocks, int virtualRegisters) {
+        FunctionEvent event = (FunctionEvent) started;
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.function = function;
+        event.line = line;
+        event.statements = statements;
+        event.instructions = instructions;
+        event.basicBlocks = basicBlocks;
+        event.virtualRegisters = virtualRegisters;
+        event.commit();
+    }
+
+}
@@ -0,0 +1,44 @@
+package program;
+
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+
+// 编译器自定义 JFR 事件的入口，事件的定义见 PhaseEvent、FunctionEvent 和 SymbolLookupEvent
+// JDK 第一次加载 Event 的子类时会初始化 JFR 的字节码插桩，即使没有在记录也要花费几百毫秒，
+// 因此只有 JFR 已经启动（启动参数 -XX:StartFlightRecording 或者之后通过 jcmd JFR.start）时才接触这些事件类；
+// 没有启动时每个方法只读取一个标志。以 Event 类型传递事件对象，调用方的字节码校验也不会加载事件类
+// 编译为本地可执行文件（GraalVM native image）时不支持自定义事件，此时一律不记录
+public class JfrEvents {
+
+    private static final boolean NATIVE_IMAGE = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+
+    public static boolean isAvailable() {
+        return !NATIVE_IMAGE && FlightRecorder.isInitialized();
+    }
+
+    public static Event beginPhase(String phase) { // 事件没有开启时返回 null
+        return isAvailable() ? PhaseEvent.beginPhase(phase) : null;
+    }
+
+    public static Event beginFunction() {
+        return isAvailable() ? FunctionEvent.start() : null;
+    }
+
+    public static void commitFunction(Event event, String function, int line, int statements, int instructions,
+                                      int basicBlocks, int virtualRegisters) {
+        FunctionEvent.finish(event, function, line, statements, instructions, basicBlocks, virtualRegisters);
+    }
+
+    public static boolean shouldSampleLookup() {
+        return isAvailable() && SymbolLookupEvent.shouldSample();
+    }
+
+    public static Event beginLookup() {
+        return SymbolLookupEvent.start();
+    }
+
+    public static void commitLookup(Event event, String symbol, int scope, int scopesSearched, boolean found, boolean codeGen) {
+        SymbolLookupEvent.finish(event, symbol, scope, scopesSearched, found, codeGen);
+    }
+
+}
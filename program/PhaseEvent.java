@@ -0,0 +1,31 @@
+package program;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JFR 事件：一个编译阶段（词法分析、语法分析、语义分析、代码生成等）的一次执行
+// 与 PhaseProfiler 的统计在同一处开始和结束，流式编译和一遍式编译时每个顶层成分各产生一次
+@Name("sysy.Phase")
+@Label("Compiler Phase")
+@Category("SysY Compiler")
+@Description("One execution of a compiler phase")
+public class PhaseEvent extends Event {
+
+    @Label("Phase")
+    public String phase;
+
+    // 只应在 JFR 已经启动时调用（见 JfrEvents），返回类型声明为 Event，调用方不会因为类型检查而提前加载本类
+    static Event beginPhase(String phase) {
+        PhaseEvent event = new PhaseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+}
@@ -0,0 +1,212 @@
+package program;
+
+import jdk.jfr.Event;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 编译各阶段的耗时统计：记录每个阶段的墙钟时间、CPU 时间、分配的字节数和堆内存占用的峰值，以及各种计数
+// 同一个阶段可以多次进入（流式编译时每个顶层成分都会经过一次），结果累加
+// 不论统计是否开启，JFR 启动时每次进入阶段都会产生一个 JFR 事件（PhaseEvent）
+public class PhaseProfiler {
+
+    public enum Phase {
+        READ_SOURCE("read-source"),
+        LEX("lex"),
+        PARSE("parse"),
+        CHECK("check"),
+        PRINT_SYMBOLS("print-symbols"),
+        CODEGEN("codegen");
+
+        public final String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    private final boolean enabled;
+    private final ThreadMXBean threadBean;
+    private final boolean cpuTimeSupported;
+    private final boolean allocationSupported;
+    private final ArrayList<MemoryPoolMXBean> heapPools = new ArrayList<>();
+
+    private final int[] calls = new int[Phase.values().length];
+    private final long[] wallNanos = new long[Phase.values().length];
+    private final long[] cpuNanos = new long[Phase.values().length];
+    private final long[] allocatedBytes = new long[Phase.values().length];
+    private final long[] peakHeapBytes = new long[Phase.values().length]; // 多次进入时取最大值
+
+    // 当前正在进行的阶段的起始值，没有进入时为 -1
+    private final long[] startWall = new long[Phase.values().length];
+    private final long[] startCpu = new long[Phase.values().length];
+    private final long[] startAllocated = new long[Phase.values().length];
+
+    private final LinkedHashMap<String, Long> counters = new LinkedHashMap<>();
+
+    private final Event[] phaseEvents = new Event[Phase.values().length]; // 正在进行的阶段对应的 JFR 事件
+
+    public PhaseProfiler(boolean enabled) {
+        this.enabled = enabled;
+        this.threadBean = ManagementFactory.getThreadMXBean();
+        this.cpuTimeSupported = enabled && threadBean.isCurrentThreadCpuTimeSupported();
+        if (enabled && threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (sunThreadBean.isThreadAllocatedMemorySupported()) {
+                sunThreadBean.setThreadAllocatedMemoryEnabled(true);
+            }
+            this.allocationSupported = sunThreadBean.isThreadAllocatedMemoryEnabled();
+        }
+        else {
+            this.allocationSupported = false;
+        }
+        for (int i = 0; i < startWall.length; i++) {
+            startWall[i] = -1;
+        }
+        if (enabled) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    heapPools.add(pool);
+                }
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void begin(Phase phase) {
+        int index = phase.ordinal();
+        phaseEvents[index] = JfrEvents.beginPhase(phase.name);
+        if (!enabled) {
+            return;
+        }
+        for (MemoryPoolMXBean pool : heapPools) { // 峰值从阶段开始时的占用量重新统计
+            pool.resetPeakUsage();
+        }
+        startAllocated[index] = currentAllocatedBytes();
+        startCpu[index] = currentCpuNanos();
+        startWall[index] = System.nanoTime();
+    }
+
+    public void end(Phase phase) {
+        int index = phase.ordinal();
+        if (phaseEvents[index] != null) {
+            phaseEvents[index].commit();
+            phaseEvents[index] = null;
+        }
+        if (!enabled) {
+            return;
+        }
+        long wall = System.nanoTime();
+        long cpu = currentCpuNanos();
+        long allocated = currentAllocatedBytes();
+        if (startWall[index] < 0) { // 没有对应的 begin
+            return;
+        }
+        calls[index]++;
+        wallNanos[index] += wall - startWall[index];
+        cpuNanos[index] += cpu - startCpu[index];
+        allocatedBytes[index] += allocated - startAllocated[index];
+        peakHeapBytes[index] = Math.max(peakHeapBytes[index], currentPeakHeapBytes());
+        startWall[index] = -1;
+    }
+
+    public void count(String counter, long value) { // 记录一个计数，同名计数累加
+        if (!enabled) {
+            return;
+        }
+        counters.merge(counter, value, Long::sum);
+    }
+
+    private long currentCpuNanos() {
+        return cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    // 各个堆内存池的峰值之和，各池的峰值不一定出现在同一时刻，因此是整个堆峰值的上界
+    private long currentPeakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    public long getWallNanos(Phase phase) {
+        return wallNanos[phase.ordinal()];
+    }
+
+    public long getPeakHeapBytes(Phase phase) {
+        return peakHeapBytes[phase.ordinal()];
+    }
+
+    private long currentAllocatedBytes() {
+        return allocationSupported ? ((com.sun.management.ThreadMXBean) threadBean).getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    public void printTable(Writer writer) throws IOException { // 以表格形式输出，便于人工查看
+        writer.write(String.format("%-14s %6s %12s %12s %14s %12s%n", "phase", "calls", "wall(ms)", "cpu(ms)", "alloc(KB)", "peak(MB)"));
+        long totalWall = 0;
+        long totalCpu = 0;
+        long totalAllocated = 0;
+        long totalPeak = 0;
+        for (Phase phase : Phase.values()) {
+            int index = phase.ordinal();
+            if (calls[index] == 0) {
+                continue;
+            }
+            writer.write(String.format("%-14s %6d %12.3f %12.3f %14d %12.1f%n", phase.name, calls[index],
+                wallNanos[index] / 1e6, cpuNanos[index] / 1e6, allocatedBytes[index] / 1024, peakHeapBytes[index] / 1048576.0));
+            totalWall += wallNanos[index];
+            totalCpu += cpuNanos[index];
+            totalAllocated += allocatedBytes[index];
+            totalPeak = Math.max(totalPeak, peakHeapBytes[index]);
+        }
+        writer.write(String.format("%-14s %6s %12.3f %12.3f %14d %12.1f%n", "total", "", totalWall / 1e6, totalCpu / 1e6,
+            totalAllocated / 1024, totalPeak / 1048576.0));
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            writer.write(String.format("%-20s %d%n", counter.getKey(), counter.getValue()));
+        }
+        writer.flush();
+    }
+
+    public void printJson(Writer writer) throws IOException { // 以 JSON 形式输出，便于脚本比较不同版本的结果
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"phases\": [");
+        boolean first = true;
+        for (Phase phase : Phase.values()) {
+            int index = phase.ordinal();
+            if (calls[index] == 0) {
+                continue;
+            }
+            json.append(first ? "\n" : ",\n");
+            first = false;
+            json.append("    {\"name\": \"").append(phase.name).append("\"")
+                .append(", \"calls\": ").append(calls[index])
+                .append(", \"wallNanos\": ").append(wallNanos[index])
+                .append(", \"cpuNanos\": ").append(cpuNanos[index])
+                .append(", \"allocatedBytes\": ").append(allocatedBytes[index])
+                .append(", \"peakHeapBytes\": ").append(peakHeapBytes[index])
+                .append("}");
+        }
+        json.append("\n  ],\n  \"counters\": {");
+        first = true;
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            json.append(first ? "\n" : ",\n");
+            first = false;
+            json.append("    \"").append(counter.getKey()).append("\": ").append(counter.getValue());
+        }
+        json.append("\n  }\n}\n");
+        writer.write(json.toString());
+        writer.flush();
+    }
+
+}
@@ -1,66 +1,158 @@
 package program;
 
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
 
+// 错误信息收集器：按错误类别计数，错误条目按行号分桶存放在基本类型数组中，输出时按行号顺序遍历即可，不需要排序
 public class ProgramException {
 
-    public static ArrayList<ProgramException> exceptions = new ArrayList<>();
+    private static final int CATEGORY_NUM = 26; // 错误类别 'a' ~ 'z'
+    private static final int DEFAULT_MAX_STORED = 1 << 16;
 
-    private int lineNum;
+    // 这些状态属于一次编译，每个线程各有一份，同一进程中的多个线程可以同时编译不同的程序
+    private static class Session {
+        private final int[] categoryCounts = new int[CATEGORY_NUM]; // 每一类错误出现的次数（包括超出上限未保存的）
+        private int totalCount; // 错误总数
+        private int semanticsCount; // 语义分析错误数
 
-    private char errorCode;
+        // 已保存的错误条目，同一行的条目通过 entryNext 串成链表，保持报告的先后顺序
+        private int[] entryLine = new int[16];
+        private char[] entryCode = new char[16];
+        private int[] entryNext = new int[16];
+        private int storedCount;
+        private int maxStored = DEFAULT_MAX_STORED; // 最多保存的错误条数，超出的只计数不保存
+
+        // 每一行链表的首尾条目下标，-1 表示该行没有错误
+        private int[] lineHead = newLineIndex(64);
+        private int[] lineTail = newLineIndex(64);
+        private int maxLine = -1;
+
+        private boolean abortOnSemanticsException; // 提前终止：一旦出现语义错误就放弃后续的所有工作
+    }
+
+    private static final ThreadLocal<Session> session = ThreadLocal.withInitial(Session::new);
+
+    public static void resetSession() { // 开始一次新的编译之前调用，清空当前线程上一次编译的错误和设置
+        session.set(new Session());
+    }
 
     public static void newException(int lineNum, char errorCode) {
-        exceptions.add(new ProgramException(lineNum, errorCode));
+        Session s = session.get();
+        s.totalCount++;
+        s.categoryCounts[errorCode - 'a']++;
+        if (isSemanticsException(errorCode)) {
+            s.semanticsCount++;
+        }
+        if (s.storedCount < s.maxStored) {
+            store(s, lineNum, errorCode);
+        }
+        if (s.abortOnSemanticsException && isSemanticsException(errorCode)) {
+            throw new CompileAbortedException(lineNum, errorCode);
+        }
+    }
+
+    private static void store(Session s, int lineNum, char errorCode) {
+        if (s.storedCount == s.entryLine.length) {
+            int capacity = Math.min(s.entryLine.length * 2, Math.max(s.maxStored, 16));
+            s.entryLine = grow(s.entryLine, capacity);
+            s.entryNext = grow(s.entryNext, capacity);
+            char[] codes = new char[capacity];
+            System.arraycopy(s.entryCode, 0, codes, 0, s.storedCount);
+            s.entryCode = codes;
+        }
+        if (lineNum >= s.lineHead.length) {
+            int capacity = Math.max(s.lineHead.length * 2, lineNum + 1);
+            int[] heads = newLineIndex(capacity);
+            int[] tails = newLineIndex(capacity);
+            System.arraycopy(s.lineHead, 0, heads, 0, s.lineHead.length);
+            System.arraycopy(s.lineTail, 0, tails, 0, s.lineTail.length);
+            s.lineHead = heads;
+            s.lineTail = tails;
+        }
+        int entry = s.storedCount++;
+        s.entryLine[entry] = lineNum;
+        s.entryCode[entry] = errorCode;
+        s.entryNext[entry] = -1;
+        if (s.lineHead[lineNum] < 0) {
+            s.lineHead[lineNum] = entry;
+        }
+        else {
+            s.entryNext[s.lineTail[lineNum]] = entry;
+        }
+        s.lineTail[lineNum] = entry;
+        s.maxLine = Math.max(s.maxLine, lineNum);
     }
 
-    public static void sortExceptions() {
-        exceptions.sort(new Comparator<ProgramException>() {
-            @Override
-            public int compare(ProgramException o1, ProgramException o2) {
-                return o1.getLineNum() - o2.getLineNum();
+    private static int[] newLineIndex(int capacity) {
+        int[] index = new int[capacity];
+        Arrays.fill(index, -1);
+        return index;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, Math.min(array.length, capacity));
+        return grown;
+    }
+
+    public static void printExceptions(Writer writer) throws IOException { // 按行号顺序输出已保存的错误，同一行按报告顺序
+        Session s = session.get();
+        for (int line = 0; line <= s.maxLine; line++) {
+            for (int entry = s.lineHead[line]; entry >= 0; entry = s.entryNext[entry]) {
+                writer.write(s.entryLine[entry] + " " + s.entryCode[entry] + "\n");
             }
-        });
+        }
     }
 
-    public int getLineNum() {
-        return lineNum;
+    // 按报告顺序逐条读取已保存的错误，编辑器增量分析时用于把错误记录在产生它的语法成分上
+    public static int getStoredCount() {
+        return session.get().storedCount;
     }
 
-    public void setLineNum(int lineNum) {
-        this.lineNum = lineNum;
+    public static int getStoredLine(int index) {
+        return session.get().entryLine[index];
     }
 
-    public int getErrorCode() {
-        return errorCode;
+    public static char getStoredCode(int index) {
+        return session.get().entryCode[index];
     }
 
-    public void setErrorCode(char errorCode) {
-        this.errorCode = errorCode;
+    public static void setMaxStoredExceptions(int maxStoredExceptions) {
+        Session s = session.get();
+        s.maxStored = Math.max(maxStoredExceptions, 0);
     }
 
-    public ProgramException(int lineNum, char errorCode) {
-        this.lineNum = lineNum;
-        this.errorCode = errorCode;
+    public static void setAbortOnSemanticsException(boolean abort) {
+        Session s = session.get();
+        s.abortOnSemanticsException = abort;
     }
 
-    public static boolean containsSemanticsException() { // 检查程序是否有语义分析的错误
-        for (ProgramException e : exceptions) {
-            if (e.getErrorCode() != 'a'
-                && e.getErrorCode() != 'i'
-                && e.getErrorCode() != 'j'
-                && e.getErrorCode() != 'k') {
-                return true;
-            }
-        }
-        return false;
+    public static int getExceptionCount(char errorCode) {
+        Session s = session.get();
+        return s.categoryCounts[errorCode - 'a'];
+    }
+
+    public static int getTotalCount() {
+        Session s = session.get();
+        return s.totalCount;
     }
 
+    public static int getDroppedCount() { // 超出保存上限而没有保存的错误数
+        Session s = session.get();
+        return s.totalCount - s.storedCount;
+    }
 
-    @Override
-    public String toString() {
-        return this.lineNum + " " + this.errorCode;
+    private static boolean isSemanticsException(char errorCode) { // a i j k 为词法和语法错误，其余都是语义错误
+        return errorCode != 'a'
+            && errorCode != 'i'
+            && errorCode != 'j'
+            && errorCode != 'k';
+    }
+
+    public static boolean containsSemanticsException() { // 检查程序是否有语义分析的错误
+        Session s = session.get();
+        return s.semanticsCount > 0;
     }
 
 }
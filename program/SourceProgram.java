@@ -1,6 +1,7 @@
 package program;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class SourceProgram {
 
@@ -10,6 +11,19 @@ public class SourceProgram {
         this.lines = new ArrayList<>();
     }
 
+    public static SourceProgram fromText(String text) { // 按照与 Scanner.nextLine 相同的规则把源程序文本切分成行
+        SourceProgram program = new SourceProgram();
+        String[] lines = text.split("\\r\\n|[\\n\\r\\u2028\\u2029\\u0085]", -1);
+        int lineNum = lines.length;
+        if (lines[lineNum - 1].isEmpty()) { // 以换行结尾时最后不再有一行
+            lineNum--;
+        }
+        for (int i = 0; i < lineNum; i++) {
+            program.addLine(lines[i]);
+        }
+        return program;
+    }
+
     public String getLine(int lineIndex) {
         return this.lines.get(lineIndex);
     }
@@ -18,6 +32,18 @@ public class SourceProgram {
         this.lines.add(line);
     }
 
+    public void replaceLines(int fromLine, int toLine, List<String> newLines) { // 把 [fromLine, toLine) 行替换为 newLines
+        List<String> replaced = this.lines.subList(fromLine, toLine);
+        replaced.clear();
+        replaced.addAll(newLines);
+    }
+
+    public void releaseLinesBefore(int lineIndex) { // 释放已经不再需要的行，行号保持不变
+        for (int i = lineIndex - 1; i >= 0 && this.lines.get(i) != null; i--) {
+            this.lines.set(i, null);
+        }
+    }
+
     public int getLineNum() {
         return this.lines.size();
     }
@@ -0,0 +1,61 @@
+package program;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JFR 事件：一次符号表查找。查找非常频繁，默认不开启，开启后也只记录每 sysy.jfr.lookupSampleInterval 次中的一次（默认 64）
+@Name("sysy.SymbolLookup")
+@Label("Symbol Lookup (sampled)")
+@Category("SysY Compiler")
+@Description("A sampled symbol table lookup")
+@Enabled(false)
+public class SymbolLookupEvent extends Event {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(SymbolLookupEvent.class);
+    private static final int SAMPLE_INTERVAL = Math.max(Integer.getInteger("sysy.jfr.lookupSampleInterval", 64), 1);
+    private static int lookupCount; // 多个线程同时编译时计数不精确，只影响采样的位置
+
+    @Label("Symbol")
+    public String symbol;
+
+    @Label("Scope")
+    @Description("Scope number the lookup started from")
+    public int scope;
+
+    @Label("Scopes Searched")
+    public int scopesSearched;
+
+    @Label("Found")
+    public boolean found;
+
+    @Label("Code Generation")
+    @Description("Lookup made by the IR generator rather than the semantic checker")
+    public boolean codeGen;
+
+    static boolean shouldSample() {
+        return EVENT_TYPE.isEnabled() && ++lookupCount % SAMPLE_INTERVAL == 0;
+    }
+
+    static Event start() {
+        SymbolLookupEvent event = new SymbolLookupEvent();
+        event.begin();
+        return event;
+    }
+
+    static void finish(Event started, String symbol, int scope, int scopesSearched, boolean found, boolean codeGen) {
+        SymbolLookupEvent event = (SymbolLookupEvent) started;
+        event.end();
+        event.symbol = symbol;
+        event.scope = scope;
+        event.scopesSearched = scopesSearched;
+        event.found = found;
+        event.codeGen = codeGen;
+        event.commit();
+    }
+
+}
@@ -9,14 +9,14 @@ import symbol.ValueType;
 import syntax.nodes.*;
 import util.Utilities;
 
-import java.io.FileWriter;
+import java.io.Writer;
 
 public class Visitor {
 
     private final boolean debugFlag;
-    private final FileWriter debugWriter;
+    private final Writer debugWriter;
 
-    public Visitor(boolean debugFlag, FileWriter debugWriter) {
+    public Visitor(boolean debugFlag, Writer debugWriter) {
         this.debugFlag = debugFlag;
         this.debugWriter = debugWriter;
     }
@@ -31,7 +31,19 @@ public class Visitor {
         visitMainFuncDef(compUnit.mainFuncDef);
     }
 
-    private void visitDecl(Decl decl) throws Exception {
+    public void visitCompUnitItem(ASTnode item) throws Exception { // 流式编译时逐个分析顶层成分
+        if (item instanceof Decl) {
+            visitDecl((Decl) item);
+        }
+        else if (((FuncDef) item).isMain) {
+            visitMainFuncDef((FuncDef) item);
+        }
+        else {
+            visitFuncDef((FuncDef) item);
+        }
+    }
+
+    public void visitDecl(Decl decl) throws Exception {
         for (VarConstDef varConstDef : decl.varConstDefs) {
             Symbol symbol = new Symbol();
             symbol.symbolType = new ValueType();
@@ -116,6 +128,12 @@ public class Visitor {
     private FunctionType.ReturnType currentReturnType = null; // 分析任何函数的函数体之前，首先设置当前函数的返回值类型
 
     private void visitFuncDef(FuncDef funcDef) throws Exception {
+        enterFuncDef(funcDef);
+        visitBlock(funcDef.block, false); // 分析函数体
+        exitFuncDef(funcDef);
+    }
+
+    public void enterFuncDef(FuncDef funcDef) throws Exception { // 登记函数符号，进入函数作用域并分析参数
         Symbol functionSymbol = new Symbol();
         FunctionType newFunctionType = new FunctionType();
         functionSymbol.symbolType = newFunctionType;
@@ -144,7 +162,9 @@ public class Visitor {
             visitFuncFParams(funcDef.funcFParams, newFunctionType);
         }
         currentReturnType = newFunctionType.returnType;
-        visitBlock(funcDef.block, false); // 分析函数体
+    }
+
+    public void exitFuncDef(FuncDef funcDef) throws Exception { // 检查函数末尾的返回语句并退出函数作用域
         if (currentReturnType != FunctionType.ReturnType.VOID) {
             if (funcDef.block.blockItems.isEmpty()) {
                 ProgramException.newException(funcDef.block.lastRBraceLineNum + 1, 'g');
@@ -157,7 +177,7 @@ public class Visitor {
             }
         }
         // 退出函数之前别忘了将符号表返回上一级作用域
-        SymbolTable.backToUpperScope();
+        SymbolTable.closeScope();
     }
 
     private void visitFuncFParams(FuncFParams funcFParams, FunctionType functionType) throws Exception {
@@ -179,11 +199,19 @@ public class Visitor {
     }
 
     private void visitMainFuncDef(FuncDef mainFuncDef) throws Exception {
+        enterMainFuncDef(mainFuncDef);
+        visitBlock(mainFuncDef.block, false);
+        exitMainFuncDef(mainFuncDef);
+    }
+
+    public void enterMainFuncDef(FuncDef mainFuncDef) throws Exception {
         // 主函数不需要对返回值，参数，名字等内容进行分析，直接分析block 即可
         currentReturnType = FunctionType.ReturnType.INT;
         SymbolTable.newSymbolTable(currentReturnType); // 新建一级符号表
-        visitBlock(mainFuncDef.block, false);
-        SymbolTable.backToUpperScope(); // 返回到上级符号表
+    }
+
+    public void exitMainFuncDef(FuncDef mainFuncDef) throws Exception {
+        SymbolTable.closeScope(); // 返回到上级符号表
         if (mainFuncDef.block.blockItems.isEmpty()) {
             ProgramException.newException(mainFuncDef.block.lastRBraceLineNum + 1, 'g'); // 主函数也需要检查最后一个语句是否是返回语句
         }
@@ -195,7 +223,7 @@ public class Visitor {
         }
     }
 
-    private void visitBlock(Block block, boolean inForLoop) throws Exception { // 语法分析{}内部的代码, 其不负责新建或者回退符号表，而应由调用该函数者来操作
+    public void visitBlock(Block block, boolean inForLoop) throws Exception { // 语法分析{}内部的代码, 其不负责新建或者回退符号表，而应由调用该函数者来操作
         for (BlockItem blockItem : block.blockItems) {
             visitBlockItem(blockItem, inForLoop);
         }
@@ -210,7 +238,13 @@ public class Visitor {
         }
     }
 
-    private void visitStmt(Stmt stmt, boolean inForLoop) throws Exception {
+    public void visitStmt(Stmt stmt, boolean inForLoop) throws Exception {
+        checkStmt(stmt, inForLoop);
+        visitSubStmts(stmt, inForLoop);
+    }
+
+    // 只检查语句自身的内容，不进入其中嵌套的子语句和语句块（for 语句的初始化和更新语句属于 for 语句自身）
+    public void checkStmt(Stmt stmt, boolean inForLoop) throws Exception {
         if (stmt.caseNum == 0) { // 赋值语句, 需要分别 visit 左值 lval0 和 右侧的表达式 exp0
             ExpInfo lvalInfo = visitLval(stmt.lval0);
             if (lvalInfo != null && lvalInfo.type.isConst) {
@@ -223,17 +257,8 @@ public class Visitor {
                 visitExp(stmt.exp1);
             }
         }
-        else if (stmt.caseNum == 2) { // 出现了新的 block，在这里需要创建新一级的符号表，然后再 visit block
-            SymbolTable.newSymbolTable();
-            visitBlock(stmt.block2, inForLoop);
-            SymbolTable.backToUpperScope();
-        }
         else if (stmt.caseNum == 3) { // if 语句
             visitExp(stmt.condExp3);
-            visitStmt(stmt.ifStmtIf3, inForLoop);
-            if (stmt.ifStmtElse3 != null) {
-                visitStmt(stmt.ifStmtElse3, inForLoop);
-            }
         }
         else if (stmt.caseNum == 4) { // for 语句
             if (stmt.forStmtA4 != null) {
@@ -245,7 +270,6 @@ public class Visitor {
             if (stmt.forStmtB4 != null) {
                 visitStmt(stmt.forStmtB4, false);
             }
-            visitStmt(stmt.stmt4, true);
         }
         else if (stmt.caseNum == 5) {
             if (!inForLoop) {
@@ -304,6 +328,23 @@ public class Visitor {
         }
     }
 
+    public void visitSubStmts(Stmt stmt, boolean inForLoop) throws Exception { // 分析语句中嵌套的子语句和语句块
+        if (stmt.caseNum == 2) { // 出现了新的 block，在这里需要创建新一级的符号表，然后再 visit block
+            SymbolTable.newSymbolTable();
+            visitBlock(stmt.block2, inForLoop);
+            SymbolTable.closeScope();
+        }
+        else if (stmt.caseNum == 3) { // if 语句的两个分支
+            visitStmt(stmt.ifStmtIf3, inForLoop);
+            if (stmt.ifStmtElse3 != null) {
+                visitStmt(stmt.ifStmtElse3, inForLoop);
+            }
+        }
+        else if (stmt.caseNum == 4) { // for 语句的循环体
+            visitStmt(stmt.stmt4, true);
+        }
+    }
+
     private ExpInfo visitLval(Lval lval) throws Exception {
         // 左值要么是数组，要么是变量
         String identName = lval.ident.name;
@@ -1,5 +1,7 @@
 package symbol;
 
+import llvm.ir.Value;
+
 import java.util.ArrayList;
 
 public class Symbol {
@@ -8,7 +10,7 @@ public class Symbol {
     public int scopeNum;
     public int defLineNum; // 符号的第一次定义在第几行
     public ArrayList<Integer> constValues = new ArrayList<>(); // 可能存在的若干个常量值（考虑到常量数组的情况）
-    public String llvmIRSymbol; // llvm ir 中间代码中变量的表示方式, 例如 "@a" 或者 "%0"
+    public Value llvmIRValue; // llvm ir 中间代码中对应的值，例如全局变量、函数、参数或者 alloca 指令
     public boolean definedInLLVMIR = false; // 是否已经在 llvm 代码中定义了
 
     @Override
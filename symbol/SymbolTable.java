@@ -1,9 +1,19 @@
 package symbol;
 
+import jdk.jfr.Event;
+import program.JfrEvents;
+
+import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 public class SymbolTable {
 
@@ -11,7 +21,7 @@ public class SymbolTable {
     private ArrayList<Symbol> symbols; // 用于存储各个 symbol 的存储顺序
     private int scopeNum;
     private SymbolTable parentScopeSymbolTable; // 父作用域的符号表指针
-    private HashMap<Integer, SymbolTable> sonScopeSymbolTables; // 各个子作用域的符号表指针
+    private LinkedHashMap<Integer, SymbolTable> sonScopeSymbolTables; // 各个子作用域的符号表指针，按作用域编号从小到大排列
     private FunctionType.ReturnType currentReturnType;
 
 
@@ -20,7 +30,7 @@ public class SymbolTable {
         this.symbols = new ArrayList<>();
         this.scopeNum = scopeNum;
         this.parentScopeSymbolTable = parentScopeSymbolTable;
-        this.sonScopeSymbolTables = new HashMap<>();
+        this.sonScopeSymbolTables = new LinkedHashMap<>();
         this.currentReturnType = currentReturnType;
     }
 
@@ -38,6 +48,7 @@ public class SymbolTable {
             newSymbol.defLineNum = defLineNum;
             symbolTable.put(symbolName, newSymbol);
             symbols.add(newSymbol);
+            session.get().symbolCount++;
             return newSymbol;
         }
     }
@@ -49,6 +60,7 @@ public class SymbolTable {
         else {
             symbolTable.put(symbol.symbolName, symbol);
             symbols.add(symbol);
+            session.get().symbolCount++;
             return symbol;
         }
     }
@@ -58,31 +70,46 @@ public class SymbolTable {
     // 如果查询失败并且存在上层符号表的话就去上层符号表里面寻找
     // 如果查询失败并且不存在上层符号表，则说明该符号未定义，直接返回 null
     public Symbol searchSymbol(String symbolName) {
-        if (symbolTable.containsKey(symbolName)) {
-            return symbolTable.get(symbolName);
-        }
-        else {
-            if (parentScopeSymbolTable != null) {
-                return parentScopeSymbolTable.searchSymbol(symbolName);
-            }
-            else {
-                return null;
-            }
+        if (JfrEvents.shouldSampleLookup()) {
+            return searchSymbolRecorded(symbolName, false);
         }
+        return findSymbol(symbolName, false);
     }
 
+    // 代码生成时只查找已经生成了定义的符号，同一作用域中在使用之后才定义的同名符号不可见
     public Symbol searchSymbolInCodeGen(String symbolName) {
-        if (symbolTable.containsKey(symbolName) && symbolTable.get(symbolName).definedInLLVMIR) {
-            return symbolTable.get(symbolName);
+        if (JfrEvents.shouldSampleLookup()) {
+            return searchSymbolRecorded(symbolName, true);
         }
-        else {
-            if (parentScopeSymbolTable != null) {
-                return parentScopeSymbolTable.searchSymbolInCodeGen(symbolName);
+        return findSymbol(symbolName, true);
+    }
+
+    private Symbol findSymbol(String symbolName, boolean definedInLLVMIROnly) {
+        for (SymbolTable table = this; table != null; table = table.parentScopeSymbolTable) {
+            Symbol symbol = table.symbolTable.get(symbolName);
+            if (symbol != null && (!definedInLLVMIROnly || symbol.definedInLLVMIR)) {
+                return symbol;
             }
-            else {
-                return null;
+        }
+        return null;
+    }
+
+    private Symbol searchSymbolRecorded(String symbolName, boolean codeGen) { // 被采样的查找，记录为 JFR 事件
+        Event event = JfrEvents.beginLookup();
+        Symbol symbol = findSymbol(symbolName, codeGen);
+        int scopesSearched = 0; // 找到符号所在的作用域为止，没有找到时为全部外层作用域
+        for (SymbolTable table = this; table != null; table = table.parentScopeSymbolTable) {
+            scopesSearched++;
+            if (symbol != null && table.symbolTable.get(symbolName) == symbol) {
+                break;
             }
         }
+        JfrEvents.commitLookup(event, symbolName, scopeNum, scopesSearched, symbol != null, codeGen);
+        return symbol;
+    }
+
+    public List<Symbol> getSymbols() { // 按插入顺序
+        return Collections.unmodifiableList(symbols);
     }
 
     public int getScopeNum() {
@@ -93,55 +120,177 @@ public class SymbolTable {
         return currentReturnType;
     }
 
+    public SymbolTable getParentSymbolTable() {
+        return parentScopeSymbolTable;
+    }
+
+    public SymbolTable getSonSymbolTable(int scopeNum) { // 不存在该编号的子作用域时返回 null
+        return sonScopeSymbolTables.get(scopeNum);
+    }
+
+    public Collection<SymbolTable> getSonSymbolTables() { // 按作用域编号从小到大
+        return sonScopeSymbolTables.values();
+    }
+
     // 符号表全局需要用到的函数和变量
-    private static int symbolTableCount; // 记录了全部的符号表数量，初始时为 1
+    // 这些状态属于一次编译，每个线程各有一份，同一进程中的多个线程可以同时编译不同的程序
+    private static class Session {
+        private int symbolTableCount; // 记录了全部的符号表数量，初始时为 1
+        private int symbolCount; // 记录了插入过的符号总数
+
+        private SymbolTable currentSymbolTable;
+        private SymbolTable globalSymbolTable;
+        private ArrayList<SymbolTable> symbolTableList;
+
+        // 流式输出模式：函数作用域关闭时直接把其中的符号写到临时文件，不再通过 symbolTableList 保留所有符号表
+        private boolean streaming = false;
+        private File symbolSpoolFile;
+        private FileWriter symbolSpoolWriter;
+
+        // 增量编译：记录最近关闭的函数作用域中的全部符号，作用域编号相对于函数作用域
+        private boolean captureClosedFunctions = false;
+        private ArrayList<String> capturedSymbols;
+        private int capturedScopeCount;
+
+        private Session() {
+            symbolTableCount = 1;
+            currentSymbolTable = new SymbolTable(1, null, null);
+            globalSymbolTable = currentSymbolTable;
+            symbolTableList = new ArrayList<>();
+            symbolTableList.add(currentSymbolTable);
+        }
+    }
+
+    private static final ThreadLocal<Session> session = ThreadLocal.withInitial(Session::new);
+
+    public static void resetSession() { // 开始一次新的编译之前调用，丢弃当前线程上一次编译的全部符号表
+        session.set(new Session());
+    }
 
-    private static SymbolTable currentSymbolTable;
-    private static ArrayList<SymbolTable> symbolTableList;
+    public static void enableStreaming() throws IOException {
+        Session s = session.get();
+        s.streaming = true;
+        s.symbolSpoolFile = File.createTempFile("symbol", ".spool");
+        s.symbolSpoolFile.deleteOnExit();
+        s.symbolSpoolWriter = new FileWriter(s.symbolSpoolFile);
+    }
+
+    public static int getSymbolTableCount() {
+        return session.get().symbolTableCount;
+    }
 
-    static {
-        symbolTableCount = 1;
-        currentSymbolTable = new SymbolTable(1, null, null);
-        symbolTableList = new ArrayList<>();
-        symbolTableList.add(currentSymbolTable);
+    public static int getSymbolCount() {
+        return session.get().symbolCount;
     }
 
     public static SymbolTable getCurrentSymbolTable() {
-        return currentSymbolTable;
+        return session.get().currentSymbolTable;
     }
 
     public static SymbolTable newSymbolTable() { // 同函数内新建作用域
-        symbolTableCount += 1;
-        SymbolTable newSymbolTable = new SymbolTable(symbolTableCount, currentSymbolTable, currentSymbolTable.currentReturnType);
-        currentSymbolTable.sonScopeSymbolTables.put(newSymbolTable.scopeNum, newSymbolTable);
-        currentSymbolTable = newSymbolTable;
-        symbolTableList.add(currentSymbolTable);
-        return currentSymbolTable;
+        Session s = session.get();
+        return enterNewSymbolTable(s, s.currentSymbolTable.currentReturnType);
     }
 
     public static SymbolTable newSymbolTable(FunctionType.ReturnType returnType) { // 进如一个新的函数的作用域
-        symbolTableCount += 1;
-        SymbolTable newSymbolTable = new SymbolTable(symbolTableCount, currentSymbolTable, returnType);
-        currentSymbolTable.sonScopeSymbolTables.put(newSymbolTable.scopeNum, newSymbolTable);
-        currentSymbolTable = newSymbolTable;
-        symbolTableList.add(currentSymbolTable);
-        return currentSymbolTable;
+        return enterNewSymbolTable(session.get(), returnType);
+    }
+
+    private static SymbolTable enterNewSymbolTable(Session s, FunctionType.ReturnType returnType) {
+        s.symbolTableCount += 1;
+        SymbolTable newSymbolTable = new SymbolTable(s.symbolTableCount, s.currentSymbolTable, returnType);
+        s.currentSymbolTable.sonScopeSymbolTables.put(newSymbolTable.scopeNum, newSymbolTable);
+        s.currentSymbolTable = newSymbolTable;
+        if (!s.streaming) {
+            s.symbolTableList.add(newSymbolTable);
+        }
+        return newSymbolTable;
     }
 
-    public static SymbolTable backToUpperScope() {
-        currentSymbolTable = currentSymbolTable.parentScopeSymbolTable;
-        return currentSymbolTable;
+    // 语义分析结束一个作用域时调用，流式输出模式下如果关闭的是函数作用域，就按作用域编号顺序写出该函数内的全部符号
+    public static SymbolTable closeScope() throws IOException {
+        Session s = session.get();
+        SymbolTable closedSymbolTable = s.currentSymbolTable;
+        s.currentSymbolTable = closedSymbolTable.parentScopeSymbolTable;
+        if (s.streaming && s.currentSymbolTable == s.globalSymbolTable) {
+            writeSymbols(closedSymbolTable, s.symbolSpoolWriter);
+            if (s.captureClosedFunctions) {
+                s.capturedSymbols = new ArrayList<>();
+                captureSymbols(closedSymbolTable, closedSymbolTable.scopeNum, s.capturedSymbols);
+                s.capturedScopeCount = s.symbolTableCount - closedSymbolTable.scopeNum + 1;
+            }
+        }
+        return s.currentSymbolTable;
     }
 
-    public static void jumpToSymbolTableByScopeNum(int scopeNum) {
-        if (currentSymbolTable.sonScopeSymbolTables.containsKey(scopeNum)) {
-            currentSymbolTable = currentSymbolTable.sonScopeSymbolTables.get(scopeNum);
+    public static void enableFunctionCapture() { // 只在流式输出模式下有效
+        session.get().captureClosedFunctions = true;
+    }
+
+    public static ArrayList<String> getCapturedSymbols() { // 每一行为 "相对作用域编号 名字 类型"
+        return session.get().capturedSymbols;
+    }
+
+    public static int getCapturedScopeCount() { // 函数作用域及其全部子作用域的数量
+        return session.get().capturedScopeCount;
+    }
+
+    private static void captureSymbols(SymbolTable symbolTable, int baseScopeNum, ArrayList<String> lines) {
+        for (Symbol symbol : symbolTable.symbols) {
+            lines.add((symbol.scopeNum - baseScopeNum) + " " + symbol.symbolName + " " + symbol.symbolType);
+        }
+        for (SymbolTable sonSymbolTable : symbolTable.sonScopeSymbolTables.values()) {
+            captureSymbols(sonSymbolTable, baseScopeNum, lines);
         }
     }
 
-    public static void printSymbolTable(FileWriter debugWriter) throws IOException {
+    // 增量编译时函数体没有重新分析，用上一次记录的符号代替当前函数作用域中的符号，并跳过函数体内各个作用域的编号
+    public static SymbolTable closeReplayedFunctionScope(int scopeCount, ArrayList<String> symbolLines) throws IOException {
+        Session s = session.get();
+        SymbolTable functionSymbolTable = s.currentSymbolTable;
+        int baseScopeNum = functionSymbolTable.scopeNum;
+        s.symbolTableCount = baseScopeNum + scopeCount - 1;
+        s.currentSymbolTable = functionSymbolTable.parentScopeSymbolTable;
+        for (String line : symbolLines) {
+            int space = line.indexOf(' ');
+            s.symbolSpoolWriter.write((baseScopeNum + Integer.parseInt(line.substring(0, space))) + line.substring(space) + "\n");
+        }
+        if (s.captureClosedFunctions) {
+            s.capturedSymbols = symbolLines;
+            s.capturedScopeCount = scopeCount;
+        }
+        return s.currentSymbolTable;
+    }
+
+    // 流式编译时，一个函数的中间代码生成完毕后释放其全部作用域，此后这些符号表和符号都不再可达
+    public static void releaseFunctionScopes() {
+        session.get().globalSymbolTable.sonScopeSymbolTables.clear();
+    }
+
+    private static void writeSymbols(SymbolTable symbolTable, Writer writer) throws IOException {
+        for (Symbol symbol : symbolTable.symbols) {
+            writer.write(symbol.toString() + "\n");
+        }
+        for (SymbolTable sonSymbolTable : symbolTable.sonScopeSymbolTables.values()) { // 子作用域编号连续递增，先序遍历即为编号顺序
+            writeSymbols(sonSymbolTable, writer);
+        }
+    }
+
+    public static void printSymbolTable(Writer debugWriter) throws IOException {
+        Session s = session.get();
         //System.out.println("符号表数量为 " + symbolTableList.size());
-        for (SymbolTable symbolTable : symbolTableList) {
+        if (s.streaming) { // 全局作用域的符号排在最前面，之后是已经写到临时文件中的各个函数作用域的符号
+            for (Symbol symbol : s.globalSymbolTable.symbols) {
+                debugWriter.write(symbol.toString() + "\n");
+            }
+            s.symbolSpoolWriter.close();
+            try (FileReader spoolReader = new FileReader(s.symbolSpoolFile)) {
+                spoolReader.transferTo(debugWriter);
+            }
+            s.symbolSpoolFile.delete();
+            return;
+        }
+        for (SymbolTable symbolTable : s.symbolTableList) {
             for (Symbol symbol : symbolTable.symbols) {
                 debugWriter.write(symbol.toString() + "\n");
             }
@@ -5,17 +5,19 @@ import lexical.Token;
 import program.ProgramException;
 import syntax.nodes.*;
 
-import java.io.FileWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 
 public class Parser {
 
     private boolean debugFlag;
-    private FileWriter debugWriter;
+    private Writer debugWriter;
 
     private Lexer lexer;
 
-    public Parser(Lexer lexer, boolean debugFlag, FileWriter debugWriter) {
+    private boolean mainFuncDefParsed = false; // 是否已经解析到了主函数定义
+
+    public Parser(Lexer lexer, boolean debugFlag, Writer debugWriter) {
         this.lexer = lexer;
         this.debugFlag = debugFlag;
         this.debugWriter = debugWriter;
@@ -24,45 +26,68 @@ public class Parser {
     public CompUnit parseCompUnit() throws Exception {
         CompUnit compUnit = new CompUnit();
         compUnit.lineNum = lexer.getCurrentToken().getLine();
-        while (lexer.getCurrentToken().getType() != Token.TokenType.EOF) {
-            if (lexer.getCurrentToken().getType() == Token.TokenType.CONSTTK) { // 只能是常量定义
-                compUnit.decls.add(parseConstDecl());
+        ASTnode item;
+        while ((item = parseCompUnitItem()) != null) {
+            if (item instanceof Decl) {
+                compUnit.decls.add((Decl) item);
             }
-            else if (lexer.getCurrentToken().getType() == Token.TokenType.VOIDTK) { // 只能是函数定义
-                compUnit.funcDefs.add(parseFuncDef());
+            else if (((FuncDef) item).isMain) {
+                compUnit.mainFuncDef = (FuncDef) item;
             }
-            else if (lexer.getCurrentToken().getType() == Token.TokenType.INTTK) { // 有可能为变量定义，函数定义或者主函数定义
-                if (lexer.tokenPreRead(1).getType() == Token.TokenType.MAINTK && lexer.tokenPreRead(2).getType() == Token.TokenType.LPARENT) {
-                    compUnit.mainFuncDef = parseMainFuncDef();
-                    break;
-                }
-                else if (lexer.tokenPreRead(1).getType() == Token.TokenType.IDENFR && lexer.tokenPreRead(2).getType() == Token.TokenType.LPARENT) {
-                    compUnit.funcDefs.add(parseFuncDef());
-                }
-                else if (lexer.tokenPreRead(1).getType() == Token.TokenType.IDENFR) {
-                    compUnit.decls.add(parseVarDecl());
-                }
-                else {
-                    error("无法解析的CompUnit内部成分！，出现在 " + this.lexer.getCurrentToken().getLine() + " 行");
-                }
+            else {
+                compUnit.funcDefs.add((FuncDef) item);
             }
-            else if (lexer.getCurrentToken().getType() == Token.TokenType.CHARTK) { //有可能为变量定义或函数定义
-                if (lexer.tokenPreRead(1).getType() == Token.TokenType.IDENFR && lexer.tokenPreRead(2).getType() == Token.TokenType.LPARENT) {
-                    compUnit.funcDefs.add(parseFuncDef());
-                }
-                else if (lexer.tokenPreRead(1).getType() == Token.TokenType.IDENFR) {
-                    compUnit.decls.add(parseVarDecl());
-                }
-                else {
-                    error("无法解析的CompUnit内部成分！，出现在 " + this.lexer.getCurrentToken().getLine() + " 行");
-                }
+        }
+        endCompUnit();
+        return compUnit;
+    }
+
+    // 解析 CompUnit 的下一个顶层成分（全局声明、函数定义或者主函数定义），没有更多成分时返回 null
+    // 流式编译时调用者每拿到一个成分就可以立即分析并生成代码，不需要保留整棵语法树
+    public ASTnode parseCompUnitItem() throws Exception {
+        if (mainFuncDefParsed || lexer.getCurrentToken().getType() == Token.TokenType.EOF) { // 主函数之后不再解析
+            return null;
+        }
+        if (lexer.getCurrentToken().getType() == Token.TokenType.CONSTTK) { // 只能是常量定义
+            return parseConstDecl();
+        }
+        else if (lexer.getCurrentToken().getType() == Token.TokenType.VOIDTK) { // 只能是函数定义
+            return parseFuncDef();
+        }
+        else if (lexer.getCurrentToken().getType() == Token.TokenType.INTTK) { // 有可能为变量定义，函数定义或者主函数定义
+            if (lexer.tokenPreRead(1).getType() == Token.TokenType.MAINTK && lexer.tokenPreRead(2).getType() == Token.TokenType.LPARENT) {
+                mainFuncDefParsed = true;
+                return parseMainFuncDef();
+            }
+            else if (lexer.tokenPreRead(1).getType() == Token.TokenType.IDENFR && lexer.tokenPreRead(2).getType() == Token.TokenType.LPARENT) {
+                return parseFuncDef();
+            }
+            else if (lexer.tokenPreRead(1).getType() == Token.TokenType.IDENFR) {
+                return parseVarDecl();
+            }
+            else {
+                error("无法解析的CompUnit内部成分！，出现在 " + this.lexer.getCurrentToken().getLine() + " 行");
+            }
+        }
+        else if (lexer.getCurrentToken().getType() == Token.TokenType.CHARTK) { //有可能为变量定义或函数定义
+            if (lexer.tokenPreRead(1).getType() == Token.TokenType.IDENFR && lexer.tokenPreRead(2).getType() == Token.TokenType.LPARENT) {
+                return parseFuncDef();
+            }
+            else if (lexer.tokenPreRead(1).getType() == Token.TokenType.IDENFR) {
+                return parseVarDecl();
             }
             else {
                 error("无法解析的CompUnit内部成分！，出现在 " + this.lexer.getCurrentToken().getLine() + " 行");
             }
         }
+        else {
+            error("无法解析的CompUnit内部成分！，出现在 " + this.lexer.getCurrentToken().getLine() + " 行");
+        }
+        return null;
+    }
+
+    public void endCompUnit() throws Exception { // 所有顶层成分解析完毕
         if (debugFlag) { debugWriter.write("<CompUnit>\n"); }
-        return compUnit;
     }
 
     public FuncDef parseMainFuncDef() throws Exception {
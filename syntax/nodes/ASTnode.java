@@ -2,4 +2,19 @@ package syntax.nodes;
 
 public class ASTnode {
     public int lineNum;
+
+    // 当前线程本次编译创建过的语法树节点总数，用于统计；与符号表一样每个线程各有一份
+    private static final ThreadLocal<long[]> createdCount = ThreadLocal.withInitial(() -> new long[1]);
+
+    {
+        createdCount.get()[0]++;
+    }
+
+    public static void resetCreatedCount() { // 开始一次新的编译之前调用
+        createdCount.get()[0] = 0;
+    }
+
+    public static long getCreatedCount() {
+        return createdCount.get()[0];
+    }
 }
@@ -0,0 +1,207 @@
+package driver;
+
+import java.util.Objects;
+import java.util.Random;
+
+// EditorSession 的增量分析与完整分析一致：每次编辑之后，增量刷新得到的诊断信息必须与对当前文本新建会话的结果相同
+//   固定的编辑序列：覆盖行号平移、只改函数体、全局符号的增删、跨越函数的注释、无法识别的字符、跨越多行的替换，
+//   没有 fatalError 时还与 CompileSession 的 error.txt 比较
+//   编辑回放：在生成的程序上按随机种子做随机的插入和删除，大部分编辑之后再撤销，回放过程完全由种子决定。
+//   随机编辑出的残缺程序可能使两遍编译的语义检查出错（EditorSession 把这种情况报告为 fatalError），因此只与新建的会话比较
+// 用法：java driver.EditorSessionTest [起始种子 种子数量 每个种子的编辑次数]
+public class EditorSessionTest {
+
+    private static final String PROGRAM = String.join("\n",
+        "const int N = 10;",
+        "int g[N];",
+        "",
+        "int add(int a, int b) {",
+        "    return a + b;",
+        "}",
+        "",
+        "int twice(int x) {",
+        "    int y = add(x, x);",
+        "    return y;",
+        "}",
+        "",
+        "int main() {",
+        "    int i;",
+        "    for (i = 0; i < N; i = i + 1) {",
+        "        g[i] = twice(i);",
+        "    }",
+        "    printf(\"%d\\n\", g[3]);",
+        "    return 0;",
+        "}");
+
+    private static final String[] SNIPPETS = {";", "}", "{", "x0", "int q = 1;\n", "\n", "const int K0 = 2;\n", "&", "/*", "*/",
+        "//", "break;", "return 1;", "f0(1)", "\"%d\"", "'a'", "printf(\"%d\\n\");", "int gcount = 3;\n", " ", "a", "(", ")",
+        "[", "]", "int f1(int a) {\n return a;\n}\n", "void zz() { return 1; }\n", "\n\n", "+", "=", "c0 = 1;"};
+
+    private static int comparedNum;
+
+    public static void main(String[] args) throws Exception {
+        long firstSeed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int seedNum = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int editNum = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        scriptedEdits();
+        for (long seed = firstSeed; seed < firstSeed + seedNum; seed++) {
+            replay(seed, editNum);
+        }
+        System.out.println("EditorSessionTest: " + comparedNum + " comparisons ok");
+    }
+
+    private static void scriptedEdits() throws Exception {
+        EditorSession session = new EditorSession(PROGRAM);
+        EditorSession.Diagnostics initial = compare(session, true, "initial");
+        check(initial.errorCount == 0 && initial.checkedItems == 5, "initial: " + initial.errors);
+
+        session.applyEdit(0, 0, 0, 0, "\n\n"); // 所有成分下移两行，只有编辑位置所在的第一个成分重新分析
+        EditorSession.Diagnostics shifted = compare(session, true, "insert lines at top");
+        check(shifted.checkedItems == 1 && shifted.reusedItems == 4, "lines at top rechecked " + shifted.checkedItems + " items");
+
+        session.applyEdit(10, 19, 10, 20, "z"); // add(x, x) -> add(x, z)，未定义的标识符，只有 twice 和调用它的 main 重新检查
+        EditorSession.Diagnostics undefined = compare(session, true, "undefined identifier");
+        check(undefined.errors.equals("11 c\n") && undefined.checkedItems == 2,
+            "undefined identifier: checked " + undefined.checkedItems + " items\n" + undefined.errors);
+
+        session.applyEdit(4, 0, 4, 0, "int z = 1;\n"); // 新的全局变量，twice 依赖的符号变化
+        check(compare(session, true, "define global").errorCount == 0, "global z not resolved");
+
+        session.applyEdit(0, 0, 2, 0, ""); // 删除开头的空行，之后的成分上移
+        compare(session, true, "delete lines at top");
+
+        session.applyEdit(10, 12, 10, 13, ""); // 去掉 return y 后面的分号
+        EditorSession.Diagnostics missingSemicolon = compare(session, true, "missing semicolon");
+        check(missingSemicolon.errors.equals("11 i\n"), "missing semicolon: " + missingSemicolon.errors);
+
+        session.applyEdit(3, 0, 3, 0, "/*"); // 注释掉 add 之后 twice 调用未定义的函数
+        session.applyEdit(6, 1, 6, 1, "*/");
+        EditorSession.Diagnostics commented = compare(session, true, "comment out function");
+        check(commented.errors.contains(" c\n"), "commented out add: " + commented.errors);
+        session.applyEdit(6, 1, 6, 3, "");
+        session.applyEdit(3, 0, 3, 2, "");
+        compare(session, true, "uncomment function");
+
+        session.applyEdit(7, 0, 7, 0, "int add(int a) {\n    return a;\n}\n"); // 重复定义
+        EditorSession.Diagnostics redefined = compare(session, true, "redefine function");
+        check(redefined.errors.startsWith("8 b\n"), "redefined add: " + redefined.errors);
+        session.applyEdit(7, 0, 10, 0, "");
+        compare(session, true, "remove redefinition");
+
+        session.applyEdit(14, 4, 14, 4, "@"); // 无法识别的字符
+        EditorSession.Diagnostics fatal = compare(session, true, "unrecognized character");
+        check(fatal.fatalError != null && fatal.fatalLine == 15, "unrecognized character: " + fatal.fatalError + "@" + fatal.fatalLine);
+        session.applyEdit(14, 4, 14, 5, "");
+        compare(session, true, "remove unrecognized character");
+
+        session.applyEdit(16, 12, 16, 12, "\n           "); // g[i] = twice(i); 拆成两行，之后的成分下移一行
+        compare(session, true, "split line");
+
+        session.applyEdit(9, 12, 14, 9, "x + x;\n    return y;\n}\n\nint main() {\n    int i"); // 跨越 twice 和 main 的替换
+        compare(session, true, "replace across functions");
+
+        session.applyEdit(0, 0, session.getLineNum() - 1, lastLine(session).length(), PROGRAM); // 整体换回原来的程序
+        EditorSession.Diagnostics restored = compare(session, true, "restore program");
+        check(restored.errorCount == 0 && session.getText().equals(PROGRAM), "restore: " + restored.errors);
+    }
+
+    // 在生成的程序上随机编辑，编辑的位置、内容以及是否撤销都由 seed 决定
+    private static void replay(long seed, int editNum) throws Exception {
+        Random random = new Random(seed);
+        WorkloadGenerator.Config config = new WorkloadGenerator.Config();
+        config.seed = seed;
+        config.functions = 6;
+        config.statements = 12;
+        config.depth = 3;
+        EditorSession session = new EditorSession(WorkloadGenerator.generate(config));
+        for (int edit = 0; edit < editNum; edit++) {
+            String text = session.getText();
+            String[] lines = text.split("\n", -1);
+            int startLine = random.nextInt(lines.length);
+            int startColumn = random.nextInt(lines[startLine].length() + 1);
+            int endLine = startLine;
+            int endColumn = startColumn;
+            String inserted = "";
+            if (random.nextBoolean()) {
+                inserted = SNIPPETS[random.nextInt(SNIPPETS.length)];
+            }
+            else { // 删除若干个字符，可能跨越多行
+                int length = 1 + random.nextInt(random.nextInt(4) == 0 ? 40 : 4);
+                while (length > 0) {
+                    int available = lines[endLine].length() - endColumn;
+                    if (length <= available) {
+                        endColumn += length;
+                        length = 0;
+                    }
+                    else if (endLine + 1 < lines.length) {
+                        length -= available + 1;
+                        endLine++;
+                        endColumn = 0;
+                    }
+                    else {
+                        endColumn = lines[endLine].length();
+                        length = 0;
+                    }
+                }
+            }
+            String removed = extract(lines, startLine, startColumn, endLine, endColumn);
+            String where = "seed " + seed + " edit " + edit;
+            session.applyEdit(startLine, startColumn, endLine, endColumn, inserted);
+            compare(session, false, where);
+            if (random.nextInt(20) < 19) { // 撤销
+                String[] insertedLines = inserted.split("\n", -1);
+                int undoEndLine = startLine + insertedLines.length - 1;
+                int undoEndColumn = insertedLines.length == 1 ? startColumn + inserted.length()
+                    : insertedLines[insertedLines.length - 1].length();
+                session.applyEdit(startLine, startColumn, undoEndLine, undoEndColumn, removed);
+                check(session.getText().equals(text), where + ": undo did not restore the text");
+                compare(session, false, where + " undo");
+            }
+        }
+    }
+
+    private static EditorSession.Diagnostics compare(EditorSession session, boolean compareErrorFile, String where) throws Exception {
+        String text = session.getText();
+        EditorSession.Diagnostics incremental = session.getDiagnostics();
+        EditorSession.Diagnostics full = new EditorSession(text).getDiagnostics();
+        // fatalError 是异常信息，其中的行号来自语法分析时的位置，复用的成分不会平移，只比较行号以外的部分
+        boolean same = incremental.errors.equals(full.errors) && incremental.fatalLine == full.fatalLine
+            && Objects.equals(withoutDigits(incremental.fatalError), withoutDigits(full.fatalError));
+        check(same, where + ": incremental and full diagnostics differ\n--- text\n" + text
+            + "\n--- incremental\n" + incremental.errors + incremental.fatalError + "@" + incremental.fatalLine
+            + "\n--- full\n" + full.errors + full.fatalError + "@" + full.fatalLine);
+        if (compareErrorFile && full.fatalError == null) {
+            String errors = new CompileSession(false, false, 1 << 16).compile(text).errors;
+            check(errors.equals(full.errors), where + ": editor diagnostics differ from error.txt\n--- text\n" + text
+                + "\n--- editor\n" + full.errors + "\n--- error.txt\n" + errors);
+        }
+        comparedNum++;
+        return incremental;
+    }
+
+    private static String withoutDigits(String message) {
+        return message == null ? null : message.replaceAll("[0-9]", "");
+    }
+
+    private static String lastLine(EditorSession session) {
+        String text = session.getText();
+        return text.substring(text.lastIndexOf('\n') + 1);
+    }
+
+    private static String extract(String[] lines, int startLine, int startColumn, int endLine, int endColumn) {
+        if (startLine == endLine) {
+            return lines[startLine].substring(startColumn, endColumn);
+        }
+        StringBuilder text = new StringBuilder(lines[startLine].substring(startColumn));
+        for (int i = startLine + 1; i < endLine; i++) {
+            text.append("\n").append(lines[i]);
+        }
+        return text.append("\n").append(lines[endLine], 0, endColumn).toString();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package llvm.pass;
+
+import llvm.Type;
+import llvm.ir.BasicBlock;
+import llvm.ir.Constant;
+import llvm.ir.Function;
+import llvm.ir.Instruction;
+import llvm.ir.Instruction.Opcode;
+import llvm.ir.Value;
+
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.TreeSet;
+
+// StrengthReduction 改写出的指令序列与 Java 的 *、/、% 结果相同（都是 32 位补码、向 0 取整）：
+// 对每个除数构造只有一条 x op d 的函数，运行强度削减之后逐条解释执行，与直接计算的结果比较
+//   除数：-300 ~ 300，±2^k 及其附近，INT_MIN、INT_MAX 附近，以及固定种子的随机数
+//   被除数：0 附近，INT_MIN、INT_MAX 附近，除数的倍数及其附近（商的取整边界），±2^k 及其附近，以及随机数
+// 用法：java llvm.pass.StrengthReductionTest [随机除数个数]
+public class StrengthReductionTest {
+
+    public static void main(String[] args) {
+        int randomDivisorNum = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        Random random = new Random(48);
+        TreeSet<Integer> divisors = new TreeSet<>();
+        for (int d = -300; d <= 300; d++) {
+            divisors.add(d);
+        }
+        for (int k = 0; k < 32; k++) {
+            for (int e = -3; e <= 3; e++) {
+                divisors.add((1 << k) + e);
+                divisors.add(-(1 << k) + e);
+            }
+        }
+        for (int e = 0; e < 8; e++) {
+            divisors.add(Integer.MAX_VALUE - e);
+            divisors.add(Integer.MIN_VALUE + e);
+        }
+        for (int i = 0; i < randomDivisorNum; i++) {
+            divisors.add(random.nextInt());
+        }
+        divisors.remove(0); // 除以 0 保持原样
+        int[] randomDividends = new int[200];
+        for (int i = 0; i < randomDividends.length; i++) {
+            randomDividends[i] = random.nextInt();
+        }
+
+        long checkNum = 0;
+        for (int d : divisors) {
+            Function div = reduce(Opcode.SDIV, d, false);
+            Function rem = reduce(Opcode.SREM, d, false);
+            Function mul = reduce(Opcode.MUL, d, false);
+            Function mulLeft = reduce(Opcode.MUL, d, true);
+            for (int x : dividends(d, randomDividends)) {
+                if (x != Integer.MIN_VALUE || d != -1) { // 溢出，SysY 中是未定义行为
+                    check(evaluate(div, x) == x / d, x + " / " + d + " = " + evaluate(div, x));
+                    check(evaluate(rem, x) == x % d, x + " % " + d + " = " + evaluate(rem, x));
+                }
+                check(evaluate(mul, x) == x * d, x + " * " + d + " = " + evaluate(mul, x));
+                check(evaluate(mulLeft, x) == d * x, d + " * " + x + " = " + evaluate(mulLeft, x));
+                checkNum += 4;
+            }
+        }
+        System.out.println("StrengthReductionTest: " + divisors.size() + " constants, " + checkNum + " checks ok");
+    }
+
+    private static TreeSet<Integer> dividends(int d, int[] randomDividends) {
+        TreeSet<Integer> dividends = new TreeSet<>();
+        long quotient = Integer.MAX_VALUE / d;
+        for (int e = -3; e <= 3; e++) {
+            dividends.add(e);
+            dividends.add(Integer.MIN_VALUE + e);
+            dividends.add(Integer.MAX_VALUE + e);
+            for (int m = -3; m <= 3; m++) {
+                dividends.add((int) ((long) d * m + e));
+            }
+            dividends.add((int) (quotient * d + e)); // 最大和最小的 d 的倍数附近
+            dividends.add((int) (-quotient * d + e));
+        }
+        for (int k = 0; k < 32; k++) {
+            dividends.add(1 << k);
+            dividends.add(-(1 << k));
+            dividends.add((1 << k) - 1);
+            dividends.add(-(1 << k) + 1);
+        }
+        for (int x : randomDividends) {
+            dividends.add(x);
+        }
+        return dividends;
+    }
+
+    // 构造 i32 f(i32 x) { return x op c; }（constantLeft 时为 c op x），运行强度削减
+    private static Function reduce(Opcode opcode, int c, boolean constantLeft) {
+        Function function = new Function("f", Type.i32(), new Type[] {Type.i32()});
+        BasicBlock block = new BasicBlock("entry", function);
+        function.addBlock(block);
+        Value x = function.getArgument(0);
+        Instruction instruction = constantLeft ? Instruction.binary(opcode, Constant.i32(c), x)
+            : Instruction.binary(opcode, x, Constant.i32(c));
+        block.add(instruction);
+        block.add(Instruction.ret(instruction));
+        PassManager manager = new PassManager();
+        manager.add(new StrengthReduction());
+        manager.run(function);
+        return function;
+    }
+
+    // 解释执行只有一个基本块的函数，i32 的值保存为符号扩展之后的 long
+    private static long evaluate(Function function, int argument) {
+        IdentityHashMap<Value, Long> values = new IdentityHashMap<>();
+        values.put(function.getArgument(0), (long) argument);
+        for (Instruction instruction : function.getEntryBlock().getInstructions()) {
+            if (instruction.opcode == Opcode.RET) {
+                return valueOf(values, instruction.getOperand(0));
+            }
+            long a = valueOf(values, instruction.getOperand(0));
+            long b = instruction.getOperandCount() > 1 ? valueOf(values, instruction.getOperand(1)) : 0;
+            boolean wide = instruction.type == Type.i64();
+            long result;
+            switch (instruction.opcode) {
+                case SEXT: result = (int) a; break;
+                case TRUNC: result = (int) a; break;
+                case ZEXT: result = a & 1; break; // 只有 i1 到 i32
+                case ICMP: result = a == b ? 1 : 0; break; // 只有 eq
+                case ADD: result = a + b; break;
+                case SUB: result = a - b; break;
+                case MUL: result = a * b; break;
+                case SDIV: result = (int) a / (int) b; break;
+                case SREM: result = (int) a % (int) b; break;
+                case SHL: result = wide ? a << b : (int) a << b; break;
+                case ASHR: result = wide ? a >> b : (int) a >> b; break;
+                case LSHR: result = wide ? a >>> b : (int) a >>> b; break;
+                case AND: result = a & b; break;
+                case OR: result = a | b; break;
+                default: throw new AssertionError("unexpected instruction " + instruction);
+            }
+            values.put(instruction, wide ? result : (long) (int) result);
+        }
+        throw new AssertionError("no ret");
+    }
+
+    private static long valueOf(IdentityHashMap<Value, Long> values, Value value) {
+        return value instanceof Constant ? ((Constant) value).value : values.get(value);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
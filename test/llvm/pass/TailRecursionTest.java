@@ -0,0 +1,43 @@
+package llvm.pass;
+
+import driver.CompileResult;
+import driver.CompileSession;
+
+// TailRecursion 的回归测试：按默认的优化流程（-O1）编译，检查编译成功、自身的尾调用都变成了循环
+//   所有返回路径都是尾调用时，原来的返回块变为不可达，其中的 phi 没有来源，必须删除，否则之后的遍会出错
+//   累加器递归中返回单位元的返回点直接返回累加器，不留下 add %acc, 0
+// 用法：java llvm.pass.TailRecursionTest
+public class TailRecursionTest {
+
+    public static void main(String[] args) throws Exception {
+        String ir = compile("int f(int n) {\n    if (n > 0) return f(n - 1);\n    return f(n + 1);\n}\n", "f");
+        check(!ir.contains("ret"), "f: unreachable return block left behind\n" + ir);
+
+        ir = compile("int cond(int n) {\n    if (n > 0) return cond(n - 1) + 1;\n    else return cond(n + 2) + 2;\n    return 0;\n}\n", "cond");
+        check(!ir.contains("phi i32 [  ]") && !ir.contains("ret"), "cond: unreachable return block left behind\n" + ir);
+
+        ir = compile("int sum(int n) {\n    if (n == 0) return 0;\n    return n + sum(n - 1);\n}\n", "sum");
+        check(!ir.matches("(?s).*add i32 [^\\n]*, 0\\n.*"), "sum: identity operation left behind\n" + ir);
+
+        System.out.println("TailRecursionTest: ok");
+    }
+
+    // 编译 function 加上一个调用它的 main，返回 function 的中间代码
+    private static String compile(String function, String name) throws Exception {
+        String source = function + "int main() {\n    printf(\"%d\\n\", " + name + "(3));\n    return 0;\n}\n";
+        CompileResult result = new CompileSession(false, false, 1 << 16, true).compile(source);
+        check(result.succeeded(), name + ": compile failed\n" + result.errors);
+        String ir = result.llvmIR;
+        int start = ir.indexOf("define i32 @" + name + "(");
+        check(start >= 0, name + ": function not found\n" + ir);
+        String body = ir.substring(start, ir.indexOf("\n}\n", start) + 3);
+        check(!body.contains("call i32 @" + name + "("), name + ": self tail call not eliminated\n" + body);
+        return body;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}